@@ -0,0 +1,207 @@
+package com.dan.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the latency of catalog page reads and of sales made at the same time, on a
+ * generated catalog, with a rollback journal and with a write-ahead log. The results are
+ * logged under the {@link #LOG_TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductDbHelperBenchmark {
+
+    private static final String LOG_TAG = ProductDbHelperBenchmark.class.getSimpleName();
+
+    private static final String ROLLBACK_DATABASE = "benchmark_rollback.db";
+    private static final String WAL_DATABASE = "benchmark_wal.db";
+
+    private static final int PRODUCT_COUNT = 5000;
+    private static final int SALE_COUNT = 500;
+    private static final int PAGE_SIZE = 50;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(ROLLBACK_DATABASE);
+        mContext.deleteDatabase(WAL_DATABASE);
+    }
+
+    @Test
+    public void writeAheadLog_isEnabled() {
+        ProductDbHelper helper = open(WAL_DATABASE, true);
+        try {
+            assertEquals("wal", DatabaseUtils.stringForQuery(helper.getReadableDatabase(),
+                    "PRAGMA journal_mode", null).toLowerCase(Locale.US));
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void concurrentReadsAndSales() throws Exception {
+        Result rollback = run(ROLLBACK_DATABASE, false);
+        Result wal = run(WAL_DATABASE, true);
+        Log.i(LOG_TAG, "rollback journal: " + rollback);
+        Log.i(LOG_TAG, "write-ahead log:  " + wal);
+        assertEquals(SALE_COUNT, rollback.mWriteNanos.length);
+        assertEquals(SALE_COUNT, wal.mWriteNanos.length);
+    }
+
+    private ProductDbHelper open(String name, boolean writeAheadLogging) {
+        mContext.deleteDatabase(name);
+        return new ProductDbHelper(mContext, name, writeAheadLogging);
+    }
+
+    /**
+     * Sell random products on one thread while another one reads the catalog page by page,
+     * timing each sale and each page
+     */
+    private Result run(String name, boolean writeAheadLogging) throws Exception {
+        ProductDbHelper helper = open(name, writeAheadLogging);
+        try {
+            final SQLiteDatabase db = helper.getWritableDatabase();
+            insertProducts(db);
+
+            final Result result = new Result();
+            final AtomicBoolean writing = new AtomicBoolean(true);
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long[] nanos = new long[1024];
+                    int count = 0;
+                    long afterId = 0;
+                    while (writing.get()) {
+                        long start = System.nanoTime();
+                        afterId = readPage(db, afterId);
+                        if (count == nanos.length) {
+                            nanos = Arrays.copyOf(nanos, count * 2);
+                        }
+                        nanos[count++] = System.nanoTime() - start;
+                    }
+                    result.mReadNanos = Arrays.copyOf(nanos, count);
+                }
+            });
+            reader.start();
+
+            // Like the provider's sell call
+            SQLiteStatement sell = db.compileStatement("UPDATE " + ProductEntry.TABLE_NAME
+                    + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + "="
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + "-1 WHERE " + ProductEntry._ID
+                    + "=? AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ">0");
+            Random random = new Random(42);
+            result.mWriteNanos = new long[SALE_COUNT];
+            try {
+                for (int i = 0; i < SALE_COUNT; i++) {
+                    long start = System.nanoTime();
+                    db.beginTransaction();
+                    try {
+                        sell.bindLong(1, 1 + random.nextInt(PRODUCT_COUNT));
+                        sell.executeUpdateDelete();
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    result.mWriteNanos[i] = System.nanoTime() - start;
+                }
+            } finally {
+                writing.set(false);
+                sell.close();
+            }
+            reader.join();
+            return result;
+        } finally {
+            helper.close();
+        }
+    }
+
+    private static void insertProducts(SQLiteDatabase db) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + ProductEntry.TABLE_NAME
+                + " (" + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + ", "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ") VALUES (?, ?, ?, ?)");
+        Random random = new Random(7);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < PRODUCT_COUNT; i++) {
+                insert.bindString(1, "Product " + i);
+                insert.bindDouble(2, 1 + random.nextInt(10000) / 100.0);
+                insert.bindString(3, String.format(Locale.US, "%040x", i));
+                insert.bindLong(4, random.nextInt(100));
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Read the page following afterId like the catalog does, return the id to read the next
+     * page after, 0 to start over
+     */
+    private static long readPage(SQLiteDatabase db, long afterId) {
+        Cursor cursor = db.query(ProductEntry.TABLE_NAME, ProductEntry.LIST_PROJECTION,
+                ProductEntry._ID + ">?", new String[]{String.valueOf(afterId)}, null, null,
+                ProductEntry._ID + " ASC", String.valueOf(PAGE_SIZE));
+        try {
+            long lastId = 0;
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                cursor.getString(1);
+                cursor.getInt(2);
+                cursor.getString(3);
+                cursor.getDouble(4);
+            }
+            return lastId;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static class Result {
+        long[] mReadNanos;
+        long[] mWriteNanos;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "API %d, %d page reads %s, %d sales %s",
+                    Build.VERSION.SDK_INT, mReadNanos.length, percentiles(mReadNanos),
+                    mWriteNanos.length, percentiles(mWriteNanos));
+        }
+
+        private static String percentiles(long[] nanos) {
+            if (nanos.length == 0) {
+                return "(none)";
+            }
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            return String.format(Locale.US, "p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms",
+                    sorted[sorted.length / 2] / 1e6, sorted[sorted.length * 95 / 100] / 1e6,
+                    sorted[sorted.length * 99 / 100] / 1e6, sorted[sorted.length - 1] / 1e6);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.dan.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests of the indexes of the products table: the migration creating them, and
+ * the query plans of the provider's selections and sort orders, which must use them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductDbHelperIndexTest {
+
+    private static final String DATABASE_NAME = "index_test.db";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private ProductDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) {
+            mHelper.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion4_createsIndexes() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+        db.execSQL("CREATE TABLE products (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL, price DOUBLE NOT NULL DEFAULT 0.00, "
+                + "image_key TEXT NOT NULL, quantity INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("CREATE TABLE metadata (key TEXT PRIMARY KEY, value INTEGER NOT NULL);");
+        db.execSQL("INSERT INTO products (name, price, image_key, quantity) VALUES ('Lolita', 20.5, 'key', 2)");
+        db.setVersion(4);
+        db.close();
+
+        List<String> indexes = readIndexes(open());
+
+        assertTrue(indexes.contains(ProductDbHelper.INDEX_PRODUCTS_NAME));
+        assertTrue(indexes.contains(ProductDbHelper.INDEX_PRODUCTS_QUANTITY));
+    }
+
+    @Test
+    public void create_createsIndexes() {
+        List<String> indexes = readIndexes(open());
+
+        assertTrue(indexes.contains(ProductDbHelper.INDEX_PRODUCTS_NAME));
+        assertTrue(indexes.contains(ProductDbHelper.INDEX_PRODUCTS_QUANTITY));
+    }
+
+    @Test
+    public void namePrefix_searchesNameIndex() {
+        String plan = explain(open(), ProductProvider.SELECTION_NAME_PREFIX, "lol%", null);
+
+        assertTrue(plan, plan.contains("SEARCH"));
+        assertTrue(plan, plan.contains(ProductDbHelper.INDEX_PRODUCTS_NAME));
+    }
+
+    @Test
+    public void namePrefix_ignoresCase() {
+        SQLiteDatabase db = open();
+        insert(db, "Lolita", 2);
+        insert(db, "lord of the rings", 5);
+        insert(db, "Gone with the Wind", 1);
+
+        Cursor cursor = db.query(ProductEntry.TABLE_NAME, new String[]{ProductEntry.COLUMN_PRODUCT_NAME},
+                ProductProvider.SELECTION_NAME_PREFIX, new String[]{"LO%"}, null, null,
+                ProductEntry.SORT_BY_NAME);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Lolita", cursor.getString(0));
+            cursor.moveToNext();
+            assertEquals("lord of the rings", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void lowStock_searchesQuantityIndexInOrder() {
+        String plan = explain(open(), ProductProvider.SELECTION_MAX_QUANTITY, "5",
+                ProductEntry.SORT_BY_QUANTITY);
+
+        assertTrue(plan, plan.contains(ProductDbHelper.INDEX_PRODUCTS_QUANTITY));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void sortByName_readsNameIndexInOrder() {
+        String plan = explain(open(), null, null, ProductEntry.SORT_BY_NAME);
+
+        assertTrue(plan, plan.contains(ProductDbHelper.INDEX_PRODUCTS_NAME));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    private SQLiteDatabase open() {
+        mHelper = new ProductDbHelper(mContext, DATABASE_NAME, true);
+        return mHelper.getWritableDatabase();
+    }
+
+    private static void insert(SQLiteDatabase db, String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1.0);
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY, "key");
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        db.insertOrThrow(ProductEntry.TABLE_NAME, null, values);
+    }
+
+    private static List<String> readIndexes(SQLiteDatabase db) {
+        List<String> indexes = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND tbl_name=?",
+                new String[]{ProductEntry.TABLE_NAME});
+        try {
+            while (cursor.moveToNext()) {
+                indexes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return indexes;
+    }
+
+    /**
+     * Return the query plan of the catalog query with the selection and sort order, one
+     * line per step
+     */
+    private static String explain(SQLiteDatabase db, String selection, String arg, String sortOrder) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, ProductEntry.TABLE_NAME,
+                ProductEntry.LIST_PROJECTION, selection, null, null, sortOrder, null);
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, arg == null ? null : new String[]{arg});
+        try {
+            StringBuilder plan = new StringBuilder();
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.dan.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests of {@link QueryCache}, which needs the platform's LruCache and cursors.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryCacheTest {
+
+    private static final String[] COLUMNS = {ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE, ProductEntry.COLUMN_PRODUCT_IMAGE_KEY};
+
+    private final QueryCache mCache = new QueryCache(64 * 1024);
+
+    @Test
+    public void put_thenGet_returnsSameRows() {
+        Cursor stored = mCache.put(key("Lolita"), mCache.getGeneration(), products(2));
+        assertRows(2, stored);
+
+        Cursor cached = mCache.get(key("Lolita"));
+
+        assertNotNull(cached);
+        assertRows(2, cached);
+        assertEquals(1, mCache.getHitCount());
+        assertTrue(mCache.getSize() > 0);
+    }
+
+    @Test
+    public void get_otherQuery_misses() {
+        mCache.put(key("Lolita"), mCache.getGeneration(), products(2));
+
+        assertNull(mCache.get(key("Gatsby")));
+        assertNull(mCache.get(QueryCache.buildKey(ProductEntry.CONTENT_URI, COLUMNS, "name=?",
+                null, null)));
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    @Test
+    public void invalidate_dropsResults() {
+        mCache.put(key("Lolita"), mCache.getGeneration(), products(2));
+
+        mCache.invalidate();
+
+        assertNull(mCache.get(key("Lolita")));
+        assertEquals(0, mCache.getSize());
+    }
+
+    @Test
+    public void put_afterWrite_isNotCached() {
+        long generation = mCache.getGeneration();
+        mCache.invalidate();
+
+        Cursor stored = mCache.put(key("Lolita"), generation, products(2));
+
+        assertRows(2, stored);
+        assertNull(mCache.get(key("Lolita")));
+    }
+
+    @Test
+    public void put_largeResult_returnsCursorUncached() {
+        Cursor stored = mCache.put(key("Lolita"), mCache.getGeneration(), products(1000));
+
+        assertRows(1000, stored);
+        assertNull(mCache.get(key("Lolita")));
+    }
+
+    @Test
+    public void hitRatio_countsLookups() {
+        mCache.put(key("Lolita"), mCache.getGeneration(), products(1));
+        mCache.get(key("Lolita"));
+        mCache.get(key("Lolita"));
+        mCache.get(key("Lolita"));
+        mCache.get(key("Gatsby"));
+
+        assertEquals(0.75, mCache.getHitRatio(), 1e-9);
+    }
+
+    @Test
+    public void getQueryCacheStats_returnsHitRatio() {
+        ContentResolver contentResolver =
+                InstrumentationRegistry.getTargetContext().getContentResolver();
+        // The same query twice, the second one is answered from the provider's cache
+        contentResolver.query(ProductEntry.CONTENT_URI, COLUMNS, null, null, null).close();
+        contentResolver.query(ProductEntry.CONTENT_URI, COLUMNS, null, null, null).close();
+
+        Bundle stats = contentResolver.call(ProductContract.BASE_CONTENT_URI,
+                ProductContract.METHOD_GET_QUERY_CACHE_STATS, null, null);
+
+        assertNotNull(stats);
+        int hits = stats.getInt(ProductContract.EXTRA_HIT_COUNT);
+        int misses = stats.getInt(ProductContract.EXTRA_MISS_COUNT);
+        assertTrue(hits > 0);
+        assertEquals((double) hits / (hits + misses),
+                stats.getDouble(ProductContract.EXTRA_HIT_RATIO), 1e-9);
+    }
+
+    private static String key(String name) {
+        return QueryCache.buildKey(ProductEntry.CONTENT_URI, COLUMNS, "name=?", new String[]{name},
+                ProductEntry.SORT_BY_NAME);
+    }
+
+    private static Cursor products(int count) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 1; i <= count; i++) {
+            cursor.addRow(new Object[]{i, "Product " + i, i * 1.5, null});
+        }
+        return cursor;
+    }
+
+    private static void assertRows(int count, Cursor cursor) {
+        try {
+            assertEquals(count, cursor.getCount());
+            for (int i = 1; i <= count; i++) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(i, cursor.getLong(0));
+                assertEquals("Product " + i, cursor.getString(1));
+                assertEquals(i * 1.5, cursor.getDouble(2), 1e-9);
+                assertTrue(cursor.isNull(3));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
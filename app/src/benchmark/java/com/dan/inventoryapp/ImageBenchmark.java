@@ -0,0 +1,136 @@
+package com.dan.inventoryapp;
+
+import com.dan.inventoryapp.benchmark.BenchmarkRunner;
+import com.dan.inventoryapp.data.ImageStore;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Cost of storing and reading images of several sizes: hashing their key, writing them to the
+ * {@link ImageStore} and reading them back, and the {@link DiskImageCache} the thumbnails go
+ * through. Decoding and encoding need the platform's codecs, so they aren't measured here.
+ */
+@RunWith(Parameterized.class)
+public class ImageBenchmark {
+
+    private static final BenchmarkRunner sRunner =
+            new BenchmarkRunner(ImageBenchmark.class.getSimpleName());
+
+    /**
+     * Entries cached by the disk cache benchmarks, all of them fit in the cache
+     */
+    private static final int CACHED_ENTRIES = 16;
+
+    @Parameterized.Parameters(name = "imageBytes={0}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][]{{16 * 1024}, {256 * 1024}, {2 * 1024 * 1024}});
+    }
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final int mImageBytes;
+    private final Random mRandom = new Random(42);
+
+    public ImageBenchmark(int imageBytes) {
+        mImageBytes = imageBytes;
+    }
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        System.out.println("Results written to " + sRunner.writeResults());
+    }
+
+    @Test
+    public void imageStore() throws Exception {
+        Map<String, Object> params = BenchmarkRunner.params("imageBytes", mImageBytes);
+        final byte[] image = new byte[mImageBytes];
+        mRandom.nextBytes(image);
+
+        sRunner.run("computeKey", params, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run() {
+                ImageStore.computeKey(image);
+            }
+        });
+
+        // A new image each time, otherwise the store finds it and writes nothing
+        final ImageStore store = new ImageStore(mFolder.newFolder("images"));
+        sRunner.run("storePut", params, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run() throws Exception {
+                image[0]++;
+                store.delete(store.put(image));
+            }
+        });
+
+        final File file = store.getFile(store.put(image));
+        final byte[] buffer = new byte[mImageBytes];
+        sRunner.run("storeRead", params, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run() throws Exception {
+                readFully(file, buffer);
+            }
+        });
+    }
+
+    @Test
+    public void diskImageCache() throws Exception {
+        Map<String, Object> params = BenchmarkRunner.params("imageBytes", mImageBytes);
+        final byte[] image = new byte[mImageBytes];
+        mRandom.nextBytes(image);
+        final DiskImageCache cache = new DiskImageCache(mFolder.newFolder("image_cache"),
+                (long) CACHED_ENTRIES * mImageBytes);
+        try {
+            sRunner.run("diskCachePut", params, 1, new BenchmarkRunner.Operation() {
+                @Override
+                public void run() throws Exception {
+                    cache.put(key(mRandom.nextInt(CACHED_ENTRIES)), image);
+                }
+            });
+
+            for (int i = 0; i < CACHED_ENTRIES; i++) {
+                cache.put(key(i), image);
+            }
+            sRunner.run("diskCacheGet", params, 1, new BenchmarkRunner.Operation() {
+                @Override
+                public void run() throws Exception {
+                    cache.get(key(mRandom.nextInt(CACHED_ENTRIES)));
+                }
+            });
+        } finally {
+            cache.close();
+        }
+    }
+
+    private static String key(int i) {
+        return "thumbnail_" + i;
+    }
+
+    private static void readFully(File file, byte[] buffer) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            int count;
+            while (offset < buffer.length
+                    && (count = in.read(buffer, offset, buffer.length - offset)) != -1) {
+                offset += count;
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
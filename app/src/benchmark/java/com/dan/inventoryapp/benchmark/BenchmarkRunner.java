@@ -0,0 +1,218 @@
+package com.dan.inventoryapp.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs benchmarks the way JMH does, without its annotation processor: an operation is run
+ * repeatedly for a few warmup iterations, whose results are dropped, then for a few measured
+ * iterations of a fixed duration. Each iteration gives the mean time of one operation.
+ * <p>
+ * The results of a suite are written as JSON to the directory named by the
+ * {@code benchmark.resultsDir} system property, or to build/benchmark-results, one file per
+ * suite, so that they can be compared across releases. {@code benchmark.iterationMillis}
+ * changes the duration of a measured iteration.
+ */
+public final class BenchmarkRunner {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int MEASURED_ITERATIONS = 5;
+
+    /**
+     * One operation of a benchmark, called again and again
+     */
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    private final String mSuite;
+    private final long mIterationNanos;
+    private final List<Result> mResults = new ArrayList<>();
+
+    public BenchmarkRunner(String suite) {
+        mSuite = suite;
+        mIterationNanos = Long.getLong("benchmark.iterationMillis", 500) * 1000000;
+    }
+
+    /**
+     * Return a map of the parameters of a benchmark, from name and value pairs.
+     */
+    public static Map<String, Object> params(Object... namesAndValues) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            params.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return params;
+    }
+
+    /**
+     * Measure the operation and record the result.
+     *
+     * @param name      of the benchmark, e.g. "insert"
+     * @param params    of the run, e.g. the number of rows of the table
+     * @param batchSize number of items each operation handles, e.g. rows inserted, the result
+     *                  is given per item
+     */
+    public synchronized Result run(String name, Map<String, Object> params, int batchSize,
+                                   Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iterate(operation, mIterationNanos / 2);
+        }
+        double[] nanosPerItem = new double[MEASURED_ITERATIONS];
+        long operations = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long[] iteration = iterate(operation, mIterationNanos);
+            operations += iteration[0];
+            nanosPerItem[i] = (double) iteration[1] / (iteration[0] * batchSize);
+        }
+        Result result = new Result(name, params, batchSize, operations, nanosPerItem);
+        mResults.add(result);
+        System.out.println(mSuite + " " + result);
+        return result;
+    }
+
+    /**
+     * Run the operation for at least the given time, return the number of operations and the
+     * nanoseconds they took.
+     */
+    private static long[] iterate(Operation operation, long nanos) throws Exception {
+        long start = System.nanoTime();
+        long elapsed;
+        long count = 0;
+        do {
+            operation.run();
+            count++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        return new long[]{count, elapsed};
+    }
+
+    /**
+     * Write the results recorded so far, return the file written.
+     */
+    public synchronized File writeResults() throws IOException {
+        File directory = new File(System.getProperty("benchmark.resultsDir", "build/benchmark-results"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        File file = new File(directory, mSuite + ".json");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            writer.write("{\n  \"suite\": " + quote(mSuite)
+                    + ",\n  \"timestamp\": " + System.currentTimeMillis()
+                    + ",\n  \"java\": " + quote(System.getProperty("java.vm.name") + " "
+                    + System.getProperty("java.version"))
+                    + ",\n  \"os\": " + quote(System.getProperty("os.name") + " "
+                    + System.getProperty("os.arch"))
+                    + ",\n  \"processors\": " + Runtime.getRuntime().availableProcessors()
+                    + ",\n  \"results\": [");
+            for (int i = 0; i < mResults.size(); i++) {
+                writer.write(i == 0 ? "\n    " : ",\n    ");
+                writer.write(mResults.get(i).toJson());
+            }
+            writer.write("\n  ]\n}\n");
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Time of one item of a benchmark, over the measured iterations
+     */
+    public static final class Result {
+        private final String mName;
+        private final Map<String, Object> mParams;
+        private final int mBatchSize;
+        private final long mOperations;
+        private final double[] mNanosPerItem;
+
+        Result(String name, Map<String, Object> params, int batchSize, long operations,
+               double[] nanosPerItem) {
+            mName = name;
+            mParams = params;
+            mBatchSize = batchSize;
+            mOperations = operations;
+            mNanosPerItem = nanosPerItem;
+        }
+
+        public double getMeanNanos() {
+            double sum = 0;
+            for (double nanos : mNanosPerItem) {
+                sum += nanos;
+            }
+            return sum / mNanosPerItem.length;
+        }
+
+        /**
+         * Return the standard deviation of the iterations, the noise of the measure.
+         */
+        public double getDeviationNanos() {
+            double mean = getMeanNanos();
+            double sum = 0;
+            for (double nanos : mNanosPerItem) {
+                sum += (nanos - mean) * (nanos - mean);
+            }
+            return Math.sqrt(sum / mNanosPerItem.length);
+        }
+
+        public double getItemsPerSecond() {
+            return 1e9 / getMeanNanos();
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder("{\"benchmark\": ").append(quote(mName))
+                    .append(", \"params\": {");
+            boolean first = true;
+            for (Map.Entry<String, Object> param : mParams.entrySet()) {
+                json.append(first ? "" : ", ").append(quote(param.getKey())).append(": ");
+                Object value = param.getValue();
+                json.append(value instanceof Number ? value.toString() : quote(String.valueOf(value)));
+                first = false;
+            }
+            double[] sorted = mNanosPerItem.clone();
+            Arrays.sort(sorted);
+            return json.append("}, \"batchSize\": ").append(mBatchSize)
+                    .append(", \"operations\": ").append(mOperations)
+                    .append(String.format(Locale.US, ", \"nsPerItem\": {\"mean\": %.1f, "
+                                    + "\"deviation\": %.1f, \"min\": %.1f, \"max\": %.1f}, "
+                                    + "\"itemsPerSecond\": %.1f}",
+                            getMeanNanos(), getDeviationNanos(), sorted[0],
+                            sorted[sorted.length - 1], getItemsPerSecond()))
+                    .toString();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %s: %.1f +- %.1f ns per item, %.0f items/s",
+                    mName, mParams, getMeanNanos(), getDeviationNanos(), getItemsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.dan.inventoryapp.data;
+
+import com.dan.inventoryapp.benchmark.BenchmarkRunner;
+import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Throughput of the product writes and latency of the catalog queries, on tables of several
+ * sizes. SQLite runs through JDBC, standing in for the platform's, with the schema, triggers,
+ * selections and statements of {@link ProductDbHelper} and {@link ProductProvider}, and the
+ * same journal mode and pragmas.
+ * <p>
+ * The tables are filled by {@link ProductGenerator}, with the same products every run.
+ * Inserts and deletes are rolled back, so the table keeps its size during the benchmark.
+ */
+@RunWith(Parameterized.class)
+public class ProductDatabaseBenchmark {
+
+    private static final BenchmarkRunner sRunner =
+            new BenchmarkRunner(ProductDatabaseBenchmark.class.getSimpleName());
+
+    /**
+     * The columns of {@link ProductEntry#LIST_PROJECTION} and
+     * {@link ProductEntry#CHANGES_PROJECTION}, which can't be read on the JVM: their class
+     * needs the platform's Uri
+     */
+    private static final String LIST_COLUMNS = ProductEntry._ID + ", "
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+            + ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + ", " + ProductEntry.COLUMN_PRODUCT_PRICE;
+    private static final String[] CHANGES_COLUMNS = {ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_KEY, ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_GENERATION, ProductEntry.COLUMN_DELETED};
+
+    private static final String INSERT = "INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+            + ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + ") VALUES (?, ?, ?, ?)";
+
+    private static final int INSERT_BATCH_SIZE = 100;
+    private static final int PAGE_SIZE = 50;
+    private static final int LOAD_CHUNK_SIZE = 1000;
+
+    @Parameterized.Parameters(name = "rows={0}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][]{{1000}, {10000}, {100000}});
+    }
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final int mRows;
+    private final Random mRandom = new Random(42);
+    private final ProductGenerator mGenerator = new ProductGenerator(42);
+    private Connection mConnection;
+
+    /**
+     * Words of the product names, to search for
+     */
+    private final List<String> mWords = new ArrayList<>();
+
+    public ProductDatabaseBenchmark(int rows) {
+        mRows = rows;
+        // Only the image keys are written, small images are enough
+        mGenerator.setImageSizes(new int[]{1024}, new double[]{1});
+    }
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        System.out.println("Results written to " + sRunner.writeResults());
+    }
+
+    @Test
+    public void writesAndQueries() throws Exception {
+        mConnection = DriverManager.getConnection("jdbc:sqlite:"
+                + new File(mFolder.getRoot(), "benchmark.db").getPath());
+        try {
+            createDatabase();
+            insertProducts();
+            benchmarkWrites();
+            benchmarkQueries();
+        } finally {
+            mConnection.close();
+        }
+    }
+
+    private void benchmarkWrites() throws Exception {
+        Map<String, Object> params = BenchmarkRunner.params("rows", mRows);
+
+        // Like ProductProvider.bulkInsert: one transaction, one compiled statement
+        final PreparedStatement insert = mConnection.prepareStatement(INSERT);
+        sRunner.run("bulkInsert", params, INSERT_BATCH_SIZE, new BenchmarkRunner.Operation() {
+            @Override
+            public void run() throws Exception {
+                mConnection.setAutoCommit(false);
+                for (int i = 0; i < INSERT_BATCH_SIZE; i++) {
+                    bindProduct(insert, mGenerator.next());
+                    insert.executeUpdate();
+                }
+                mConnection.rollback();
+                mConnection.setAutoCommit(true);
+            }
+        });
+        insert.close();
+
+        // Like ProductProvider.sell
+        final PreparedStatement sell = mConnection.prepareStatement("UPDATE " + ProductEntry.TABLE_NAME
+                + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + "=" + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                + "-? WHERE " + ProductEntry._ID + "=? AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ">=?");
+        sRunner.run("sell", params, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run() throws Exception {
+                sell.setInt(1, 1);
+                sell.setLong(2, randomId());
+                sell.setInt(3, 1);
+                sell.executeUpdate();
+            }
+        });
+        sell.close();
+
+        // A rename also updates the full-text index
+        final PreparedStatement rename = mConnection.prepareStatement("UPDATE " + ProductEntry.TABLE_NAME
+                + " SET " + ProductEntry.COLUMN_PRODUCT_NAME + "=? WHERE " + ProductEntry._ID + "=?");
+        sRunner.run("rename", params, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run() throws Exception {
+                rename.setString(1, mGenerator.next().getName());
+                rename.setLong(2, randomId());
+                rename.executeUpdate();
+            }
+        });
+        rename.close();
+
+        final PreparedStatement delete = mConnection.prepareStatement("DELETE FROM "
+                + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + "=?");
+        sRunner.run("delete", params, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run() throws Exception {
+                mConnection.setAutoCommit(false);
+                delete.setLong(1, randomId());
+                delete.executeUpdate();
+                mConnection.rollback();
+                mConnection.setAutoCommit(true);
+            }
+        });
+        delete.close();
+    }
+
+    private void benchmarkQueries() throws Exception {
+        Map<String, Object> params = BenchmarkRunner.params("rows", mRows);
+
+        // Keyset paging, see ProductEntry.buildPageUri()
+        final PreparedStatement page = mConnection.prepareStatement("SELECT " + LIST_COLUMNS + " FROM "
+                + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + ">? ORDER BY "
+                + ProductEntry._ID + " ASC LIMIT " + PAGE_SIZE);
+        sRunner.run("pageRead", params, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run() throws Exception {
+                page.setLong(1, Math.max(0, randomId() - PAGE_SIZE));
+                readAll(page);
+            }
+        });
+        page.close();
+
+        final PreparedStatement namePrefix = mConnection.prepareStatement("SELECT " + LIST_COLUMNS
+                + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductProvider.SELECTION_NAME_PREFIX
+                + " ORDER BY " + ProductEntry.SORT_BY_NAME + " LIMIT " + PAGE_SIZE);
+        sRunner.run("namePrefix", params, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run() throws Exception {
+                namePrefix.setString(1, randomWord().substring(0, 2) + "%");
+                readAll(namePrefix);
+            }
+        });
+        namePrefix.close();
+
+        final PreparedStatement lowStock = mConnection.prepareStatement("SELECT " + LIST_COLUMNS
+                + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductProvider.SELECTION_MAX_QUANTITY
+                + " ORDER BY " + ProductEntry.SORT_BY_QUANTITY + " LIMIT " + PAGE_SIZE);
+        sRunner.run("lowStock", params, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run() throws Exception {
+                lowStock.setInt(1, 5);
+                readAll(lowStock);
+            }
+        });
+        lowStock.close();
+
+        final PreparedStatement search = mConnection.prepareStatement("SELECT " + LIST_COLUMNS + " FROM "
+                + ProductEntry.TABLE_NAME + " WHERE " + ProductSearchIndex.SELECTION + " ORDER BY "
+                + ProductEntry._ID + " ASC LIMIT " + PAGE_SIZE);
+        sRunner.run("search", params, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run() throws Exception {
+                search.setString(1, ProductSearchIndex.toMatchQuery(
+                        randomWord() + " " + randomWord()));
+                readAll(search);
+            }
+        });
+        search.close();
+
+        final long generation = readGeneration();
+        final PreparedStatement changes = mConnection.prepareStatement(
+                ProductGenerations.buildChangesQuery(CHANGES_COLUMNS));
+        sRunner.run("changesSince", params, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public void run() throws Exception {
+                // The last hundred writes
+                changes.setLong(1, generation - 100);
+                readAll(changes);
+            }
+        });
+        changes.close();
+    }
+
+    private void createDatabase() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            // The journal mode and the pragmas of ProductDbHelper's connection that writes
+            statement.execute("PRAGMA journal_mode=WAL");
+            for (String pragma : (ProductDbHelper.WAL_PRAGMAS + ";" + ProductDbHelper.PRAGMAS)
+                    .split(";")) {
+                statement.execute("PRAGMA " + pragma);
+            }
+            statement.executeUpdate(ProductDbHelper.SQL_CREATE_PRODUCTS_TABLE);
+            statement.executeUpdate(ProductDbHelper.SQL_CREATE_METADATA_TABLE);
+            statement.executeUpdate(ProductDbHelper.SQL_CREATE_INDEX_PRODUCTS_NAME);
+            statement.executeUpdate(ProductDbHelper.SQL_CREATE_INDEX_PRODUCTS_QUANTITY);
+            for (String sql : ProductSearchIndex.getCreateStatements()) {
+                statement.executeUpdate(sql);
+            }
+            for (String sql : ProductGenerations.getCreateStatements()) {
+                statement.executeUpdate(sql);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void insertProducts() throws Exception {
+        final PreparedStatement insert = mConnection.prepareStatement(INSERT);
+        final Set<String> words = new HashSet<>();
+        try {
+            // Like ProductProvider.bulkInsert, a transaction per chunk
+            mGenerator.generate(mRows, LOAD_CHUNK_SIZE, Long.MAX_VALUE, new ProductGenerator.Sink() {
+                @Override
+                public void insert(List<ProductGenerator.Record> products) throws IOException {
+                    try {
+                        mConnection.setAutoCommit(false);
+                        for (ProductGenerator.Record product : products) {
+                            bindProduct(insert, product);
+                            insert.executeUpdate();
+                            // All but the number at the end
+                            String[] nameWords = product.getName().split(" ");
+                            words.addAll(Arrays.asList(nameWords).subList(0, nameWords.length - 1));
+                        }
+                        mConnection.commit();
+                        mConnection.setAutoCommit(true);
+                    } catch (SQLException e) {
+                        throw new IOException(e);
+                    }
+                }
+            });
+        } finally {
+            insert.close();
+        }
+        mWords.addAll(words);
+        Collections.sort(mWords);
+    }
+
+    private static void bindProduct(PreparedStatement insert, ProductGenerator.Record product)
+            throws SQLException {
+        insert.setString(1, product.getName());
+        insert.setDouble(2, product.getPrice());
+        insert.setString(3, ImageStore.computeKey(product.getImage()));
+        insert.setInt(4, product.getQuantity());
+    }
+
+    private String randomWord() {
+        return mWords.get(mRandom.nextInt(mWords.size()));
+    }
+
+    private long randomId() {
+        return 1 + mRandom.nextInt(mRows);
+    }
+
+    private long readGeneration() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery("SELECT " + ProductContract.MetadataEntry.COLUMN_VALUE
+                    + " FROM " + ProductContract.MetadataEntry.TABLE_NAME + " WHERE "
+                    + ProductContract.MetadataEntry.COLUMN_KEY + "='"
+                    + ProductContract.MetadataEntry.KEY_GENERATION + "'");
+            resultSet.next();
+            return resultSet.getLong(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Read every column of every row, like a cursor filling its window
+     */
+    private static int readAll(PreparedStatement statement) throws SQLException {
+        ResultSet resultSet = statement.executeQuery();
+        try {
+            int columns = resultSet.getMetaData().getColumnCount();
+            int rows = 0;
+            while (resultSet.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    resultSet.getObject(i);
+                }
+                rows++;
+            }
+            return rows;
+        } finally {
+            resultSet.close();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.dan.inventoryapp;
+
+import android.app.ActivityManager;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.dan.inventoryapp.data.ProductContract;
+import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.List;
+
+/**
+ * In-memory LRU cache of decoded product images, bounded by the number of bytes the
+ * bitmaps take rather than by the number of entries.
+ * <p>
+ * Entries are keyed by product id and image key, so an image that was replaced is never
+ * served from the cache. The cache also listens to the change notifications of the
+ * provider and drops the images of a product once it is updated or deleted.
+ */
+public class BitmapCache {
+
+    private static final String LOG_TAG = BitmapCache.class.getSimpleName();
+
+    /**
+     * Share of the app's memory class given to the cache
+     */
+    private static final int MEMORY_CLASS_DIVISOR = 8;
+
+    private static BitmapCache sInstance;
+
+    private final LruCache<Key, Bitmap> mCache;
+
+    private BitmapCache(int maxBytes) {
+        mCache = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+    }
+
+    /**
+     * Return the cache shared by the whole app, sized against the device's heap class.
+     */
+    public static synchronized BitmapCache getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            ActivityManager activityManager =
+                    (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+            int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_DIVISOR;
+            sInstance = new BitmapCache(maxBytes);
+            sInstance.observe(appContext);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return the cached image, or null if it isn't cached.
+     */
+    public Bitmap get(Key key) {
+        return mCache.get(key);
+    }
+
+    public void put(Key key, Bitmap bitmap) {
+        mCache.put(key, bitmap);
+    }
+
+    /**
+     * Drop all cached images of the product.
+     */
+    public void invalidate(long productId) {
+        // snapshot() copies the keys, so entries can be removed while going through them
+        for (Key key : mCache.snapshot().keySet()) {
+            if (key.mProductId == productId) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        mCache.evictAll();
+    }
+
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    public int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /**
+     * Return the number of bytes taken by the cached images.
+     */
+    public int getSize() {
+        return mCache.size();
+    }
+
+    public int getMaxSize() {
+        return mCache.maxSize();
+    }
+
+    /**
+     * Invalidate the images of the products the provider reports as changed. A change of a
+     * single product carries its id in the URI; anything else invalidates every entry.
+     */
+    private void observe(Context context) {
+        ContentObserver observer = new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                if (isProductUri(uri)) {
+                    invalidate(ContentUris.parseId(uri));
+                } else {
+                    invalidateAll();
+                }
+                Log.v(LOG_TAG, "hits " + getHitCount() + ", misses " + getMissCount()
+                        + ", evictions " + getEvictionCount() + ", bytes " + getSize());
+            }
+        };
+        context.getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+    }
+
+    /**
+     * Return true if the uri is the content URI of a single product, e.g. products/3.
+     */
+    private static boolean isProductUri(Uri uri) {
+        if (uri == null) {
+            return false;
+        }
+        List<String> segments = uri.getPathSegments();
+        return segments.size() == 2 && ProductContract.PATH_PRODUCTS.equals(segments.get(0))
+                && TextUtils.isDigitsOnly(segments.get(1));
+    }
+
+    /**
+     * Identifies one decoded image: the product, the version of its image (the image key)
+     * and whether it is the list thumbnail or the full image.
+     */
+    public static final class Key {
+
+        private final long mProductId;
+        private final String mImageKey;
+        private final boolean mThumbnail;
+
+        public Key(long productId, String imageKey, boolean thumbnail) {
+            mProductId = productId;
+            mImageKey = imageKey;
+            mThumbnail = thumbnail;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mProductId == other.mProductId && mThumbnail == other.mThumbnail
+                    && mImageKey.equals(other.mImageKey);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (mProductId ^ (mProductId >>> 32));
+            result = 31 * result + mImageKey.hashCode();
+            return 31 * result + (mThumbnail ? 1 : 0);
+        }
+
+        @Override
+        public String toString() {
+            return mProductId + "/" + mImageKey + (mThumbnail ? "/thumbnail" : "");
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.dan.inventoryapp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Pool of bitmaps that are no longer shown, reused through
+ * {@link BitmapFactory.Options#inBitmap} or by copying pixels into them, instead of
+ * allocating a new bitmap for every decode.
+ * <p>
+ * Bitmaps are matched on their exact width, height and config, which is what inBitmap
+ * requires before KitKat. Only mutable bitmaps can be pooled.
+ */
+public class BitmapPool extends ReusePool<Bitmap> {
+
+    public BitmapPool(long maxBytes) {
+        super(maxBytes);
+    }
+
+    /**
+     * Return a pooled bitmap with the given size and config, or null if there is none.
+     * Its pixels are left over from its previous use.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        return get(key(width, height, config));
+    }
+
+    /**
+     * Return a bitmap with the given size and config, pooled if possible, newly
+     * allocated otherwise.
+     */
+    public Bitmap getOrCreate(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Offer a bitmap nothing uses any more. Bitmaps that can't be reused are recycled.
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable() || bitmap.getConfig() == null) {
+            bitmap.recycle();
+            return;
+        }
+        put(key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig()), bitmap,
+                bitmap.getRowBytes() * bitmap.getHeight());
+    }
+
+    @Override
+    protected void onEvicted(Bitmap bitmap) {
+        bitmap.recycle();
+    }
+
+    private static String key(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + "/" + config;
+    }
+}
@@ -0,0 +1,111 @@
+package com.dan.inventoryapp;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of growable output buffers, so that encoding images doesn't allocate (and grow) a
+ * fresh {@link ByteArrayOutputStream} every time.
+ * <p>
+ * The pool counts every byte array it had to allocate, whether for a new buffer or because
+ * a buffer grew, which makes the saving measurable. This class has no Android dependencies,
+ * so it can be tested on the JVM.
+ */
+public class BufferPool {
+
+    private final int mInitialCapacity;
+    private final int mMaxRetainedCapacity;
+    private final int mMaxBuffers;
+
+    private final ArrayDeque<Buffer> mFreeBuffers = new ArrayDeque<>();
+
+    private int mAllocationCount;
+    private int mReuseCount;
+
+    /**
+     * Constructs a new {@link BufferPool}.
+     *
+     * @param initialCapacity     size of newly allocated buffers
+     * @param maxRetainedCapacity buffers that grew larger than this are not kept
+     * @param maxBuffers          maximum number of free buffers kept
+     */
+    public BufferPool(int initialCapacity, int maxRetainedCapacity, int maxBuffers) {
+        mInitialCapacity = initialCapacity;
+        mMaxRetainedCapacity = maxRetainedCapacity;
+        mMaxBuffers = maxBuffers;
+    }
+
+    /**
+     * Return an empty buffer. Hand it back with {@link #release(Buffer)} once its content
+     * has been copied out.
+     */
+    public synchronized Buffer acquire() {
+        Buffer buffer = mFreeBuffers.pollFirst();
+        if (buffer != null) {
+            mReuseCount++;
+            return buffer;
+        }
+        mAllocationCount++;
+        return new Buffer(mInitialCapacity);
+    }
+
+    /**
+     * Return the buffer to the pool. It must not be used afterwards.
+     */
+    public synchronized void release(Buffer buffer) {
+        mAllocationCount += buffer.mGrowCount;
+        buffer.mGrowCount = 0;
+        buffer.reset();
+        if (buffer.capacity() <= mMaxRetainedCapacity && mFreeBuffers.size() < mMaxBuffers) {
+            mFreeBuffers.addFirst(buffer);
+        }
+    }
+
+    /**
+     * Return the number of byte arrays allocated, for new buffers or for growing one.
+     */
+    public synchronized int getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    /**
+     * Return the number of times a free buffer was handed out again.
+     */
+    public synchronized int getReuseCount() {
+        return mReuseCount;
+    }
+
+    /**
+     * Output stream whose byte array is kept when it is reset, counting how often it grows.
+     */
+    public static class Buffer extends ByteArrayOutputStream {
+
+        private int mGrowCount;
+
+        Buffer(int capacity) {
+            super(capacity);
+        }
+
+        public int capacity() {
+            return buf.length;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            int capacity = buf.length;
+            super.write(b);
+            if (buf.length != capacity) {
+                mGrowCount++;
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            int capacity = buf.length;
+            super.write(b, off, len);
+            if (buf.length != capacity) {
+                mGrowCount++;
+            }
+        }
+    }
+}
@@ -1,33 +1,99 @@
 package com.dan.inventoryapp;
 
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
-import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.Toast;
 
+import com.dan.inventoryapp.data.ProductContract;
 import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+import com.dan.inventoryapp.data.ProductExporter;
+import com.dan.inventoryapp.data.ProductGenerator;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+
+public class CatalogActivity extends AppCompatActivity
+        implements LoaderManager.LoaderCallbacks<ProductListLoader.Result> {
+
+    private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
 
     private static final int PRODUCT_LOADER = 0;
-    ListView mListView;
-    ProductCursorAdapter mAdapter;
+
+    /**
+     * Preference key remembering that the thumbnails of older products have been created
+     */
+    private static final String PREF_THUMBNAILS_BACKFILLED = "thumbnails_backfilled";
+
+    /**
+     * The next page is loaded once the list shows a row this close to the end
+     */
+    private static final int PREFETCH_DISTANCE = 20;
+
+    private static final int PICK_CSV_REQUEST = 1;
+    private static final int CREATE_CSV_REQUEST = 2;
+    private static final int CREATE_JSON_REQUEST = 3;
+
+    /**
+     * Time without typing after which the search text is queried, so that a query isn't
+     * started for every letter
+     */
+    private static final long SEARCH_DELAY_MILLIS = 150;
+
+    /**
+     * Seed of the generated catalogs, the same products are generated every time
+     */
+    private static final long GENERATOR_SEED = 42;
+
+    /**
+     * Generated products are inserted this many at a time, or fewer once their new images
+     * take {@link #GENERATOR_CHUNK_BYTES}
+     */
+    private static final int GENERATOR_CHUNK_SIZE = 100;
+    private static final long GENERATOR_CHUNK_BYTES = 4 * 1024 * 1024;
+
+    RecyclerView mRecyclerView;
+    LinearLayoutManager mLayoutManager;
+    ProductAdapter mAdapter;
+    View mEmptyView;
+
+    private final Handler mHandler = new Handler();
+    private String mPendingSearchQuery;
+
+    private final Runnable mSearchTask = new Runnable() {
+        @Override
+        public void run() {
+            Loader<ProductListLoader.Result> loader = getLoaderManager().getLoader(PRODUCT_LOADER);
+            if (loader != null) {
+                // Cancels the search still running, if any
+                ((ProductListLoader) loader).setSearchQuery(mPendingSearchQuery);
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -45,53 +111,138 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         });
 
         // Setup adapter
-        mAdapter = new ProductCursorAdapter(this, null);
-
-        // Setup list view
-        mListView = (ListView) findViewById(R.id.list_view_product);
-        mListView.setAdapter(mAdapter);
-
-        // Setup empty view
-        View emptyView = findViewById(R.id.empty_view);
-        mListView.setEmptyView(emptyView);
-
-        mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mAdapter = new ProductAdapter(this, new ProductAdapter.OnProductClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onProductClick(long id) {
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
                 Uri currentProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
                 intent.setData(currentProductUri);
                 startActivity(intent);
             }
         });
+
+        // Setup recycler view
+        mRecyclerView = (RecyclerView) findViewById(R.id.list_view_product);
+        mLayoutManager = new LinearLayoutManager(this);
+        mRecyclerView.setLayoutManager(mLayoutManager);
+        mRecyclerView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        mRecyclerView.setHasFixedSize(true);
+        mRecyclerView.setAdapter(mAdapter);
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Load the following products before the list runs out of them
+                if (mLayoutManager.findLastVisibleItemPosition() + PREFETCH_DISTANCE
+                        >= mAdapter.getItemCount()) {
+                    Loader<ProductListLoader.Result> loader =
+                            getLoaderManager().getLoader(PRODUCT_LOADER);
+                    if (loader != null) {
+                        ((ProductListLoader) loader).loadMore();
+                    }
+                }
+            }
+        });
+
+        // Setup empty view
+        mEmptyView = findViewById(R.id.empty_view);
+
         // Setup loader
         getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+
+        backfillThumbnails();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Write the pending sales now, the app may not come back
+        StockMovements.getInstance(this).flush();
     }
 
     /**
-     * Helper method to insert hardcoded product data into the database. For debugging purposes only.
+     * Create the thumbnails of products saved before thumbnails existed, once, in the
+     * background. Rows shown before it is done get their thumbnail made on demand.
      */
-    private void insertDummyData() {
-        insertSampleData("Gone with the Wind", 20.99, 1, R.raw.gone_with_the_wind);
-        insertSampleData("The Great Gatsby", 30.11, 1, R.raw.the_great_gatsby);
-        insertSampleData("Lolita", 20.5, 2, R.raw.lolita);
+    private void backfillThumbnails() {
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        if (preferences.getBoolean(PREF_THUMBNAILS_BACKFILLED, false)) {
+            return;
+        }
+        final ContentResolver contentResolver = getApplicationContext().getContentResolver();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                contentResolver.call(ProductContract.BASE_CONTENT_URI,
+                        ProductContract.METHOD_BACKFILL_THUMBNAILS, null, null);
+                preferences.edit().putBoolean(PREF_THUMBNAILS_BACKFILLED, true).apply();
+                return null;
+            }
+        }.execute();
     }
 
-    private void insertSampleData(String productName, double productPrice,
-                                  int productQuantity, int imageResource) {
-        // Create a ContentValues object where column names are the keys,
-        // and insert a sample values into the ContentValue object
-        ContentValues values = new ContentValues();
-        values.put(ProductEntry.COLUMN_PRODUCT_NAME, productName);
-        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, productPrice);
-        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, productQuantity);
+    /**
+     * Insert a synthetic catalog of the given number of products in the background, for
+     * load testing. The same catalog is generated every time. For debugging purposes only.
+     */
+    private void generateProducts(final int count) {
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                final ContentResolver contentResolver = context.getContentResolver();
+                ProductGenerator generator = new ProductGenerator(GENERATOR_SEED);
+                // Mostly small images, so a large catalog still fits on a device
+                generator.setImageSizes(new int[]{4 * 1024, 32 * 1024, 256 * 1024},
+                        new double[]{0.9, 0.09, 0.01});
+                generator.setDuplicateImageRatio(0.5);
+                long start = SystemClock.elapsedRealtime();
+                try {
+                    generator.generate(count, GENERATOR_CHUNK_SIZE, GENERATOR_CHUNK_BYTES,
+                            new ProductGenerator.Sink() {
+                                @Override
+                                public void insert(List<ProductGenerator.Record> products)
+                                        throws IOException {
+                                    insertProducts(contentResolver, products);
+                                }
+                            });
+                } catch (IOException | IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Failed to generate products", e);
+                    return false;
+                }
+                long millis = Math.max(1, SystemClock.elapsedRealtime() - start);
+                Log.i(LOG_TAG, "Generated " + count + " products in " + millis + " ms, "
+                        + count * 1000L / millis + " products/s");
+                return true;
+            }
 
-        Bitmap bm = BitmapFactory.decodeResource(getResources(), imageResource);
-        byte[] imageByteArray = ImageUtils.getBytes(bm);
-        //insert the image resource in form of byte[] into the ContentValues object
-        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE, imageByteArray);
+            @Override
+            protected void onPostExecute(Boolean generated) {
+                Toast.makeText(context, generated
+                        ? context.getString(R.string.generate_complete, count)
+                        : context.getString(R.string.generate_failed), Toast.LENGTH_SHORT).show();
+            }
+        }.execute();
+    }
 
-        Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
+    /**
+     * Insert the products in one transaction
+     */
+    private static void insertProducts(ContentResolver contentResolver,
+                                       List<ProductGenerator.Record> products) throws IOException {
+        ContentValues[] valuesArray = new ContentValues[products.size()];
+        for (int i = 0; i < valuesArray.length; i++) {
+            ProductGenerator.Record product = products.get(i);
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, product.getName());
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, product.getPrice());
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, product.getQuantity());
+            // Stored once by the provider when several products share it
+            values.put(ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE, product.getImage());
+            valuesArray[i] = values;
+        }
+        if (contentResolver.bulkInsert(ProductEntry.CONTENT_URI, valuesArray) != valuesArray.length) {
+            throw new IOException("Failed to insert " + valuesArray.length + " products");
+        }
     }
 
     /**
@@ -99,7 +250,65 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
      */
     private void deleteAllProducts() {
         int rowsDeleted = getContentResolver().delete(ProductEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from product database");
+        Log.v(LOG_TAG, rowsDeleted + " rows deleted from product database");
+    }
+
+    /**
+     * Let the user pick the CSV file to import the products from
+     */
+    private void pickProductFile() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        // CSV files come with several mime types, text/csv, text/comma-separated-values...
+        intent.setType("text/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        startActivityForResult(Intent.createChooser(intent, getString(R.string.action_import_products)),
+                PICK_CSV_REQUEST);
+    }
+
+    /**
+     * Let the user choose the file to export the products to, or export them to the app's
+     * external files where documents can't be created
+     */
+    private void exportProducts(ProductExporter.Format format) {
+        String fileName = format == ProductExporter.Format.CSV ? "products.csv" : "products.json";
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.setType(format == ProductExporter.Format.CSV ? "text/csv" : "application/json");
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.putExtra(Intent.EXTRA_TITLE, fileName);
+            startActivityForResult(intent, format == ProductExporter.Format.CSV
+                    ? CREATE_CSV_REQUEST : CREATE_JSON_REQUEST);
+            return;
+        }
+        File directory = getExternalFilesDir(null);
+        File file = new File(directory != null ? directory : getFilesDir(), fileName);
+        // Replace the previous export, opening it for writing doesn't truncate it
+        if (file.exists() && !file.delete()) {
+            Log.e(LOG_TAG, "Cannot replace " + file);
+            return;
+        }
+        ProductExportService.start(this, Uri.fromFile(file), format, true);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        switch (requestCode) {
+            case PICK_CSV_REQUEST:
+                // Imported in the background, the list is updated as chunks are inserted
+                ProductImportService.start(this, data.getData());
+                break;
+            case CREATE_CSV_REQUEST:
+                ProductExportService.start(this, data.getData(), ProductExporter.Format.CSV, true);
+                break;
+            case CREATE_JSON_REQUEST:
+                ProductExportService.start(this, data.getData(), ProductExporter.Format.JSON, true);
+                break;
+        }
     }
 
     @Override
@@ -107,16 +316,70 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        // Load testing is for debug builds only
+        menu.findItem(R.id.action_generate_products).setVisible(BuildConfig.DEBUG);
+
+        // Search as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query, 0);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText, SEARCH_DELAY_MILLIS);
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Show the products matching the text once it hasn't changed for the delay
+     */
+    private void search(String text, long delayMillis) {
+        mPendingSearchQuery = text;
+        mHandler.removeCallbacks(mSearchTask);
+        mHandler.postDelayed(mSearchTask, delayMillis);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mSearchTask);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
-            // Respond to a click on the "Insert dummy data" menu option
-            case R.id.action_insert_dummy_data:
-                insertDummyData();
+            // Respond to a click on the "Generate products" menu options
+            case R.id.action_generate_100:
+                generateProducts(100);
+                return true;
+            case R.id.action_generate_1000:
+                generateProducts(1000);
+                return true;
+            case R.id.action_generate_10000:
+                generateProducts(10000);
+                return true;
+            case R.id.action_generate_100000:
+                generateProducts(100000);
+                return true;
+            // Respond to a click on the "Import products" menu option
+            case R.id.action_import_products:
+                pickProductFile();
+                return true;
+            // Respond to a click on the "Export" menu options
+            case R.id.action_export_csv:
+                exportProducts(ProductExporter.Format.CSV);
+                return true;
+            case R.id.action_export_json:
+                exportProducts(ProductExporter.Format.JSON);
                 return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
@@ -127,32 +390,23 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY,
-                ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE,
-                ProductEntry.COLUMN_PRODUCT_PRICE};
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                ProductEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    public Loader<ProductListLoader.Result> onCreateLoader(int id, Bundle args) {
+        // This loader will execute the ContentProvider's query method on a background thread,
+        // one page at a time, and compare each new list with the previous one there too
+        return new ProductListLoader(this);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link PetCursorAdapter} with this new cursor containing updated product data
-        mAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<ProductListLoader.Result> loader, ProductListLoader.Result data) {
+        // Update {@link ProductAdapter} with the products, only the changed rows are rebound
+        mAdapter.swapProducts(data);
+        // The empty catalog view isn't meant for a search finding nothing
+        mEmptyView.setVisibility(mAdapter.getItemCount() == 0 && data.getSearchQuery() == null
+                ? View.VISIBLE : View.GONE);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<ProductListLoader.Result> loader) {
+        mAdapter.clear();
     }
 }
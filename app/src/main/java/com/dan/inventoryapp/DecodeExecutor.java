@@ -0,0 +1,208 @@
+package com.dan.inventoryapp;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs decode tasks on a small pool of background threads and hands the results back
+ * through a callback executor (the main thread in the app).
+ * <p>
+ * Every request belongs to a target, e.g. the ImageView of a list row. Submitting a new
+ * request for a target cancels the one it had before, so a recycled row never shows the
+ * image of the product it displayed previously. The queue is bounded and served newest
+ * first: when it is full, the oldest waiting request is dropped, since its row has most
+ * likely been scrolled away.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the JVM.
+ */
+public class DecodeExecutor {
+
+    /**
+     * Receives the result of a decode task, on the callback executor.
+     */
+    public interface Callback<T> {
+        /**
+         * Called with the result of the task, or null if the task failed.
+         */
+        void onDecoded(T result);
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final Executor mCallbackExecutor;
+
+    /**
+     * The current request of each target
+     */
+    private final Map<Object, Request<?>> mRequests = new HashMap<>();
+
+    /**
+     * Constructs a new {@link DecodeExecutor}.
+     *
+     * @param threads          number of background threads
+     * @param maxQueued        maximum number of requests waiting for a thread
+     * @param callbackExecutor executor on which the callbacks are run
+     */
+    public DecodeExecutor(int threads, int maxQueued, Executor callbackExecutor) {
+        this(threads, maxQueued, callbackExecutor, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Constructs a new {@link DecodeExecutor} whose threads are made by the factory, e.g. to
+     * lower their priority below the main thread's.
+     */
+    public DecodeExecutor(int threads, int maxQueued, Executor callbackExecutor,
+                          ThreadFactory threadFactory) {
+        mCallbackExecutor = callbackExecutor;
+        mExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new NewestFirstQueue(maxQueued), threadFactory);
+    }
+
+    /**
+     * Run the task in the background and pass its result to the callback, unless the
+     * request is cancelled first. Any earlier request of the same target is cancelled.
+     *
+     * @return the request, which can be cancelled on its own
+     */
+    public <T> Request<T> submit(Object target, Callable<T> task, Callback<T> callback) {
+        Request<T> request = new Request<>(target, task, callback);
+        synchronized (mRequests) {
+            Request<?> previous = mRequests.put(target, request);
+            if (previous != null) {
+                previous.cancel();
+            }
+        }
+        mExecutor.execute(request);
+        return request;
+    }
+
+    /**
+     * Cancel the current request of the target, if it has one.
+     */
+    public void cancel(Object target) {
+        Request<?> request;
+        synchronized (mRequests) {
+            request = mRequests.remove(target);
+        }
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Return the number of requests that are queued or running and not cancelled.
+     */
+    public int getPendingCount() {
+        synchronized (mRequests) {
+            return mRequests.size();
+        }
+    }
+
+    /**
+     * Stop the background threads. Queued requests are dropped.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Forget the request if it is still the current one of its target.
+     */
+    private boolean finish(Request<?> request) {
+        synchronized (mRequests) {
+            if (mRequests.get(request.mTarget) != request) {
+                return false;
+            }
+            mRequests.remove(request.mTarget);
+            return true;
+        }
+    }
+
+    /**
+     * A decode task for one target. Acts as the token telling whether its result is
+     * still wanted.
+     */
+    public final class Request<T> implements Runnable {
+
+        private final Object mTarget;
+        private final Callable<T> mTask;
+        private final Callback<T> mCallback;
+        private volatile boolean mCancelled;
+
+        private Request(Object target, Callable<T> task, Callback<T> callback) {
+            mTarget = target;
+            mTask = task;
+            mCallback = callback;
+        }
+
+        /**
+         * Make sure the callback of this request is not called. A task that is already
+         * running finishes, but its result is dropped.
+         */
+        public void cancel() {
+            mCancelled = true;
+            finish(this);
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            T result;
+            try {
+                result = mTask.call();
+            } catch (Exception e) {
+                result = null;
+            }
+            if (mCancelled) {
+                return;
+            }
+            final T decoded = result;
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Checked again here, the target may have been given a new request meanwhile
+                    if (!mCancelled && finish(Request.this)) {
+                        mCallback.onDecoded(decoded);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Bounded queue that hands out the newest request first and drops the oldest one
+     * when it is full.
+     */
+    private static class NewestFirstQueue extends LinkedBlockingDeque<Runnable> {
+
+        private static final long serialVersionUID = 1L;
+
+        NewestFirstQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        public boolean offer(Runnable runnable) {
+            while (!offerFirst(runnable)) {
+                Runnable oldest = pollLast();
+                if (oldest instanceof Request) {
+                    ((Request<?>) oldest).cancel();
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.dan.inventoryapp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size-capped LRU cache of image files on disk, the second tier behind {@link BitmapCache}.
+ * <p>
+ * Each entry is one file named after its key. Every change is appended to a journal
+ * ("CLEAN key size", "READ key", "REMOVE key"), which is replayed when the cache is opened
+ * to restore the entries in least recently used order. An entry only becomes visible once
+ * its file has been completely written and renamed into place, so files left over by a
+ * crash are never served and are deleted on the next open.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the JVM.
+ */
+public class DiskImageCache {
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The journal is rewritten once it holds this many lines more than there are entries
+     */
+    private static final int REDUNDANT_OPERATION_COMPACT_THRESHOLD = 2000;
+
+    private final File mDirectory;
+
+    private final long mMaxBytes;
+
+    /**
+     * Size of every entry, in access order
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+
+    private long mSize;
+
+    private int mRedundantOperations;
+
+    private Writer mJournalWriter;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * Open the cache in the given directory, restoring the entries written earlier.
+     *
+     * @param directory where the cache keeps its files, used by nothing else
+     * @param maxBytes  total size of the entries above which the least recently used
+     *                  ones are removed
+     */
+    public DiskImageCache(File directory, long maxBytes) throws IOException {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + mDirectory);
+        }
+        readJournal();
+        deleteUnknownFiles();
+        rebuildJournal();
+    }
+
+    /**
+     * Return the content of the entry, or null if it isn't cached.
+     */
+    public synchronized byte[] get(String key) throws IOException {
+        checkKey(key);
+        // get() also moves the entry to the most recently used end
+        if (mEntries.get(key) == null) {
+            mMissCount++;
+            return null;
+        }
+        File file = new File(mDirectory, key);
+        byte[] data;
+        try {
+            data = readFully(file);
+        } catch (IOException e) {
+            // The file went missing or is unreadable, forget the entry
+            removeEntry(key);
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        appendToJournal(READ + ' ' + key);
+        return data;
+    }
+
+    /**
+     * Store the content under the key, replacing any previous entry, and remove least
+     * recently used entries while the cache is over its size cap.
+     */
+    public synchronized void put(String key, byte[] data) throws IOException {
+        checkKey(key);
+        File file = new File(mDirectory, key);
+        File tempFile = new File(mDirectory, key + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Cannot move cache entry into place " + file);
+        }
+
+        Long previous = mEntries.put(key, (long) data.length);
+        if (previous != null) {
+            mSize -= previous;
+        }
+        mSize += data.length;
+        appendToJournal(CLEAN + ' ' + key + ' ' + data.length);
+        trimToSize();
+    }
+
+    /**
+     * Remove the entry. Return true if it was cached.
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        checkKey(key);
+        if (!mEntries.containsKey(key)) {
+            return false;
+        }
+        removeEntry(key);
+        return true;
+    }
+
+    /**
+     * Close the journal. The cache can't be used afterwards.
+     */
+    public synchronized void close() throws IOException {
+        if (mJournalWriter != null) {
+            mJournalWriter.close();
+            mJournalWriter = null;
+        }
+    }
+
+    /**
+     * Return the total size of the entries in bytes.
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private void trimToSize() throws IOException {
+        // Going through the entries must not use get(), which would reorder them
+        Iterator<Map.Entry<String, Long>> leastRecentlyUsed = mEntries.entrySet().iterator();
+        List<String> evicted = new ArrayList<>();
+        long size = mSize;
+        while (size > mMaxBytes && leastRecentlyUsed.hasNext()) {
+            Map.Entry<String, Long> entry = leastRecentlyUsed.next();
+            size -= entry.getValue();
+            evicted.add(entry.getKey());
+        }
+        for (String key : evicted) {
+            removeEntry(key);
+            mEvictionCount++;
+        }
+    }
+
+    private void removeEntry(String key) throws IOException {
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mSize -= size;
+        }
+        new File(mDirectory, key).delete();
+        appendToJournal(REMOVE + ' ' + key);
+    }
+
+    private void appendToJournal(String line) throws IOException {
+        mJournalWriter.write(line);
+        mJournalWriter.write('\n');
+        mJournalWriter.flush();
+        mRedundantOperations++;
+        if (mRedundantOperations >= REDUNDANT_OPERATION_COMPACT_THRESHOLD
+                && mRedundantOperations >= mEntries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    /**
+     * Replay the journal to restore the entries in access order. A damaged line, e.g. the
+     * last one written before a crash, ends the replay.
+     */
+    private void readJournal() {
+        File journal = new File(mDirectory, JOURNAL_FILE);
+        if (!journal.exists()) {
+            return;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(journal), UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!readJournalLine(line)) {
+                        break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // Keep what was read so far, the journal is rewritten right after
+        }
+    }
+
+    private boolean readJournalLine(String line) {
+        String[] parts = line.split(" ");
+        if (parts.length < 2 || !isValidKey(parts[1])) {
+            return false;
+        }
+        String key = parts[1];
+        if (CLEAN.equals(parts[0]) && parts.length == 3) {
+            long size;
+            try {
+                size = Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (new File(mDirectory, key).length() != size) {
+                // The file doesn't match what was written, drop the entry
+                Long previous = mEntries.remove(key);
+                if (previous != null) {
+                    mSize -= previous;
+                }
+                return true;
+            }
+            Long previous = mEntries.put(key, size);
+            if (previous != null) {
+                mSize -= previous;
+            }
+            mSize += size;
+        } else if (READ.equals(parts[0])) {
+            // Touch the entry to move it to the most recently used end
+            mEntries.get(key);
+        } else if (REMOVE.equals(parts[0])) {
+            Long previous = mEntries.remove(key);
+            if (previous != null) {
+                mSize -= previous;
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Delete temporary files and files of entries that never made it into the journal.
+     */
+    private void deleteUnknownFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.equals(JOURNAL_FILE) && !mEntries.containsKey(name)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Write a compact journal holding one CLEAN line per entry, in access order.
+     */
+    private void rebuildJournal() throws IOException {
+        if (mJournalWriter != null) {
+            mJournalWriter.close();
+        }
+        File tempJournal = new File(mDirectory, JOURNAL_FILE_TEMP);
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(tempJournal), UTF_8));
+        try {
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+        File journal = new File(mDirectory, JOURNAL_FILE);
+        if (!tempJournal.renameTo(journal)) {
+            throw new IOException("Cannot replace cache journal " + journal);
+        }
+        mJournalWriter = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(journal, true), UTF_8));
+        mRedundantOperations = 0;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int length = 0;
+            while (length < data.length) {
+                int read = in.read(data, length, data.length - length);
+                if (read == -1) {
+                    throw new IOException("Cache entry is truncated " + file);
+                }
+                length += read;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void checkKey(String key) {
+        if (!isValidKey(key)) {
+            throw new IllegalArgumentException("Invalid cache key " + key);
+        }
+    }
+
+    /**
+     * Keys become file names, so only lower case letters, digits, '_' and '-' are allowed.
+     */
+    private static boolean isValidKey(String key) {
+        if (key == null || key.isEmpty() || key.length() > 120) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if ((c < 'a' || c > 'z') && (c < '0' || c > '9') && c != '_' && c != '-') {
+                return false;
+            }
+        }
+        return !key.startsWith(JOURNAL_FILE);
+    }
+}
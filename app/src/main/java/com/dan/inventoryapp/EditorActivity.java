@@ -1,6 +1,7 @@
 package com.dan.inventoryapp;
 
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
@@ -8,11 +9,8 @@ import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
@@ -27,7 +25,6 @@ import android.widget.Toast;
 
 import com.dan.inventoryapp.data.ProductContract;
 
-import java.io.IOException;
 import java.text.DecimalFormat;
 
 public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
@@ -48,7 +45,17 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private Button mDecreaseButton;
     private Button mOrderButton;
     private Button mImportPictureButton;
-    private Drawable mOldDrawable;
+
+    /**
+     * The picture the user picked for the product, already scaled down to
+     * {@link ImageUtils#MAX_IMAGE_SIZE} (null until a picture is picked and decoded)
+     */
+    private Bitmap mPickedBitmap;
+
+    /**
+     * Whether the user picked a picture, which then replaces the stored image in the view
+     */
+    private boolean mPicturePicked = false;
 
     private int PICK_IMAGE_REQUEST = 1;
 
@@ -90,8 +97,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mPriceEditText = (EditText) findViewById(R.id.edit_product_price);
         mQuantityTextView = (TextView) findViewById(R.id.edit_product_quantity);
         mImageView = (ImageView) findViewById(R.id.edit_product_image);
-        //use this variable later to confirm whether the users insert blank image
-        mOldDrawable = mImageView.getDrawable();
         mIncreaseButton = (Button) findViewById(R.id.increase_button);
         mDecreaseButton = (Button) findViewById(R.id.decrease_button);
         mOrderButton = (Button) findViewById(R.id.order_button);
@@ -161,12 +166,17 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
             Uri uri = data.getData();
 
-            try {
-                Bitmap bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), uri);
-                mImageView.setImageBitmap(bitmap);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            // camera photos are far larger than needed, decode a scaled down copy
+            // in the background instead of the full picture on the main thread
+            mPickedBitmap = null;
+            mPicturePicked = true;
+            ImageLoader.getInstance(this).loadPicture(mImageView, uri, ImageUtils.MAX_IMAGE_SIZE,
+                    new DecodeExecutor.Callback<Bitmap>() {
+                        @Override
+                        public void onDecoded(Bitmap bitmap) {
+                            mPickedBitmap = bitmap;
+                        }
+                    });
         }
     }
 
@@ -211,17 +221,20 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 } else if (priceString.isEmpty()) {
                     Toast.makeText(this, getString(R.string.edit_price_blank), Toast.LENGTH_SHORT).show();
                     return true;
-                } else if //check whether the image is empty
-                        (mImageView.getDrawable() == mOldDrawable) {
+                } else if //check whether a new product has a picture (decoded)
+                        (mCurrentProductUri == null && mPickedBitmap == null) {
                     Toast.makeText(this, getString(R.string.edit_image_blank), Toast.LENGTH_SHORT).show();
                     return true;
                 }
                 //the input is in accepted form, save product, and finish activity
                 else {
-                    //validation successful, image view contain the desire picture so get the Bitmap of the picture
-                    Bitmap bitmap = ((BitmapDrawable) mImageView.getDrawable()).getBitmap();
-                    //ImageUtils.getByte convert the image into desire format (PNG) in the form byte[]
-                    byte[] imageByteArray = ImageUtils.getBytes(bitmap);
+                    //validation successful, only encode the picture if the user picked a new one,
+                    // an existing product keeps its stored image otherwise
+                    byte[] imageByteArray = null;
+                    if (mPickedBitmap != null) {
+                        //ImageUtils.getByte convert the image into the configured format in the form byte[]
+                        imageByteArray = ImageUtils.getBytes(mPickedBitmap);
+                    }
 
                     // Save product to database
                     saveProduct(nameString, priceString, quantityString, imageByteArray);
@@ -274,10 +287,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_NAME, nameString);
         values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY, Integer.parseInt(quantityString));
 
-        //insert byte[] into the values object
-        // we all ready set default picture of the product in the layout
-        // so the app won't crush even though users input no image
-        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE, imageByteArray);
+        //insert byte[] into the values object, if the user picked a new picture
+        if (imageByteArray != null) {
+            values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE, imageByteArray);
+        }
 
         //we can put the priceString into value without crashing the app
         // because in activity_editor.xml has specified the inputType of this editText as decimal number
@@ -353,7 +366,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 ProductContract.ProductEntry._ID,
                 ProductContract.ProductEntry.COLUMN_PRODUCT_NAME,
                 ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY,
-                ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE,
+                ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE_KEY,
                 ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE};
 
         // This loader will execute the ContentProvider's query method on a background thread
@@ -379,13 +392,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             int nameColumnIndex = cursor.getColumnIndex(ProductContract.ProductEntry.COLUMN_PRODUCT_NAME);
             int priceColumnIndex = cursor.getColumnIndex(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE);
             int quantityColumnIndex = cursor.getColumnIndex(ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY);
-            int imageColumnIndex = cursor.getColumnIndex(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE);
+            int imageKeyColumnIndex = cursor.getColumnIndex(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE_KEY);
 
             // Extract out the value from the Cursor for the given column index
             String name = cursor.getString(nameColumnIndex);
             double price = cursor.getDouble(priceColumnIndex);
             int quantity = cursor.getInt(quantityColumnIndex);
-            byte[] imageByteArray = cursor.getBlob(imageColumnIndex);
+            String imageKey = cursor.getString(imageKeyColumnIndex);
 
             // Update the views on the screen with the values from the database
             mNameEditText.setText(name);
@@ -393,8 +406,12 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             DecimalFormat formatter = new DecimalFormat("#.##");
             mPriceEditText.setText(formatter.format(price));
             mQuantityTextView.setText(String.valueOf(quantity));
-            //using ImageUtils to convert byte[] into bitmap
-            mImageView.setImageBitmap(ImageUtils.getImage(imageByteArray));
+            //the image comes from the bitmap cache shared with the list,
+            // or is decoded in the background (unless the user picked a new picture)
+            if (!mPicturePicked) {
+                ImageLoader.getInstance(this).loadImage(mImageView,
+                        ContentUris.parseId(mCurrentProductUri), imageKey);
+            }
         }
     }
 
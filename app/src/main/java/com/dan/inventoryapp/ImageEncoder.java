@@ -0,0 +1,120 @@
+package com.dan.inventoryapp;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * Strategy used by {@link ImageUtils#getBytes(Bitmap)} to turn product pictures into the
+ * bytes that are stored.
+ * <p>
+ * The picture is compressed in the given format and quality. If the result is larger than
+ * the byte budget, the quality is lowered step by step down to a minimum, and after that
+ * the picture is scaled down, until it fits or becomes too small to shrink further.
+ */
+public class ImageEncoder {
+
+    /**
+     * Quality removed at each step while the result is over budget
+     */
+    private static final int QUALITY_STEP = 10;
+
+    /**
+     * Factor applied to the picture's size once the quality can't be lowered any more
+     */
+    private static final float SCALE_STEP = 0.75f;
+
+    /**
+     * Pictures are never scaled below this size (longest side, in pixels)
+     */
+    private static final int MIN_SIZE = 64;
+
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+    private final int mMinQuality;
+    private final int mMaxBytes;
+
+    /**
+     * Constructs a new {@link ImageEncoder}.
+     *
+     * @param format     compression format; PNG ignores the quality
+     * @param quality    quality (0-100) tried first
+     * @param minQuality lowest quality tried before scaling the picture down
+     * @param maxBytes   byte budget of the result, 0 for none
+     */
+    public ImageEncoder(Bitmap.CompressFormat format, int quality, int minQuality, int maxBytes) {
+        mFormat = format;
+        mQuality = quality;
+        mMinQuality = Math.min(minQuality, quality);
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Return the encoder for product pictures: lossy WebP where the platform can encode it
+     * with transparency, JPEG otherwise, within 200 KB.
+     */
+    public static ImageEncoder createDefault() {
+        Bitmap.CompressFormat format = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2
+                ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.JPEG;
+        return new ImageEncoder(format, 85, 50, 200 * 1024);
+    }
+
+    public Bitmap.CompressFormat getFormat() {
+        return mFormat;
+    }
+
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Encode the picture. The bitmap itself is not modified or recycled.
+     */
+    public byte[] encode(Bitmap bitmap) {
+        // JPEG drops transparency, keep such pictures lossless
+        Bitmap.CompressFormat format = mFormat;
+        if (format == Bitmap.CompressFormat.JPEG && bitmap.hasAlpha()) {
+            format = Bitmap.CompressFormat.PNG;
+        }
+        boolean lossy = format != Bitmap.CompressFormat.PNG;
+
+        BufferPool bufferPool = ImageUtils.getBufferPool();
+        BufferPool.Buffer stream = bufferPool.acquire();
+        Bitmap picture = bitmap;
+        int quality = mQuality;
+        try {
+            while (true) {
+                stream.reset();
+                picture.compress(format, quality, stream);
+                if (mMaxBytes <= 0 || stream.size() <= mMaxBytes) {
+                    break;
+                }
+                if (lossy && quality > mMinQuality) {
+                    quality = Math.max(mMinQuality, quality - QUALITY_STEP);
+                    continue;
+                }
+                int longestSide = Math.max(picture.getWidth(), picture.getHeight());
+                int size = Math.round(longestSide * SCALE_STEP);
+                if (size < MIN_SIZE) {
+                    // Smallest version we are willing to make, even if over budget
+                    break;
+                }
+                float scale = (float) size / longestSide;
+                Bitmap scaled = Bitmap.createScaledBitmap(picture,
+                        Math.max(1, Math.round(picture.getWidth() * scale)),
+                        Math.max(1, Math.round(picture.getHeight() * scale)), true);
+                // Only pool the copies made here, never the caller's bitmap
+                if (picture != bitmap) {
+                    ImageUtils.getBitmapPool().put(picture);
+                }
+                picture = scaled;
+            }
+            return stream.toByteArray();
+        } finally {
+            // Also when compressing or scaling runs out of memory
+            if (picture != bitmap) {
+                ImageUtils.getBitmapPool().put(picture);
+            }
+            bufferPool.release(stream);
+        }
+    }
+}
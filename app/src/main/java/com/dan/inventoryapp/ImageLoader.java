@@ -0,0 +1,225 @@
+package com.dan.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+import com.dan.inventoryapp.data.ProductDbHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads product images into ImageViews off the main thread.
+ * <p>
+ * Images found in the {@link BitmapCache} are shown right away. Otherwise the view shows a
+ * placeholder until its image is loaded, from the {@link DiskImageCache} for thumbnails or
+ * by decoding it. Loading another image into the same view, e.g. when a list row is
+ * recycled, cancels the load still pending for it.
+ */
+public class ImageLoader {
+
+    private static final String LOG_TAG = ImageLoader.class.getSimpleName();
+
+    /**
+     * Number of background decode threads
+     */
+    private static final int DECODE_THREADS = 2;
+
+    /**
+     * Maximum number of decodes waiting for a thread, a few screens of list rows
+     */
+    private static final int MAX_QUEUED_DECODES = 32;
+
+    /**
+     * Name of the disk cache directory, next to the database
+     */
+    private static final String DISK_CACHE_DIRECTORY = "image_cache";
+
+    /**
+     * Number of thumbnails the disk cache holds, a few dozen screens of list rows
+     */
+    private static final int DISK_CACHE_ENTRIES = 250;
+
+    private static ImageLoader sInstance;
+
+    private final File mDiskCacheDirectory;
+
+    /**
+     * Size cap of the disk cache, {@link #DISK_CACHE_ENTRIES} opaque thumbnails of the size
+     * the provider makes them
+     */
+    private final long mDiskCacheMaxBytes;
+
+    /**
+     * Opened on first use, on a decode thread, as it reads the cache journal
+     */
+    private DiskImageCache mDiskCache;
+
+    private boolean mDiskCacheOpened;
+
+    private final ContentResolver mContentResolver;
+
+    private final DecodeExecutor mDecodeExecutor;
+
+    private final BitmapCache mBitmapCache;
+
+    private ImageLoader(Context context) {
+        mContentResolver = context.getContentResolver();
+        mBitmapCache = BitmapCache.getInstance(context);
+        mDiskCacheDirectory = new File(
+                context.getDatabasePath(ProductDbHelper.DATABASE_NAME).getParentFile(),
+                DISK_CACHE_DIRECTORY);
+        int thumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.list_item_height);
+        mDiskCacheMaxBytes = (long) DISK_CACHE_ENTRIES
+                * ImageUtils.getRawByteCount(thumbnailSize, thumbnailSize, Bitmap.Config.RGB_565);
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mDecodeExecutor = new DecodeExecutor(DECODE_THREADS, MAX_QUEUED_DECODES, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        }, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Below the main and render threads, so decodes don't slow down a fling
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG + "-decode-" + mCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Return the loader shared by the whole app.
+     */
+    public static synchronized ImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Load the list-sized thumbnail of the product into the view.
+     * Must be called on the main thread.
+     *
+     * @param productId id of the product
+     * @param imageKey  the product's {@link ProductEntry#COLUMN_PRODUCT_IMAGE_KEY}
+     */
+    public void loadThumbnail(ImageView imageView, long productId, final String imageKey) {
+        final Uri uri = ProductEntry.buildThumbnailUri(productId);
+        load(imageView, new BitmapCache.Key(productId, imageKey, true), new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                // Thumbnails are already scaled for the list, so the disk cache keeps them.
+                // They only depend on the image content, so the image key is enough.
+                return ImageUtils.getImage(getDiskCache(), imageKey + "_thumbnail",
+                        mContentResolver, uri);
+            }
+        });
+    }
+
+    /**
+     * Load the full image of the product into the view. Must be called on the main thread.
+     *
+     * @param productId id of the product
+     * @param imageKey  the product's {@link ProductEntry#COLUMN_PRODUCT_IMAGE_KEY}
+     */
+    public void loadImage(ImageView imageView, long productId, String imageKey) {
+        final Uri uri = ProductEntry.buildImageUri(productId);
+        load(imageView, new BitmapCache.Key(productId, imageKey, false), new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return ImageUtils.getImage(mContentResolver, uri);
+            }
+        });
+    }
+
+    /**
+     * Show the placeholder in the view and replace it with a copy of the picture at the
+     * uri scaled down to fit maxSize, e.g. a photo the user picked. The callback receives
+     * the scaled picture, or null if it couldn't be decoded. Must be called on the main thread.
+     */
+    public void loadPicture(final ImageView imageView, final Uri uri, final int maxSize,
+                            final DecodeExecutor.Callback<Bitmap> callback) {
+        imageView.setImageResource(R.color.image_placeholder);
+        mDecodeExecutor.submit(imageView, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return ImageUtils.getScaledImage(mContentResolver, uri, maxSize);
+            }
+        }, new DecodeExecutor.Callback<Bitmap>() {
+            @Override
+            public void onDecoded(Bitmap bitmap) {
+                if (bitmap != null) {
+                    imageView.setImageBitmap(bitmap);
+                }
+                callback.onDecoded(bitmap);
+            }
+        });
+    }
+
+    /**
+     * Show the cached image, or show the placeholder and replace it with the image the
+     * task loads in the background.
+     */
+    private void load(final ImageView imageView, final BitmapCache.Key key, Callable<Bitmap> task) {
+        Bitmap cached = mBitmapCache.get(key);
+        if (cached != null) {
+            mDecodeExecutor.cancel(imageView);
+            imageView.setImageBitmap(cached);
+            return;
+        }
+
+        imageView.setImageResource(R.color.image_placeholder);
+        mDecodeExecutor.submit(imageView, task, new DecodeExecutor.Callback<Bitmap>() {
+            @Override
+            public void onDecoded(Bitmap bitmap) {
+                if (bitmap != null) {
+                    mBitmapCache.put(key, bitmap);
+                    imageView.setImageBitmap(bitmap);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the disk cache, opening it on first use, or null if it can't be opened.
+     */
+    private synchronized DiskImageCache getDiskCache() {
+        if (!mDiskCacheOpened) {
+            mDiskCacheOpened = true;
+            try {
+                mDiskCache = new DiskImageCache(mDiskCacheDirectory, mDiskCacheMaxBytes);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to open disk cache " + mDiskCacheDirectory, e);
+            }
+        }
+        return mDiskCache;
+    }
+
+    /**
+     * Cancel the image still being loaded into the view, if any.
+     */
+    public void cancel(ImageView imageView) {
+        mDecodeExecutor.cancel(imageView);
+    }
+}
@@ -1,9 +1,15 @@
 package com.dan.inventoryapp;
 
+import android.content.ContentResolver;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Created by Dat T Do on 7/21/2017.
@@ -11,15 +17,335 @@ import java.io.ByteArrayOutputStream;
 
 public class ImageUtils {
 
-    // convert from bitmap to byte array
+    private static final String LOG_TAG = ImageUtils.class.getSimpleName();
+
+    private static final int THUMBNAIL_JPEG_QUALITY = 85;
+
+    /**
+     * Header of the raw pixel format used by the disk cache: magic, width, height, config
+     */
+    private static final int RAW_MAGIC = 0x50495831; // "PIX1"
+    private static final int RAW_HEADER_SIZE = 16;
+    private static final Bitmap.Config[] RAW_CONFIGS = {Bitmap.Config.ARGB_8888, Bitmap.Config.RGB_565};
+
+    /**
+     * Longest side, in pixels, of the product images that are stored
+     */
+    public static final int MAX_IMAGE_SIZE = 1024;
+
+    private static ImageEncoder sEncoder = ImageEncoder.createDefault();
+
+    /**
+     * Output buffers reused by every encode
+     */
+    private static final BufferPool sBufferPool = new BufferPool(64 * 1024, 2 * 1024 * 1024, 4);
+
+    /**
+     * Bitmaps that are no longer shown, reused by the decodes
+     */
+    private static final BitmapPool sBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 32);
+
+    public static BufferPool getBufferPool() {
+        return sBufferPool;
+    }
+
+    public static BitmapPool getBitmapPool() {
+        return sBitmapPool;
+    }
+
+    // set the strategy getBytes uses to encode product images
+    public static synchronized void setEncoder(ImageEncoder encoder) {
+        sEncoder = encoder;
+    }
+
+    public static synchronized ImageEncoder getEncoder() {
+        return sEncoder;
+    }
+
+    // convert from bitmap to byte array, using the current encoder
     public static byte[] getBytes(Bitmap bitmap) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 0, stream);
-        return stream.toByteArray();
+        return getBytes(bitmap, getEncoder());
+    }
+
+    // convert from bitmap to byte array with the given encoder
+    public static byte[] getBytes(Bitmap bitmap, ImageEncoder encoder) {
+        return encoder.encode(bitmap);
     }
 
-    // convert from byte array to bitmap
+    // convert from byte array to bitmap, reusing a pooled bitmap of the same size if possible
     public static Bitmap getImage(byte[] image) {
-        return BitmapFactory.decodeByteArray(image, 0, image.length);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        options.inJustDecodeBounds = false;
+        if (reuseBitmap(options)) {
+            try {
+                return BitmapFactory.decodeByteArray(image, 0, image.length, options);
+            } catch (IllegalArgumentException e) {
+                // the pooled bitmap can't hold this image after all
+                sBitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+            }
+        }
+        return BitmapFactory.decodeByteArray(image, 0, image.length, options);
+    }
+
+    // decode the image streamed from a content uri, such as ProductEntry.buildImageUri(id),
+    // reusing a pooled bitmap of the same size if possible
+    // return null if the image can't be read
+    public static Bitmap getImage(ContentResolver contentResolver, Uri uri) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream stream = null;
+        try {
+            stream = contentResolver.openInputStream(uri);
+            BitmapFactory.decodeStream(stream, null, options);
+            closeQuietly(stream);
+            options.inJustDecodeBounds = false;
+
+            if (reuseBitmap(options)) {
+                stream = contentResolver.openInputStream(uri);
+                try {
+                    return BitmapFactory.decodeStream(stream, null, options);
+                } catch (IllegalArgumentException e) {
+                    // the pooled bitmap can't hold this image after all
+                    sBitmapPool.put(options.inBitmap);
+                    options.inBitmap = null;
+                }
+                closeQuietly(stream);
+            }
+            stream = contentResolver.openInputStream(uri);
+            return BitmapFactory.decodeStream(stream, null, options);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to read image " + uri, e);
+            return null;
+        } finally {
+            closeQuietly(stream);
+        }
+    }
+
+    // after a bounds-only decode, set up the options to decode into a pooled bitmap
+    // return false if there is no pooled bitmap of the right size
+    private static boolean reuseBitmap(BitmapFactory.Options options) {
+        // decoded bitmaps are made mutable so they can go back to the pool later
+        options.inMutable = true;
+        if (options.outWidth <= 0 || options.outHeight <= 0 || options.inSampleSize > 1) {
+            return false;
+        }
+        options.inBitmap = sBitmapPool.get(options.outWidth, options.outHeight, Bitmap.Config.ARGB_8888);
+        return options.inBitmap != null;
+    }
+
+    // decode the image at a content uri through the disk cache: a cached copy is used
+    // when there is one, otherwise the image is decoded and its pixels are cached
+    public static Bitmap getImage(DiskImageCache diskCache, String cacheKey,
+                                  ContentResolver contentResolver, Uri uri) {
+        if (diskCache != null) {
+            try {
+                byte[] cached = diskCache.get(cacheKey);
+                Bitmap bitmap = cached == null ? null : fromRawBytes(cached);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to read cached image " + cacheKey, e);
+            }
+        }
+
+        Bitmap bitmap = getImage(contentResolver, uri);
+        if (bitmap != null && diskCache != null) {
+            try {
+                diskCache.put(cacheKey, toRawBytes(bitmap));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to cache image " + cacheKey, e);
+            }
+        }
+        return bitmap;
+    }
+
+    // decode the image at a content uri scaled down to fit in a maxSize x maxSize square,
+    // reading its bounds first so that only a sampled version is ever decoded
+    // return null if the image can't be read
+    public static Bitmap getScaledImage(ContentResolver contentResolver, Uri uri, int maxSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream stream = null;
+        try {
+            stream = contentResolver.openInputStream(uri);
+            BitmapFactory.decodeStream(stream, null, options);
+            closeQuietly(stream);
+
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                    maxSize, maxSize);
+            options.inJustDecodeBounds = false;
+            options.inMutable = true;
+            stream = contentResolver.openInputStream(uri);
+            Bitmap bitmap = BitmapFactory.decodeStream(stream, null, options);
+            return bitmap == null ? null : scaleToFit(bitmap, maxSize);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to read image " + uri, e);
+            return null;
+        } finally {
+            closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Raw pixel format of the disk cache
+     * <p>
+     * The disk cache only holds images already scaled for display, so it keeps their
+     * uncompressed pixels: reading them back is a copy, with no decoding at all. Opaque
+     * images, like the JPEG thumbnails, are kept as RGB_565, half the size of ARGB_8888.
+     */
+
+    // return the size of the raw bytes of a bitmap
+    public static int getRawByteCount(int width, int height, Bitmap.Config config) {
+        return RAW_HEADER_SIZE + width * height * (config == Bitmap.Config.RGB_565 ? 2 : 4);
+    }
+
+    // convert a bitmap into a header followed by its uncompressed pixels
+    public static byte[] toRawBytes(Bitmap bitmap) {
+        Bitmap pixels = bitmap;
+        if (!bitmap.hasAlpha() && bitmap.getConfig() != Bitmap.Config.RGB_565) {
+            pixels = bitmap.copy(Bitmap.Config.RGB_565, false);
+        } else if (bitmap.getConfig() != Bitmap.Config.RGB_565
+                && bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            pixels = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+        }
+        int pixelBytes = pixels.getRowBytes() * pixels.getHeight();
+        ByteBuffer buffer = ByteBuffer.allocate(RAW_HEADER_SIZE + pixelBytes);
+        buffer.putInt(RAW_MAGIC);
+        buffer.putInt(pixels.getWidth());
+        buffer.putInt(pixels.getHeight());
+        buffer.putInt(pixels.getConfig() == Bitmap.Config.RGB_565 ? 1 : 0);
+        pixels.copyPixelsToBuffer(buffer);
+        if (pixels != bitmap) {
+            pixels.recycle();
+        }
+        return buffer.array();
+    }
+
+    // convert the output of toRawBytes back into a bitmap, or null if it isn't valid
+    public static Bitmap fromRawBytes(byte[] raw) {
+        if (raw.length < RAW_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        int magic = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int config = buffer.getInt();
+        if (magic != RAW_MAGIC || width <= 0 || height <= 0 || config < 0 || config >= RAW_CONFIGS.length) {
+            return null;
+        }
+        Bitmap bitmap = sBitmapPool.getOrCreate(width, height, RAW_CONFIGS[config]);
+        if (buffer.remaining() < bitmap.getRowBytes() * height) {
+            sBitmapPool.put(bitmap);
+            return null;
+        }
+        bitmap.copyPixelsFromBuffer(buffer);
+        return bitmap;
+    }
+
+    /**
+     * Thumbnail pipeline
+     * <p>
+     * The list only shows a small picture of each product, so a thumbnail that fits in a
+     * size x size square is made once, when the product image is stored, instead of
+     * decoding the full image for every row.
+     */
+
+    // create the encoded thumbnail of an encoded image, or null if the image can't be decoded
+    public static byte[] createThumbnail(byte[] image, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, size, size);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        return encodeThumbnail(BitmapFactory.decodeByteArray(image, 0, image.length, options), size);
+    }
+
+    // create the encoded thumbnail of an image file, or null if the image can't be decoded
+    public static byte[] createThumbnail(File imageFile, int size) {
+        return encodeThumbnail(getScaledImage(imageFile, size), size);
+    }
+
+    // decode an image file scaled down to fit in a maxSize x maxSize square
+    // return null if the image can't be decoded
+    public static Bitmap getScaledImage(File imageFile, int maxSize) {
+        String path = imageFile.getPath();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, maxSize, maxSize);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        return bitmap == null ? null : scaleToFit(bitmap, maxSize);
+    }
+
+    /**
+     * Return the largest power of two sample size that keeps the decoded image at least
+     * as large as the requested size in both dimensions.
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (width <= 0 || height <= 0 || reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    // scale the bitmap down to fit in a size x size square, the original goes to the pool
+    // return the bitmap itself if it already fits
+    public static Bitmap scaleToFit(Bitmap bitmap, int size) {
+        int longestSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longestSide <= size) {
+            return bitmap;
+        }
+        float scale = (float) size / longestSide;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        if (scaled != bitmap) {
+            sBitmapPool.put(bitmap);
+        }
+        return scaled;
+    }
+
+    // scale the sampled bitmap down to fit the thumbnail size and encode it
+    private static byte[] encodeThumbnail(Bitmap bitmap, int size) {
+        if (bitmap == null) {
+            return null;
+        }
+        Bitmap thumbnail = scaleToFit(bitmap, size);
+
+        // photos compress far better as JPEG, keep PNG for pictures with transparency
+        BufferPool.Buffer stream = sBufferPool.acquire();
+        try {
+            if (thumbnail.hasAlpha()) {
+                thumbnail.compress(Bitmap.CompressFormat.PNG, 0, stream);
+            } else {
+                thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_JPEG_QUALITY, stream);
+            }
+            return stream.toByteArray();
+        } finally {
+            sBufferPool.release(stream);
+            sBitmapPool.put(thumbnail);
+        }
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // nothing left to do with this stream
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,147 @@
+package com.dan.inventoryapp;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Formats prices and quantities into a caller-provided char array, so that binding a list
+ * row doesn't allocate Strings or boxed numbers. The result can be shown with
+ * {@code TextView.setText(char[], int, int)}.
+ * <p>
+ * Prices are formatted like {@code new DecimalFormat("#.##")}: at most two decimals, trailing
+ * zeros dropped and half-even rounding. This class has no Android dependencies, so it can be
+ * tested on the JVM.
+ */
+public class PriceFormatter {
+
+    /**
+     * Length of the buffers passed to the format methods
+     */
+    public static final int BUFFER_LENGTH = 24;
+
+    /**
+     * Prices from this size on are handed to a {@link DecimalFormat}, they don't fit in the
+     * cents held in a long
+     */
+    private static final double MAX_FAST_PRICE = 1e15;
+
+    private final char mDecimalSeparator;
+    private final DecimalFormat mFallbackFormat;
+
+    /**
+     * Constructs a {@link PriceFormatter} for the default locale.
+     */
+    public PriceFormatter() {
+        this(DecimalFormatSymbols.getInstance());
+    }
+
+    public PriceFormatter(DecimalFormatSymbols symbols) {
+        mDecimalSeparator = symbols.getDecimalSeparator();
+        mFallbackFormat = new DecimalFormat("#.##", symbols);
+    }
+
+    /**
+     * Write the price into the buffer, which must hold {@link #BUFFER_LENGTH} chars.
+     *
+     * @return the number of chars written, from the start of the buffer
+     */
+    public int formatPrice(double price, char[] buffer) {
+        if (Double.isNaN(price) || Double.isInfinite(price) || Math.abs(price) >= MAX_FAST_PRICE) {
+            String text = mFallbackFormat.format(price);
+            text.getChars(0, text.length(), buffer, 0);
+            return text.length();
+        }
+        // Negative prices that round to zero keep their sign, as with DecimalFormat
+        boolean negative = price < 0 || 1 / price < 0;
+        long cents = roundToCents(Math.abs(price));
+        long units = cents / 100;
+        int fraction = (int) (cents % 100);
+
+        // Written backwards from the end of the buffer, then moved to its start
+        int position = BUFFER_LENGTH;
+        if (fraction != 0) {
+            if (fraction % 10 != 0) {
+                buffer[--position] = (char) ('0' + fraction % 10);
+            }
+            buffer[--position] = (char) ('0' + fraction / 10);
+            buffer[--position] = mDecimalSeparator;
+        }
+        position = writeDigits(units, buffer, position);
+        if (negative) {
+            buffer[--position] = '-';
+        }
+        return moveToStart(buffer, position);
+    }
+
+    /**
+     * Write the quantity into the buffer, which must hold {@link #BUFFER_LENGTH} chars.
+     *
+     * @return the number of chars written, from the start of the buffer
+     */
+    public int formatQuantity(int quantity, char[] buffer) {
+        int position = writeDigits(Math.abs((long) quantity), buffer, BUFFER_LENGTH);
+        if (quantity < 0) {
+            buffer[--position] = '-';
+        }
+        return moveToStart(buffer, position);
+    }
+
+    /**
+     * Round a non-negative price to cents, half-even like {@link DecimalFormat}, which rounds
+     * the exact binary value of the double
+     */
+    private static long roundToCents(double price) {
+        double scaled = price * 100;
+        double floor = Math.floor(scaled);
+        double remainder = scaled - floor;
+        long cents = (long) floor;
+        if (remainder > 0.5) {
+            return cents + 1;
+        } else if (remainder < 0.5) {
+            return cents;
+        }
+        // The product was rounded to half a cent, compare the exact values instead
+        int comparison = compareToHalf(price, 2 * cents + 1);
+        if (comparison == 0) {
+            return cents % 2 == 0 ? cents : cents + 1;
+        }
+        return comparison > 0 ? cents + 1 : cents;
+    }
+
+    /**
+     * Compare price * 200 with the given odd number, exactly. Only called for prices whose
+     * product with 100 is close to half a cent, so never for integers.
+     */
+    private static int compareToHalf(double price, long halfCents) {
+        long bits = Double.doubleToLongBits(price);
+        int exponent = (int) ((bits >> 52) & 0x7ff);
+        long mantissa = bits & ((1L << 52) - 1);
+        if (exponent == 0) {
+            // Subnormal, far below a cent
+            return -1;
+        }
+        // price = mantissa * 2^-shift
+        mantissa |= 1L << 52;
+        int shift = 1075 - exponent;
+        long left = mantissa * 200;
+        if (shift <= 0 || shift >= 63 || halfCents > (Long.MAX_VALUE >> shift)) {
+            return shift <= 0 ? 1 : -1;
+        }
+        long right = halfCents << shift;
+        return left < right ? -1 : (left == right ? 0 : 1);
+    }
+
+    private static int writeDigits(long value, char[] buffer, int position) {
+        do {
+            buffer[--position] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return position;
+    }
+
+    private static int moveToStart(char[] buffer, int position) {
+        int length = BUFFER_LENGTH - position;
+        System.arraycopy(buffer, position, buffer, 0, length);
+        return length;
+    }
+}
@@ -0,0 +1,110 @@
+package com.dan.inventoryapp;
+
+import android.database.Cursor;
+
+import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * A row of the catalog: the scalar columns of {@link ProductEntry#LIST_PROJECTION}, read out
+ * of the cursor in the background so that the list binds from plain objects.
+ * <p>
+ * Products are immutable and compared by value, which is how changed rows are found
+ * between two snapshots of the catalog.
+ */
+public final class Product {
+
+    private final long mId;
+    private final String mName;
+    private final double mPrice;
+    private final int mQuantity;
+    private final String mImageKey;
+
+    public Product(long id, String name, double price, int quantity, String imageKey) {
+        mId = id;
+        mName = name;
+        mPrice = price;
+        mQuantity = quantity;
+        mImageKey = imageKey;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public double getPrice() {
+        return mPrice;
+    }
+
+    public int getQuantity() {
+        return mQuantity;
+    }
+
+    public String getImageKey() {
+        return mImageKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Product)) {
+            return false;
+        }
+        Product other = (Product) o;
+        return mId == other.mId
+                && Double.compare(mPrice, other.mPrice) == 0
+                && mQuantity == other.mQuantity
+                && equal(mName, other.mName)
+                && equal(mImageKey, other.mImageKey);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mId ^ (mId >>> 32));
+        long price = Double.doubleToLongBits(mPrice);
+        result = 31 * result + (int) (price ^ (price >>> 32));
+        result = 31 * result + mQuantity;
+        result = 31 * result + (mName != null ? mName.hashCode() : 0);
+        result = 31 * result + (mImageKey != null ? mImageKey.hashCode() : 0);
+        return result;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Reads the products of a cursor queried with {@link ProductEntry#LIST_PROJECTION}.
+     */
+    static final class CursorReader {
+        private final int mIdColumnIndex;
+        private final int mNameColumnIndex;
+        private final int mPriceColumnIndex;
+        private final int mQuantityColumnIndex;
+        private final int mImageKeyColumnIndex;
+
+        CursorReader(Cursor cursor) {
+            mIdColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry._ID);
+            mNameColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_NAME);
+            mPriceColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_PRICE);
+            mQuantityColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            mImageKeyColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY);
+        }
+
+        /**
+         * Return the product at the cursor's current position
+         */
+        Product read(Cursor cursor) {
+            return new Product(cursor.getLong(mIdColumnIndex),
+                    cursor.getString(mNameColumnIndex),
+                    cursor.getDouble(mPriceColumnIndex),
+                    cursor.getInt(mQuantityColumnIndex),
+                    cursor.getString(mImageKeyColumnIndex));
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.dan.inventoryapp;
+
+/**
+ * Created by Dat T Do on 7/20/2017.
+ */
+
+
+import android.content.Context;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link ProductAdapter} is an adapter for a {@link RecyclerView} that uses a list of
+ * {@link Product}s as its data source. This adapter knows how to create list items for each
+ * product.
+ * <p>
+ * New lists come from {@link ProductListLoader} along with the changes from the previous
+ * one, so after a sale only the row that changed is bound again.
+ */
+public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ViewHolder> {
+
+    /**
+     * Called when a list item is clicked
+     */
+    public interface OnProductClickListener {
+        void onProductClick(long id);
+    }
+
+    private final Context mContext;
+    private final OnProductClickListener mClickListener;
+    private final StockMovements mStockMovements;
+
+    /**
+     * Formats prices and quantities without allocating, shared by all rows
+     */
+    private final PriceFormatter mFormatter = new PriceFormatter();
+
+    private List<Product> mProducts = Collections.emptyList();
+
+    /**
+     * Constructs a new {@link ProductAdapter}.
+     *
+     * @param context       The context
+     * @param clickListener Notified when a product is clicked
+     */
+    public ProductAdapter(Context context, OnProductClickListener clickListener) {
+        mContext = context;
+        mClickListener = clickListener;
+        mStockMovements = StockMovements.getInstance(context);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the products of the result. Only the rows that changed are updated if the adapter
+     * shows the list the result was computed from, the whole list otherwise.
+     */
+    public void swapProducts(ProductListLoader.Result result) {
+        mStockMovements.onProductsLoaded(result.getGeneration());
+        if (result.getProducts() == mProducts) {
+            return;
+        }
+        boolean incremental = result.getPrevious() == mProducts;
+        mProducts = result.getProducts();
+        if (incremental) {
+            result.getDiff().dispatchUpdatesTo(this);
+        } else {
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Remove every product from the list.
+     */
+    public void clear() {
+        mProducts = Collections.emptyList();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getItemCount() {
+        return mProducts.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mProducts.get(position).getId();
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     *
+     * @param parent   The parent to which the new view is attached to
+     * @param viewType The view type of the new view
+     * @return the holder of the newly created list item view.
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        // Find the views once, rows are recycled with their holder
+        ViewHolder holder = new ViewHolder(view);
+        view.setTag(holder);
+        view.setOnClickListener(mItemClickListener);
+        holder.saleButton.setTag(holder);
+        holder.saleButton.setOnClickListener(mSaleClickListener);
+        return holder;
+    }
+
+    /**
+     * This method binds the product at the given position to the given list item. For
+     * example, the name for the current product can be set on the name TextView in the list
+     * item layout.
+     * <p>
+     * Price and quantity are formatted into buffers held by the row, so binding doesn't
+     * allocate.
+     *
+     * @param holder   Holder of the list item, returned earlier by onCreateViewHolder()
+     * @param position Position of the product in the list
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        Product product = mProducts.get(position);
+        holder.id = product.getId();
+
+        //update name TextView
+        holder.nameTextView.setText(product.getName());
+        //update priceTextView, in the form 0.00
+        int length = mFormatter.formatPrice(product.getPrice(), holder.price);
+        holder.priceTextView.setText(holder.price, 0, length);
+        //update the quantityTextView, without the sales not yet written to the database
+        length = mFormatter.formatQuantity(
+                mStockMovements.getAvailableQuantity(holder.id, product.getQuantity()), holder.quantity);
+        holder.quantityTextView.setText(holder.quantity, 0, length);
+        //update ImageView,
+        // the image isn't part of the list, its list-sized thumbnail comes from the
+        // bitmap cache or is decoded in the background; a placeholder is shown meanwhile
+        ImageLoader.getInstance(mContext).loadThumbnail(holder.imageView, holder.id,
+                product.getImageKey());
+    }
+
+    /**
+     * Opens the clicked product, shared by all rows
+     */
+    private final View.OnClickListener mItemClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            mClickListener.onProductClick(((ViewHolder) v.getTag()).id);
+        }
+    };
+
+    /**
+     * The function of the sale buttons, shared by all rows:
+     * decrease the quantity of the row's product when it is clicked
+     */
+    private final View.OnClickListener mSaleClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            ViewHolder holder = (ViewHolder) v.getTag();
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            // Sales are written to the database in batches, take off those not written yet
+            int quantity = mStockMovements.getAvailableQuantity(holder.id,
+                    mProducts.get(position).getQuantity());
+            int message;
+            if (quantity <= 0) {
+                message = R.string.sale_deny;
+            } else if (mStockMovements.sell(holder.id)) {
+                message = R.string.sale_complete;
+                // Show the new quantity before the batch is written
+                notifyItemChanged(position);
+            } else {
+                message = R.string.sale_failed;
+            }
+            Toast.makeText(mContext, mContext.getString(message), Toast.LENGTH_SHORT).show();
+        }
+    };
+
+    /**
+     * Views and text buffers of a list item
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView nameTextView;
+        final TextView priceTextView;
+        final TextView quantityTextView;
+        final ImageView imageView;
+        final Button saleButton;
+
+        final char[] price = new char[PriceFormatter.BUFFER_LENGTH];
+        final char[] quantity = new char[PriceFormatter.BUFFER_LENGTH];
+
+        /**
+         * Id of the product bound to the item
+         */
+        long id;
+
+        ViewHolder(View view) {
+            super(view);
+            nameTextView = (TextView) view.findViewById(R.id.name_text_view);
+            priceTextView = (TextView) view.findViewById(R.id.price_text_view);
+            quantityTextView = (TextView) view.findViewById(R.id.quantity_text_view);
+            imageView = (ImageView) view.findViewById(R.id.image_view);
+            saleButton = (Button) view.findViewById(R.id.button_view);
+        }
+    }
+}
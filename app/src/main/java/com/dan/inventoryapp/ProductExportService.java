@@ -0,0 +1,228 @@
+package com.dan.inventoryapp;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+import com.dan.inventoryapp.data.ProductExporter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Exports the products to the file set as the data of the intent, in the background.
+ * <p>
+ * The products are read {@link #PAGE_SIZE} at a time, without their images, and written out
+ * as they are read, so a catalog of any size is exported with the same amount of memory.
+ * Images are copied straight from the provider's files to an "images" directory, whose
+ * absolute paths the rows hold so that a CSV export can be imported again, or left out.
+ * The progress is shown in a notification.
+ */
+public class ProductExportService extends IntentService {
+
+    private static final String LOG_TAG = ProductExportService.class.getSimpleName();
+
+    /**
+     * {@link ProductExporter.Format} name of the exported file, CSV if missing
+     */
+    public static final String EXTRA_FORMAT = "format";
+
+    /**
+     * Whether the images are exported as files, true if missing. Without them, a CSV export
+     * can't be imported again.
+     */
+    public static final String EXTRA_INCLUDE_IMAGES = "include_images";
+
+    /**
+     * Number of products read per query
+     */
+    private static final int PAGE_SIZE = 200;
+
+    private static final int NOTIFICATION_ID = 2;
+
+    private static final String IMAGE_DIRECTORY = "images";
+
+    public ProductExportService() {
+        super(ProductExportService.class.getSimpleName());
+    }
+
+    /**
+     * Start exporting the products to the file. The intent is granted the permission to write
+     * it.
+     */
+    public static void start(Context context, Uri fileUri, ProductExporter.Format format,
+                             boolean includeImages) {
+        Intent intent = new Intent(context, ProductExportService.class);
+        intent.setData(fileUri);
+        intent.putExtra(EXTRA_FORMAT, format.name());
+        intent.putExtra(EXTRA_INCLUDE_IMAGES, includeImages);
+        intent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Uri fileUri = intent == null ? null : intent.getData();
+        if (fileUri == null) {
+            return;
+        }
+        String formatName = intent.getStringExtra(EXTRA_FORMAT);
+        ProductExporter.Format format = formatName == null
+                ? ProductExporter.Format.CSV : ProductExporter.Format.valueOf(formatName);
+        File imageDirectory = intent.getBooleanExtra(EXTRA_INCLUDE_IMAGES, true)
+                ? getImageDirectory(fileUri) : null;
+
+        final NotificationManager notificationManager =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        final NotificationCompat.Builder notification = new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_upload)
+                .setContentTitle(getString(R.string.export_in_progress))
+                .setOnlyAlertOnce(true)
+                .setOngoing(true)
+                .setProgress(0, 0, true);
+        notificationManager.notify(NOTIFICATION_ID, notification.build());
+
+        try {
+            ParcelFileDescriptor file = getContentResolver().openFileDescriptor(fileUri, "w");
+            if (file == null) {
+                throw new FileNotFoundException("Cannot open " + fileUri);
+            }
+            ProductExporter exporter = new ProductExporter(new ProviderSource(getContentResolver()),
+                    PAGE_SIZE, new ProductExporter.ProgressListener() {
+                @Override
+                public void onProgress(ProductExporter.Progress progress) {
+                    notification.setContentText(progress.getRows() + " rows, "
+                            + Math.round(progress.getRowsPerSecond()) + " rows/s");
+                    notificationManager.notify(NOTIFICATION_ID, notification.build());
+                }
+            });
+            // The stream closes the descriptor
+            ProductExporter.Progress progress = exporter.run(
+                    new ParcelFileDescriptor.AutoCloseOutputStream(file), format, imageDirectory);
+            Log.i(LOG_TAG, "Exported " + progress.getRows() + " products and "
+                    + progress.getImages() + " images to " + fileUri + ", "
+                    + Math.round(progress.getRowsPerSecond()) + " rows/s");
+            notificationManager.notify(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                    .setSmallIcon(android.R.drawable.stat_sys_upload_done)
+                    .setContentTitle(getString(R.string.export_complete))
+                    .setContentText(getString(R.string.export_summary, progress.getRows()))
+                    .setAutoCancel(true)
+                    .build());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to export products to " + fileUri, e);
+            notificationManager.notify(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                    .setSmallIcon(android.R.drawable.stat_notify_error)
+                    .setContentTitle(getString(R.string.export_failed))
+                    .setAutoCancel(true)
+                    .build());
+        }
+    }
+
+    /**
+     * Return the directory the images are copied to: next to the exported file if it is a
+     * file, in the app's external files otherwise
+     */
+    private File getImageDirectory(Uri fileUri) {
+        if (ContentResolver.SCHEME_FILE.equals(fileUri.getScheme())) {
+            return new File(new File(fileUri.getPath()).getParentFile(), IMAGE_DIRECTORY);
+        }
+        File directory = getExternalFilesDir(null);
+        return new File(directory != null ? directory : getFilesDir(), IMAGE_DIRECTORY);
+    }
+
+    /**
+     * Reads the products through the provider, one page of scalar columns at a time
+     */
+    private static class ProviderSource implements ProductExporter.Source {
+        private final ContentResolver mContentResolver;
+
+        ProviderSource(ContentResolver contentResolver) {
+            mContentResolver = contentResolver;
+        }
+
+        @Override
+        public ProductExporter.Page readPage(long afterId, int limit) throws IOException {
+            Cursor cursor = mContentResolver.query(ProductEntry.buildPageUri(afterId, limit),
+                    ProductEntry.LIST_PROJECTION, null, null, null);
+            if (cursor == null) {
+                throw new IOException("Provider didn't return the products after " + afterId);
+            }
+            return new CursorPage(cursor);
+        }
+
+        @Override
+        public InputStream openImage(long id) throws IOException {
+            InputStream stream = mContentResolver.openInputStream(ProductEntry.buildImageUri(id));
+            if (stream == null) {
+                throw new FileNotFoundException("No image for product " + id);
+            }
+            return stream;
+        }
+    }
+
+    /**
+     * Reads the products out of the cursor as it moves, without copying them
+     */
+    private static class CursorPage implements ProductExporter.Page {
+        private final Cursor mCursor;
+        private final int mIdIndex;
+        private final int mNameIndex;
+        private final int mPriceIndex;
+        private final int mQuantityIndex;
+        private final int mImageKeyIndex;
+
+        CursorPage(Cursor cursor) {
+            mCursor = cursor;
+            mIdIndex = cursor.getColumnIndexOrThrow(ProductEntry._ID);
+            mNameIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_NAME);
+            mPriceIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_PRICE);
+            mQuantityIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            mImageKeyIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY);
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return mCursor.moveToNext();
+        }
+
+        @Override
+        public long getId() {
+            return mCursor.getLong(mIdIndex);
+        }
+
+        @Override
+        public String getName() {
+            return mCursor.getString(mNameIndex);
+        }
+
+        @Override
+        public double getPrice() {
+            return mCursor.getDouble(mPriceIndex);
+        }
+
+        @Override
+        public int getQuantity() {
+            return mCursor.getInt(mQuantityIndex);
+        }
+
+        @Override
+        public String getImageKey() {
+            return mCursor.getString(mImageKeyIndex);
+        }
+
+        @Override
+        public void close() {
+            mCursor.close();
+        }
+    }
+}
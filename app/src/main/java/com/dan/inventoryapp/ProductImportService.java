@@ -0,0 +1,215 @@
+package com.dan.inventoryapp;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.dan.inventoryapp.data.ImageStore;
+import com.dan.inventoryapp.data.ProductContract;
+import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+import com.dan.inventoryapp.data.ProductImporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports the products of the CSV file set as the data of the intent, in the background.
+ * <p>
+ * The products are inserted {@link #CHUNK_SIZE} at a time, each chunk in one transaction
+ * along with the position reached in the file. If the process is killed, the intent is
+ * redelivered and the import resumes after the last chunk inserted, so no product is
+ * imported twice. The progress is shown in a notification.
+ */
+public class ProductImportService extends IntentService {
+
+    private static final String LOG_TAG = ProductImportService.class.getSimpleName();
+
+    /**
+     * Number of products inserted per transaction
+     */
+    private static final int CHUNK_SIZE = 50;
+
+    private static final int NOTIFICATION_ID = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public ProductImportService() {
+        super(ProductImportService.class.getSimpleName());
+        // Start again with the same file if the process is killed during an import
+        setIntentRedelivery(true);
+    }
+
+    /**
+     * Start importing the products of the CSV file. The intent is granted the permission to
+     * read it.
+     */
+    public static void start(Context context, Uri fileUri) {
+        Intent intent = new Intent(context, ProductImportService.class);
+        intent.setData(fileUri);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Uri fileUri = intent == null ? null : intent.getData();
+        if (fileUri == null) {
+            return;
+        }
+        final ContentResolver contentResolver = getContentResolver();
+        final NotificationManager notificationManager =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        final NotificationCompat.Builder notification = new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentTitle(getString(R.string.import_in_progress))
+                .setOnlyAlertOnce(true)
+                .setOngoing(true)
+                .setProgress(0, 0, true);
+        notificationManager.notify(NOTIFICATION_ID, notification.build());
+
+        AssetFileDescriptor file = null;
+        try {
+            file = contentResolver.openAssetFileDescriptor(fileUri, "r");
+            if (file == null) {
+                throw new IOException("Cannot open " + fileUri);
+            }
+            long length = file.getLength();
+            // The same file is resumed, a file with the same name but another content isn't
+            String importId = ImageStore.computeKey((fileUri + ":" + length).getBytes(UTF_8));
+
+            ProductImporter importer = new ProductImporter(
+                    new ProviderSink(contentResolver, importId), CHUNK_SIZE,
+                    new ProductImporter.ProgressListener() {
+                        @Override
+                        public void onProgress(ProductImporter.Progress progress) {
+                            updateNotification(notificationManager, notification, progress);
+                        }
+                    });
+            ProductImporter.Progress progress = importer.run(file.createInputStream(), length);
+            Log.i(LOG_TAG, "Imported " + progress.getRowsImported() + " products from " + fileUri
+                    + ", skipped " + progress.getRowsSkipped() + " rows, "
+                    + Math.round(progress.getRowsPerSecond()) + " rows/s");
+            notificationManager.notify(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                    .setSmallIcon(android.R.drawable.stat_sys_download_done)
+                    .setContentTitle(getString(R.string.import_complete))
+                    .setContentText(getString(R.string.import_summary,
+                            progress.getRowsImported(), progress.getRowsSkipped()))
+                    .setAutoCancel(true)
+                    .build());
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Failed to import products from " + fileUri, e);
+            notificationManager.notify(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                    .setSmallIcon(android.R.drawable.stat_notify_error)
+                    .setContentTitle(getString(R.string.import_failed))
+                    .setAutoCancel(true)
+                    .build());
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // Nothing left to read
+                }
+            }
+        }
+    }
+
+    private static void updateNotification(NotificationManager notificationManager,
+                                           NotificationCompat.Builder notification,
+                                           ProductImporter.Progress progress) {
+        long total = progress.getTotalBytes();
+        if (total > 0) {
+            // Progress is an int, count it in thousandths of the file
+            notification.setProgress(1000, (int) (progress.getBytesRead() * 1000 / total), false);
+        }
+        notification.setContentText(progress.getPosition() + " rows, "
+                + Math.round(progress.getRowsPerSecond()) + " rows/s");
+        notificationManager.notify(NOTIFICATION_ID, notification.build());
+    }
+
+    /**
+     * Inserts the products through the provider, which stores the position of the import
+     * with each chunk
+     */
+    private static class ProviderSink implements ProductImporter.Sink {
+        private final ContentResolver mContentResolver;
+        private final String mImportId;
+
+        ProviderSink(ContentResolver contentResolver, String importId) {
+            mContentResolver = contentResolver;
+            mImportId = importId;
+        }
+
+        @Override
+        public long getPosition() throws IOException {
+            Bundle result = mContentResolver.call(ProductContract.BASE_CONTENT_URI,
+                    ProductContract.METHOD_GET_IMPORT_POSITION, mImportId, null);
+            if (result == null) {
+                throw new IOException("Provider didn't return the import position");
+            }
+            return result.getLong(ProductContract.EXTRA_POSITION);
+        }
+
+        @Override
+        public int insert(List<ProductImporter.Record> products, long position) {
+            List<ContentValues> valuesList = new ArrayList<>(products.size());
+            for (ProductImporter.Record product : products) {
+                byte[] image = readImage(product.getImagePath());
+                if (image == null) {
+                    // A product must have a picture
+                    continue;
+                }
+                ContentValues values = new ContentValues();
+                values.put(ProductEntry.COLUMN_PRODUCT_NAME, product.getName());
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, product.getPrice());
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, product.getQuantity());
+                values.put(ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE, image);
+                valuesList.add(values);
+            }
+            Uri uri = ProductEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(ProductContract.QUERY_PARAMETER_IMPORT_ID, mImportId)
+                    .appendQueryParameter(ProductContract.QUERY_PARAMETER_IMPORT_POSITION,
+                            String.valueOf(position))
+                    .build();
+            return mContentResolver.bulkInsert(uri,
+                    valuesList.toArray(new ContentValues[valuesList.size()]));
+        }
+
+        @Override
+        public void finish() {
+            mContentResolver.call(ProductContract.BASE_CONTENT_URI,
+                    ProductContract.METHOD_FINISH_IMPORT, mImportId, null);
+        }
+
+        /**
+         * Return the encoded picture at the path, a content uri or a file, scaled down like
+         * the pictures picked in the editor, or null if it can't be read
+         */
+        private byte[] readImage(String path) {
+            Uri uri = Uri.parse(path);
+            Bitmap bitmap = uri.getScheme() != null
+                    ? ImageUtils.getScaledImage(mContentResolver, uri, ImageUtils.MAX_IMAGE_SIZE)
+                    : ImageUtils.getScaledImage(new File(path), ImageUtils.MAX_IMAGE_SIZE);
+            if (bitmap == null) {
+                Log.w(LOG_TAG, "Cannot read the picture " + path);
+                return null;
+            }
+            byte[] image = ImageUtils.getBytes(bitmap);
+            // Only the encoded bytes are kept, let the next picture reuse the pixels
+            ImageUtils.getBitmapPool().put(bitmap);
+            return image;
+        }
+    }
+}
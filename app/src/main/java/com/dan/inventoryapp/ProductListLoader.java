@@ -0,0 +1,512 @@
+package com.dan.inventoryapp;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.OperationCanceledException;
+import android.support.v7.util.DiffUtil;
+
+import com.dan.inventoryapp.data.ProductChanges;
+import com.dan.inventoryapp.data.ProductContract;
+import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Loads the catalog as a list of {@link Product}s, page by page, and works out in the
+ * background what changed since the previous list, so that only the changed rows are
+ * rebound.
+ * <p>
+ * The first page is loaded when the loader starts. {@link #loadMore()} appends the next one,
+ * queried with keyset paging ({@link ProductEntry#buildPageUri(long, int)}). When the
+ * provider notifies which products changed, see {@link ProductEntry#parseChanges(Uri)}, the
+ * deleted ones are removed from the list and only the inserted and updated ones are read
+ * again. Otherwise, e.g. below API 16 where observers aren't told the URI, the loader asks
+ * the provider for the products changed since the generation of its last load, see
+ * {@link ProductEntry#buildChangesUri(long)}, and only reads those again. Only when there are
+ * too many does it reload as many products as were loaded so far, in a single query.
+ * <p>
+ * With a search text, see {@link #setSearchQuery(String)}, only the products found by the
+ * provider's full-text search are loaded, page by page in the same way. A search still
+ * running when the text changes is canceled.
+ */
+public class ProductListLoader extends AsyncTaskLoader<ProductListLoader.Result> {
+
+    /**
+     * Number of products queried at a time
+     */
+    public static final int PAGE_SIZE = 50;
+
+    private final ChangeObserver mObserver = new ChangeObserver();
+    private boolean mObserverRegistered;
+
+    /**
+     * Changes notified since the last result delivered, and the number of notifications
+     * received, guarded by this
+     */
+    private final ProductChanges mPendingChanges = new ProductChanges();
+    private int mChangeCount;
+
+    private Result mResult;
+
+    /**
+     * Products of the last result delivered, the base of the next load
+     */
+    private volatile List<Product> mProducts = Collections.emptyList();
+    private volatile boolean mLoaded;
+
+    /**
+     * Generation of the provider before the last result delivered was loaded, -1 if unknown
+     */
+    private volatile long mGeneration = -1;
+    private volatile boolean mHasMore;
+    private volatile boolean mLoadMoreRequested;
+
+    /**
+     * Text searched for, null to load every product
+     */
+    private volatile String mSearchQuery;
+
+    /**
+     * Search text of the last result delivered
+     */
+    private volatile String mResultSearchQuery;
+
+    /**
+     * Cancels the query running in the background, if any. A {@link CancellationSignal},
+     * only from API 16.
+     */
+    private Object mCancellationSignal;
+
+    public ProductListLoader(Context context) {
+        super(context);
+    }
+
+    /**
+     * Load the page following the products loaded so far, if there is one and it isn't
+     * already being loaded.
+     */
+    public void loadMore() {
+        if (mHasMore && !mLoadMoreRequested && isStarted()) {
+            mLoadMoreRequested = true;
+            forceLoad();
+        }
+    }
+
+    /**
+     * Load the products whose name matches the text instead of every product, or every
+     * product again if the text is null or empty. The load running is canceled.
+     */
+    public void setSearchQuery(String text) {
+        String query = text == null || text.trim().isEmpty() ? null : text.trim();
+        if (equal(query, mSearchQuery)) {
+            return;
+        }
+        mSearchQuery = query;
+        // Starts a new load once the running one is canceled, or when started
+        onContentChanged();
+    }
+
+    @Override
+    public Result loadInBackground() {
+        String searchQuery = mSearchQuery;
+        List<Product> previous = mProducts;
+        ProductChanges changes = new ProductChanges();
+        int changeCount;
+        synchronized (this) {
+            changes.addAll(mPendingChanges);
+            changeCount = mChangeCount;
+        }
+        // Read first, so that whatever is written during the load is in the next changes
+        long generation = queryGeneration();
+        List<Product> products;
+        boolean hasMore = mHasMore;
+        if (!mLoaded || !equal(searchQuery, mResultSearchQuery)) {
+            // Another search, start from its first page
+            products = query(searchQuery, 0, PAGE_SIZE);
+            hasMore = products.size() >= PAGE_SIZE;
+        } else {
+            if (!changes.isEmpty() && !changes.isComplete() && mGeneration >= 0) {
+                changes = queryChanges(mGeneration);
+            }
+            if (changes.isEmpty()) {
+                products = previous;
+            } else if (changes.isComplete()) {
+                products = applyChanges(searchQuery, previous, hasMore, changes);
+            } else {
+                int limit = Math.max(PAGE_SIZE, previous.size());
+                products = query(searchQuery, 0, limit);
+                hasMore = products.size() >= limit;
+            }
+            if (mLoadMoreRequested && hasMore && !products.isEmpty()) {
+                long lastId = products.get(products.size() - 1).getId();
+                List<Product> page = query(searchQuery, lastId, PAGE_SIZE);
+                List<Product> loaded = new ArrayList<>(products.size() + page.size());
+                loaded.addAll(products);
+                loaded.addAll(page);
+                products = loaded;
+                hasMore = page.size() >= PAGE_SIZE;
+            }
+        }
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffCallback(previous, products), false);
+        return new Result(previous, products, diff, hasMore, searchQuery, changeCount, generation);
+    }
+
+    /**
+     * Return the generation of the last write of a product, -1 if unknown.
+     */
+    private long queryGeneration() {
+        Bundle result = getContext().getContentResolver().call(ProductEntry.CONTENT_URI,
+                ProductContract.METHOD_GET_GENERATION, null, null);
+        return result != null ? result.getLong(ProductContract.EXTRA_GENERATION, -1) : -1;
+    }
+
+    /**
+     * Return the products written and deleted after the generation, incomplete if there are
+     * more than can be read again one by one, or if the deleted ones can't be told.
+     */
+    private ProductChanges queryChanges(long sinceGeneration) {
+        ProductChanges changes = new ProductChanges();
+        Cursor cursor = getContext().getContentResolver().query(
+                ProductEntry.buildChangesUri(sinceGeneration),
+                new String[]{ProductEntry._ID, ProductEntry.COLUMN_DELETED}, null, null, null);
+        if (cursor == null) {
+            changes.addUnknown();
+            return changes;
+        }
+        try {
+            while (changes.isComplete() && cursor.moveToNext()) {
+                if (cursor.getLong(0) == ProductEntry.ID_RELOAD_REQUIRED) {
+                    // Products deleted since were forgotten
+                    changes.addUnknown();
+                } else if (cursor.getInt(1) != 0) {
+                    changes.addDeleted(cursor.getLong(0));
+                } else {
+                    changes.addUpdated(cursor.getLong(0));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    /**
+     * Return the products with the changes applied: the deleted products are removed, and the
+     * inserted and updated ones are read again in a single query, those that no longer match
+     * the search being removed too. The list stays in id order, like the pages.
+     */
+    private List<Product> applyChanges(String searchQuery, List<Product> previous, boolean hasMore,
+                                       ProductChanges changes) {
+        // Products after the last one loaded are read with the next pages
+        long lastId = hasMore && !previous.isEmpty()
+                ? previous.get(previous.size() - 1).getId() : Long.MAX_VALUE;
+        Set<Long> changedIds = new TreeSet<>();
+        for (long id : changes.getInserted()) {
+            if (id <= lastId) {
+                changedIds.add(id);
+            }
+        }
+        for (long id : changes.getUpdated()) {
+            if (id <= lastId) {
+                changedIds.add(id);
+            }
+        }
+        Map<Long, Product> changed = new TreeMap<>();
+        if (!changedIds.isEmpty()) {
+            for (Product product : query(contentUri(searchQuery), ProductEntry._ID + " IN ("
+                    + ProductChanges.joinIds(changedIds) + ")")) {
+                changed.put(product.getId(), product);
+            }
+        }
+
+        // Merge the products read again with the others, both are in id order
+        List<Product> products = new ArrayList<>(previous.size() + changed.size());
+        Iterator<Product> changedProducts = changed.values().iterator();
+        Product next = changedProducts.hasNext() ? changedProducts.next() : null;
+        for (Product product : previous) {
+            long id = product.getId();
+            while (next != null && next.getId() < id) {
+                products.add(next);
+                next = changedProducts.hasNext() ? changedProducts.next() : null;
+            }
+            if (next != null && next.getId() == id) {
+                products.add(next);
+                next = changedProducts.hasNext() ? changedProducts.next() : null;
+            } else if (!changedIds.contains(id) && !changes.getDeleted().contains(id)) {
+                products.add(product);
+            }
+        }
+        while (next != null) {
+            products.add(next);
+            next = changedProducts.hasNext() ? changedProducts.next() : null;
+        }
+        return products;
+    }
+
+    /**
+     * Return the URI of all the products searched for, or of every product if the search
+     * text is null
+     */
+    private static Uri contentUri(String searchQuery) {
+        return searchQuery == null ? ProductEntry.CONTENT_URI : ProductEntry.buildSearchUri(searchQuery);
+    }
+
+    private List<Product> query(String searchQuery, long afterId, int limit) {
+        return query(ProductEntry.buildPageUri(contentUri(searchQuery), afterId, limit), null);
+    }
+
+    private List<Product> query(Uri uri, String selection) {
+        Cursor cursor;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            CancellationSignal signal;
+            synchronized (this) {
+                if (isLoadInBackgroundCanceled()) {
+                    throw new OperationCanceledException();
+                }
+                signal = new CancellationSignal();
+                mCancellationSignal = signal;
+            }
+            try {
+                cursor = getContext().getContentResolver().query(uri, ProductEntry.LIST_PROJECTION,
+                        selection, null, null, signal);
+            } finally {
+                synchronized (this) {
+                    mCancellationSignal = null;
+                }
+            }
+        } else {
+            cursor = getContext().getContentResolver().query(uri, ProductEntry.LIST_PROJECTION,
+                    selection, null, null);
+        }
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            List<Product> products = new ArrayList<>(cursor.getCount());
+            Product.CursorReader reader = new Product.CursorReader(cursor);
+            while (cursor.moveToNext()) {
+                products.add(reader.read(cursor));
+            }
+            return products;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                ((CancellationSignal) mCancellationSignal).cancel();
+            }
+        }
+    }
+
+    @Override
+    public void deliverResult(Result result) {
+        mLoadMoreRequested = false;
+        if (isReset()) {
+            return;
+        }
+        synchronized (this) {
+            if (result.mChangeCount == mChangeCount) {
+                // Nothing changed while loading, the result is up to date
+                mPendingChanges.clear();
+            }
+        }
+        mResult = result;
+        mProducts = result.mProducts;
+        mLoaded = true;
+        mGeneration = result.mGeneration;
+        mHasMore = result.mHasMore;
+        mResultSearchQuery = result.mSearchQuery;
+        if (isStarted()) {
+            super.deliverResult(result);
+        }
+    }
+
+    @Override
+    public void onCanceled(Result result) {
+        mLoadMoreRequested = false;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(
+                    ProductEntry.CONTENT_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (mResult != null) {
+            deliverResult(mResult);
+        }
+        if (takeContentChanged() || mResult == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mResult = null;
+        mProducts = Collections.emptyList();
+        mLoaded = false;
+        mGeneration = -1;
+        mHasMore = false;
+        mResultSearchQuery = null;
+        synchronized (this) {
+            mPendingChanges.clear();
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * A list of products along with the changes from the list loaded before it
+     */
+    public static final class Result {
+        private final List<Product> mPrevious;
+        private final List<Product> mProducts;
+        private final DiffUtil.DiffResult mDiff;
+        private final boolean mHasMore;
+        private final String mSearchQuery;
+        private final int mChangeCount;
+        private final long mGeneration;
+
+        Result(List<Product> previous, List<Product> products, DiffUtil.DiffResult diff,
+               boolean hasMore, String searchQuery, int changeCount, long generation) {
+            mPrevious = previous;
+            mProducts = products;
+            mDiff = diff;
+            mHasMore = hasMore;
+            mSearchQuery = searchQuery;
+            mChangeCount = changeCount;
+            mGeneration = generation;
+        }
+
+        /**
+         * The list these changes apply to
+         */
+        public List<Product> getPrevious() {
+            return mPrevious;
+        }
+
+        public List<Product> getProducts() {
+            return mProducts;
+        }
+
+        public DiffUtil.DiffResult getDiff() {
+            return mDiff;
+        }
+
+        /**
+         * The text the products were searched with, null if they are every product
+         */
+        public String getSearchQuery() {
+            return mSearchQuery;
+        }
+
+        /**
+         * The generation read before the products, they include every write up to it
+         */
+        public long getGeneration() {
+            return mGeneration;
+        }
+    }
+
+    /**
+     * Records the products the provider says changed, then reloads. The changes are kept until
+     * a result including them is delivered, so a canceled load doesn't lose them: applying them
+     * twice reads the same rows again.
+     */
+    private final class ChangeObserver extends ContentObserver {
+
+        ChangeObserver() {
+            super(new Handler());
+        }
+
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            ProductChanges changes = uri == null ? null : ProductEntry.parseChanges(uri);
+            synchronized (ProductListLoader.this) {
+                if (changes != null) {
+                    mPendingChanges.addAll(changes);
+                } else {
+                    mPendingChanges.addUnknown();
+                }
+                mChangeCount++;
+            }
+            onContentChanged();
+        }
+    }
+
+    /**
+     * Products are the same item if they have the same id, and unchanged if they are equal
+     */
+    private static final class DiffCallback extends DiffUtil.Callback {
+        private final List<Product> mOldProducts;
+        private final List<Product> mNewProducts;
+
+        DiffCallback(List<Product> oldProducts, List<Product> newProducts) {
+            mOldProducts = oldProducts;
+            mNewProducts = newProducts;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldProducts.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewProducts.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldProducts.get(oldItemPosition).getId() == mNewProducts.get(newItemPosition).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldProducts.get(oldItemPosition).equals(mNewProducts.get(newItemPosition));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.dan.inventoryapp;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Byte-bounded pool of objects that can be reused when another one with the same key
+ * (e.g. the same bitmap dimensions and config) is needed. The oldest objects are evicted
+ * first once the pool is over its size.
+ * <p>
+ * Counts hits (an object was reused) and misses (the caller had to allocate), so the
+ * allocations saved can be measured. This class has no Android dependencies, so it can be
+ * tested on the JVM; {@link BitmapPool} builds on it.
+ */
+public class ReusePool<T> {
+
+    private final long mMaxBytes;
+
+    /**
+     * Pooled objects, oldest first
+     */
+    private final LinkedList<Entry<T>> mEntries = new LinkedList<>();
+
+    private long mSize;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    public ReusePool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Take an object with the given key out of the pool, or return null if there is none.
+     * A null result counts as a miss, i.e. an allocation the caller has to make.
+     */
+    public synchronized T get(Object key) {
+        // Newest first, they are the most likely to still be in the CPU caches
+        Iterator<Entry<T>> iterator = mEntries.descendingIterator();
+        while (iterator.hasNext()) {
+            Entry<T> entry = iterator.next();
+            if (entry.mKey.equals(key)) {
+                iterator.remove();
+                mSize -= entry.mBytes;
+                mHitCount++;
+                return entry.mItem;
+            }
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Offer an object that is no longer used. Return false if it doesn't fit in the pool,
+     * in which case it has been passed to {@link #onEvicted(Object)}.
+     */
+    public boolean put(Object key, T item, int bytes) {
+        if (bytes > mMaxBytes) {
+            onEvicted(item);
+            return false;
+        }
+        LinkedList<T> evicted = new LinkedList<>();
+        synchronized (this) {
+            mEntries.addLast(new Entry<>(key, item, bytes));
+            mSize += bytes;
+            while (mSize > mMaxBytes) {
+                Entry<T> oldest = mEntries.removeFirst();
+                mSize -= oldest.mBytes;
+                mEvictionCount++;
+                evicted.add(oldest.mItem);
+            }
+        }
+        for (T evictedItem : evicted) {
+            onEvicted(evictedItem);
+        }
+        return true;
+    }
+
+    /**
+     * Remove every object from the pool.
+     */
+    public void clear() {
+        LinkedList<Entry<T>> entries;
+        synchronized (this) {
+            entries = new LinkedList<>(mEntries);
+            mEntries.clear();
+            mSize = 0;
+        }
+        for (Entry<T> entry : entries) {
+            onEvicted(entry.mItem);
+        }
+    }
+
+    /**
+     * Called when an object leaves the pool without being reused, outside of the pool's lock.
+     */
+    protected void onEvicted(T item) {
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private static final class Entry<T> {
+        private final Object mKey;
+        private final T mItem;
+        private final int mBytes;
+
+        Entry(Object key, T item, int bytes) {
+            mKey = key;
+            mItem = item;
+            mBytes = bytes;
+        }
+    }
+}
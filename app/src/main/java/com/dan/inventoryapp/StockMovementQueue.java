@@ -0,0 +1,574 @@
+package com.dan.inventoryapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue of stock movements (quantity changes, such as -1 for a sale). Movements
+ * are added without touching the database: the changes of a product are summed up over a
+ * short window, then all of them are handed to a {@link Sink} as one batch, which applies
+ * them in one transaction.
+ * <p>
+ * {@link #add(long, int)} numbers the movement and appends it to a journal before returning,
+ * without forcing it to the storage device, so it survives the process being killed as soon
+ * as the caller counts it. The append never waits for a batch. The journal is read on the
+ * executor, so opening the queue doesn't block the caller unless a movement is added before
+ * it has been read. The sink
+ * stores the number of the last batch it applied along with the batch itself; when the
+ * queue is opened again, the journaled movements it didn't apply are sent again, and a batch
+ * applied twice is ignored. {@link #sync()} also makes the journal survive a power loss.
+ * <p>
+ * A batch counts in {@link #getPendingDelta(long)} while it is applied, and afterwards until
+ * {@link #confirmLoaded(long)} reports that the data shown was read after it. The part of a
+ * movement the sink couldn't apply, e.g. sales of stock already gone, is reported to the
+ * {@link Listener} and dropped.
+ * <p>
+ * Journal lines are "SEQUENCE n", the number of the last movement once all the earlier ones
+ * were applied, and "MOVE n id delta". This class has no Android dependencies, so it can be
+ * tested on the JVM.
+ */
+public class StockMovementQueue {
+
+    /**
+     * Applies batches of movements, e.g. in the database
+     */
+    public interface Sink {
+
+        /**
+         * Return the sequence number of the last batch applied, 0 if there is none.
+         */
+        long getAppliedSequence() throws IOException;
+
+        /**
+         * Apply the quantity changes, and remember the sequence number with them, in one
+         * transaction. A batch whose sequence number isn't greater than the last one applied
+         * must be ignored.
+         */
+        Result apply(long[] ids, int[] deltas, long sequence) throws IOException;
+    }
+
+    /**
+     * Notified on the executor, or on the thread calling {@link #flush()}
+     */
+    public interface Listener {
+
+        /**
+         * Called with the part of the movements the sink couldn't apply.
+         */
+        void onSkipped(long[] ids, int[] deltas);
+
+        /**
+         * Called when the journal can't be read or written, or a batch can't be applied.
+         * The movements are kept and sent again later.
+         */
+        void onError(IOException e);
+    }
+
+    private static final String SEQUENCE = "SEQUENCE";
+    private static final String MOVE = "MOVE";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Delay before a failed batch is sent again
+     */
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final File mJournalFile;
+    private final Sink mSink;
+    private final Listener mListener;
+    private final ScheduledExecutorService mExecutor;
+    private final long mWindowMillis;
+
+    /**
+     * Summed up changes of each product, journaled, since the last batch
+     */
+    private final Map<Long, Integer> mPending = new LinkedHashMap<>();
+
+    /**
+     * Movements read from the journal, some of which may have been applied already.
+     * Null once they have been sorted out.
+     */
+    private List<long[]> mRecovered = new ArrayList<>();
+
+    /**
+     * Batch that couldn't be applied, sent again with its sequence number before any other
+     */
+    private Batch mFailedBatch;
+
+    /**
+     * Batch being applied
+     */
+    private Batch mAppliedBatch;
+
+    /**
+     * Applied batches, with what the sink applied, until data read after them is shown
+     */
+    private final List<Batch> mUnconfirmed = new ArrayList<>();
+
+    private long mSequence;
+    private boolean mFlushScheduled;
+
+    /**
+     * Guarded by mJournalLock, which is taken before this
+     */
+    private boolean mOpened;
+    private FileOutputStream mJournal;
+
+    /**
+     * Taken before mJournalLock
+     */
+    private final Object mFlushLock = new Object();
+
+    private final Object mJournalLock = new Object();
+
+    private final Runnable mOpenTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                open();
+            } catch (IOException e) {
+                mListener.onError(e);
+            }
+        }
+    };
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (IOException e) {
+                // The movements are kept and sent again later
+                mListener.onError(e);
+            }
+        }
+    };
+
+    private final Runnable mSyncTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                sync();
+            } catch (IOException e) {
+                mListener.onError(e);
+            }
+        }
+    };
+
+    /**
+     * Opens the queue. The movements left in the journal are read on the executor, and sent
+     * to the sink with the first batch, which is scheduled right away if there are any.
+     *
+     * @param journalFile  file the movements are journaled to
+     * @param sink         applies the batches
+     * @param listener     notified of the movements skipped and of the errors
+     * @param executor     reads and writes the journal and runs the batches, one at a time
+     * @param windowMillis time during which movements are summed up before being applied
+     */
+    public StockMovementQueue(File journalFile, Sink sink, Listener listener,
+                              ScheduledExecutorService executor, long windowMillis) {
+        mJournalFile = journalFile;
+        mSink = sink;
+        mListener = listener;
+        mExecutor = executor;
+        mWindowMillis = windowMillis;
+        mExecutor.execute(mOpenTask);
+    }
+
+    /**
+     * Add a movement: append it to the journal, and apply it with the next batch. The journal
+     * isn't forced to the storage device, see {@link #sync()}.
+     *
+     * @param id    the product id
+     * @param delta the change of its quantity, e.g. -1 for a sale
+     * @throws IOException if the journal can't be written, the movement isn't added
+     */
+    public void add(long id, int delta) throws IOException {
+        synchronized (mJournalLock) {
+            // Waits for the journal to be read only if it hasn't been yet
+            open();
+            if (mJournal == null) {
+                throw new IOException("Journal " + mJournalFile + " couldn't be opened");
+            }
+            // Only taken with mJournalLock held, it can't change until the line is written
+            long sequence;
+            synchronized (this) {
+                sequence = mSequence + 1;
+            }
+            mJournal.write((MOVE + ' ' + sequence + ' ' + id + ' ' + delta + '\n').getBytes(UTF_8));
+            synchronized (this) {
+                mSequence = sequence;
+                Integer pending = mPending.get(id);
+                int sum = (pending == null ? 0 : pending) + delta;
+                if (sum == 0) {
+                    mPending.remove(id);
+                } else {
+                    mPending.put(id, sum);
+                }
+                if (!mFlushScheduled) {
+                    scheduleFlush(mWindowMillis);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the sum of the changes of the product's quantity that aren't in the data
+     * shown yet: pending, being applied, or applied but not confirmed.
+     */
+    public synchronized int getPendingDelta(long id) {
+        int delta = 0;
+        Integer pending = mPending.get(id);
+        if (pending != null) {
+            delta += pending;
+        }
+        delta += getDelta(mFailedBatch, id) + getDelta(mAppliedBatch, id);
+        for (Batch batch : mUnconfirmed) {
+            delta += getDelta(batch, id);
+        }
+        return delta;
+    }
+
+    private static int getDelta(Batch batch, long id) {
+        if (batch == null) {
+            return 0;
+        }
+        int delta = 0;
+        for (int i = 0; i < batch.mIds.length; i++) {
+            if (batch.mIds[i] == id) {
+                delta += batch.mDeltas[i];
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Forget the applied batches whose changes are part of data read at the given
+     * generation of the sink, see {@link Result#getGeneration()}.
+     */
+    public synchronized void confirmLoaded(long generation) {
+        Iterator<Batch> iterator = mUnconfirmed.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().mGeneration <= generation) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Apply the pending movements now, on the executor, instead of at the end of the window,
+     * then force the journal to the storage device.
+     */
+    public synchronized void flushSoon() {
+        scheduleFlush(0);
+        mExecutor.execute(mSyncTask);
+    }
+
+    /**
+     * Force the journal to the storage device, so that the movements survive a power loss.
+     */
+    public void sync() throws IOException {
+        FileOutputStream journal;
+        synchronized (mJournalLock) {
+            journal = mJournal;
+        }
+        if (journal == null) {
+            return;
+        }
+        try {
+            // Without the lock, so that add() doesn't wait for the device
+            journal.getFD().sync();
+        } catch (IOException e) {
+            synchronized (mJournalLock) {
+                if (mJournal == journal) {
+                    throw e;
+                }
+            }
+            // Replaced by a compacted journal, which was synced already
+        }
+    }
+
+    /**
+     * Apply the pending movements on the calling thread, as one batch. If the sink fails, the
+     * movements are kept and sent again by a later batch.
+     */
+    public void flush() throws IOException {
+        synchronized (mFlushLock) {
+            open();
+            Batch batch;
+            synchronized (this) {
+                mFlushScheduled = false;
+                batch = mFailedBatch;
+                mFailedBatch = null;
+                mAppliedBatch = batch;
+            }
+            if (batch == null) {
+                batch = takePending();
+            }
+            if (batch == null) {
+                return;
+            }
+
+            Result result;
+            try {
+                result = mSink.apply(batch.mIds, batch.mDeltas, batch.mSequence);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    mAppliedBatch = null;
+                    mFailedBatch = batch;
+                    scheduleFlush(RETRY_DELAY_MILLIS);
+                }
+                throw e;
+            }
+
+            Batch applied = batch.without(result.mSkippedIds, result.mSkippedDeltas,
+                    result.mGeneration);
+            synchronized (mJournalLock) {
+                synchronized (this) {
+                    mAppliedBatch = null;
+                    mUnconfirmed.add(applied);
+                    if (!mPending.isEmpty()) {
+                        // Added in the meantime
+                        scheduleFlush(mWindowMillis);
+                    } else if (batch.mSequence == mSequence) {
+                        // Everything journaled has been applied
+                        compactJournal();
+                    }
+                }
+            }
+            if (result.mSkippedIds.length > 0) {
+                mListener.onSkipped(result.mSkippedIds, result.mSkippedDeltas);
+            }
+        }
+    }
+
+    /**
+     * Apply the pending movements and close the journal. The executor isn't shut down.
+     */
+    public void close() throws IOException {
+        flush();
+        synchronized (mJournalLock) {
+            if (mJournal != null) {
+                mJournal.close();
+                mJournal = null;
+            }
+        }
+    }
+
+    /**
+     * Read the journal and open it for appending, once.
+     */
+    private void open() throws IOException {
+        synchronized (mJournalLock) {
+            if (mOpened) {
+                return;
+            }
+            mOpened = true;
+            readJournal();
+            mJournal = new FileOutputStream(mJournalFile, true);
+            synchronized (this) {
+                if (!mRecovered.isEmpty()) {
+                    scheduleFlush(0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the pending movements, and those recovered from the journal that weren't
+     * applied, as a batch, or null if there are none. The batch is the one being applied
+     * from then on.
+     */
+    private Batch takePending() throws IOException {
+        List<long[]> recovered;
+        synchronized (this) {
+            recovered = mRecovered;
+        }
+        // Asking the sink may take a while, don't hold the lock
+        long appliedSequence = recovered == null ? 0 : mSink.getAppliedSequence();
+
+        synchronized (mJournalLock) {
+            synchronized (this) {
+                Map<Long, Integer> movements = new LinkedHashMap<>();
+                if (recovered != null) {
+                    for (long[] movement : recovered) {
+                        if (movement[0] > appliedSequence) {
+                            Integer delta = movements.get(movement[1]);
+                            movements.put(movement[1],
+                                    (delta == null ? 0 : delta) + (int) movement[2]);
+                        }
+                    }
+                    mRecovered = null;
+                }
+                for (Map.Entry<Long, Integer> entry : mPending.entrySet()) {
+                    Integer delta = movements.get(entry.getKey());
+                    movements.put(entry.getKey(), (delta == null ? 0 : delta) + entry.getValue());
+                }
+                mPending.clear();
+
+                List<Long> ids = new ArrayList<>(movements.size());
+                List<Integer> deltas = new ArrayList<>(movements.size());
+                for (Map.Entry<Long, Integer> entry : movements.entrySet()) {
+                    if (entry.getValue() != 0) {
+                        ids.add(entry.getKey());
+                        deltas.add(entry.getValue());
+                    }
+                }
+                if (ids.isEmpty()) {
+                    if (recovered != null) {
+                        compactJournal();
+                    }
+                    return null;
+                }
+                Batch batch = new Batch(new long[ids.size()], new int[ids.size()], mSequence, 0);
+                for (int i = 0; i < ids.size(); i++) {
+                    batch.mIds[i] = ids.get(i);
+                    batch.mDeltas[i] = deltas.get(i);
+                }
+                mAppliedBatch = batch;
+                return batch;
+            }
+        }
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        mFlushScheduled = true;
+        mExecutor.schedule(mFlushTask, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void readJournal() throws IOException {
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile), UTF_8));
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        long sequence = 0;
+        List<long[]> recovered = new ArrayList<>();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                try {
+                    if (parts.length == 2 && SEQUENCE.equals(parts[0])) {
+                        sequence = Math.max(sequence, Long.parseLong(parts[1]));
+                    } else if (parts.length == 4 && MOVE.equals(parts[0])) {
+                        long[] movement = {Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                                Integer.parseInt(parts[3])};
+                        recovered.add(movement);
+                        sequence = Math.max(sequence, movement[0]);
+                    }
+                } catch (NumberFormatException e) {
+                    // A line cut short by the process dying, nothing was added after it
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        synchronized (this) {
+            mSequence = Math.max(mSequence, sequence);
+            mRecovered.addAll(recovered);
+        }
+    }
+
+    /**
+     * Replace the journal with the current sequence number, once every movement in it has
+     * been applied. Called with mJournalLock held.
+     */
+    private void compactJournal() throws IOException {
+        if (mJournal == null) {
+            return;
+        }
+        mJournal.close();
+        mJournal = null;
+        File temp = new File(mJournalFile.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            stream.write((SEQUENCE + ' ' + mSequence + '\n').getBytes(UTF_8));
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(mJournalFile)) {
+            throw new IOException("Cannot replace journal " + mJournalFile);
+        }
+        mJournal = new FileOutputStream(mJournalFile, true);
+    }
+
+    /**
+     * What the sink did with a batch
+     */
+    public static final class Result {
+        private final long mGeneration;
+        private final long[] mSkippedIds;
+        private final int[] mSkippedDeltas;
+
+        /**
+         * @param generation    of the sink's data once the batch was applied
+         * @param skippedIds    products whose change wasn't applied, or only in part
+         * @param skippedDeltas the part of their change that wasn't applied
+         */
+        public Result(long generation, long[] skippedIds, int[] skippedDeltas) {
+            mGeneration = generation;
+            mSkippedIds = skippedIds;
+            mSkippedDeltas = skippedDeltas;
+        }
+
+        public long getGeneration() {
+            return mGeneration;
+        }
+    }
+
+    /**
+     * Summed up movements applied together, with the sequence number of the last of them
+     */
+    private static final class Batch {
+        private final long[] mIds;
+        private final int[] mDeltas;
+        private final long mSequence;
+
+        /**
+         * Generation of the sink once applied, 0 before
+         */
+        private final long mGeneration;
+
+        Batch(long[] ids, int[] deltas, long sequence, long generation) {
+            mIds = ids;
+            mDeltas = deltas;
+            mSequence = sequence;
+            mGeneration = generation;
+        }
+
+        /**
+         * Return the batch without the skipped part of its movements, as applied at the
+         * generation.
+         */
+        Batch without(long[] skippedIds, int[] skippedDeltas, long generation) {
+            int[] deltas = mDeltas.clone();
+            for (int i = 0; i < skippedIds.length; i++) {
+                for (int j = 0; j < mIds.length; j++) {
+                    if (mIds[j] == skippedIds[i]) {
+                        deltas[j] -= skippedDeltas[i];
+                        break;
+                    }
+                }
+            }
+            return new Batch(mIds, deltas, mSequence, generation);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.dan.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.dan.inventoryapp.data.ProductContract;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Records the sales made from the catalog in a {@link StockMovementQueue}, so that a burst of
+ * sales costs one transaction and one reload of the catalog instead of one per sale. The
+ * batches are applied by the provider's
+ * {@link ProductContract#METHOD_APPLY_STOCK_MOVEMENTS} method. The journal is read on the
+ * queue's executor; each sale is appended to it before {@link #sell(long)} returns, a write
+ * that doesn't wait for the storage device.
+ */
+public class StockMovements {
+
+    private static final String LOG_TAG = StockMovements.class.getSimpleName();
+
+    /**
+     * Time during which movements are summed up before they are written to the database
+     */
+    private static final long WINDOW_MILLIS = 500;
+
+    /**
+     * Name of the journal file, in the app's files directory
+     */
+    private static final String JOURNAL_FILE = "stock_journal";
+
+    private static StockMovements sInstance;
+
+    private final StockMovementQueue mQueue;
+
+    private StockMovements(final Context context) {
+        final ContentResolver contentResolver = context.getContentResolver();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        mQueue = new StockMovementQueue(new File(context.getFilesDir(), JOURNAL_FILE),
+                new StockMovementQueue.Sink() {
+                    @Override
+                    public long getAppliedSequence() throws IOException {
+                        return call(contentResolver, null).getLong(ProductContract.EXTRA_SEQUENCE);
+                    }
+
+                    @Override
+                    public StockMovementQueue.Result apply(long[] ids, int[] deltas, long sequence)
+                            throws IOException {
+                        Bundle extras = new Bundle();
+                        extras.putLongArray(ProductContract.EXTRA_PRODUCT_IDS, ids);
+                        extras.putIntArray(ProductContract.EXTRA_QUANTITY_DELTAS, deltas);
+                        extras.putLong(ProductContract.EXTRA_SEQUENCE, sequence);
+                        Bundle result = call(contentResolver, extras);
+                        return new StockMovementQueue.Result(
+                                result.getLong(ProductContract.EXTRA_GENERATION),
+                                result.getLongArray(ProductContract.EXTRA_PRODUCT_IDS),
+                                result.getIntArray(ProductContract.EXTRA_QUANTITY_DELTAS));
+                    }
+                },
+                new StockMovementQueue.Listener() {
+                    @Override
+                    public void onSkipped(long[] ids, int[] deltas) {
+                        Log.w(LOG_TAG, "Products " + Arrays.toString(ids) + " ran out, "
+                                + Arrays.toString(deltas) + " not applied");
+                        int sales = 0;
+                        for (int delta : deltas) {
+                            sales -= Math.min(delta, 0);
+                        }
+                        if (sales == 0) {
+                            return;
+                        }
+                        final String message = context.getString(R.string.sales_skipped, sales);
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                Toast.makeText(context, message, Toast.LENGTH_LONG).show();
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onError(IOException e) {
+                        Log.e(LOG_TAG, "Failed to record the stock movements", e);
+                    }
+                }, executor, WINDOW_MILLIS);
+    }
+
+    /**
+     * Return the stock movements shared by the whole app. Doesn't read the journal, so it
+     * can be called on the main thread.
+     */
+    public static synchronized StockMovements getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StockMovements(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return the quantity of the product once the sales not yet in the data shown are taken
+     * off.
+     *
+     * @param quantity the quantity read from the database
+     */
+    public int getAvailableQuantity(long productId, int quantity) {
+        return quantity + mQueue.getPendingDelta(productId);
+    }
+
+    /**
+     * Tell that products read at the given generation are shown, so the sales written
+     * before it are no longer taken off them.
+     */
+    public void onProductsLoaded(long generation) {
+        mQueue.confirmLoaded(generation);
+    }
+
+    /**
+     * Record the sale of one item of the product. It is journaled right away, so it survives
+     * the process being killed, and written to the database with the next batch.
+     *
+     * @return false if the sale couldn't be recorded
+     */
+    public boolean sell(long productId) {
+        try {
+            mQueue.add(productId, -1);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to record the sale of product " + productId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Write the pending movements to the database without waiting for the end of the window,
+     * and make sure the journal is on the storage device, in the background. Call it when the
+     * app is paused; the sales are already in the journal.
+     */
+    public void flush() {
+        mQueue.flushSoon();
+    }
+
+    private static Bundle call(ContentResolver contentResolver, Bundle extras) throws IOException {
+        Bundle result = contentResolver.call(ProductContract.BASE_CONTENT_URI,
+                ProductContract.METHOD_APPLY_STOCK_MOVEMENTS, null, extras);
+        if (result == null) {
+            throw new IOException("Provider didn't apply the stock movements");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,139 @@
+package com.dan.inventoryapp.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads CSV (RFC 4180) records one at a time from a character stream, so files of any size
+ * can be read with a constant amount of memory.
+ * <p>
+ * Fields are separated by commas and may be quoted, in which case they can contain commas,
+ * line breaks and doubled quotes. Records end with LF or CRLF. A byte order mark at the start
+ * is skipped. This class has no Android dependencies, so it can be tested on the JVM.
+ */
+public class CsvReader implements Closeable {
+
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final Reader mReader;
+
+    private final char[] mBuffer = new char[8192];
+    private int mPosition;
+    private int mLimit;
+
+    private final StringBuilder mField = new StringBuilder();
+    private final List<String> mFields = new ArrayList<>();
+
+    private long mRecordCount;
+    private boolean mStarted;
+
+    /**
+     * Constructs a new {@link CsvReader}. The reader doesn't need to be buffered.
+     */
+    public CsvReader(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Return the fields of the next record, or null at the end of the stream. Empty lines are
+     * skipped.
+     *
+     * @throws IOException if the stream ends inside a quoted field
+     */
+    public String[] readRecord() throws IOException {
+        if (!mStarted) {
+            mStarted = true;
+            if (peek() == BYTE_ORDER_MARK) {
+                mPosition++;
+            }
+        }
+        int c;
+        // Skip empty lines
+        while ((c = peek()) == '\r' || c == '\n') {
+            mPosition++;
+        }
+        if (c == -1) {
+            return null;
+        }
+
+        mFields.clear();
+        while (true) {
+            readField();
+            c = read();
+            if (c == ',') {
+                continue;
+            }
+            if (c == '\r' && peek() == '\n') {
+                mPosition++;
+            }
+            break;
+        }
+        mRecordCount++;
+        return mFields.toArray(new String[mFields.size()]);
+    }
+
+    /**
+     * Return the number of records read so far.
+     */
+    public long getRecordCount() {
+        return mRecordCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Read a field up to, but not including, the comma or line break that ends it
+     */
+    private void readField() throws IOException {
+        mField.setLength(0);
+        int c = peek();
+        if (c == '"') {
+            mPosition++;
+            while (true) {
+                c = read();
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted field in record " + (mRecordCount + 1));
+                }
+                if (c == '"') {
+                    if (peek() != '"') {
+                        break;
+                    }
+                    mPosition++;
+                }
+                mField.append((char) c);
+            }
+            // Anything between the closing quote and the separator is kept as it is
+        }
+        while ((c = peek()) != -1 && c != ',' && c != '\r' && c != '\n') {
+            mField.append((char) c);
+            mPosition++;
+        }
+        mFields.add(mField.toString());
+    }
+
+    private int peek() throws IOException {
+        if (mPosition == mLimit) {
+            mLimit = mReader.read(mBuffer, 0, mBuffer.length);
+            mPosition = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPosition];
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        if (c != -1) {
+            mPosition++;
+        }
+        return c;
+    }
+}
@@ -0,0 +1,234 @@
+package com.dan.inventoryapp.data;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content-addressed file store for product images.
+ * <p>
+ * Every image is written once to a file named after the SHA-1 hash of its bytes, so the
+ * products table only has to keep that hash (the image key). Two products with the same
+ * picture share one file.
+ */
+public class ImageStore {
+
+    public static final String LOG_TAG = ImageStore.class.getSimpleName();
+
+    /**
+     * Name of the directory (inside the app's files directory) that holds the images
+     */
+    private static final String IMAGE_DIRECTORY = "images";
+
+    /**
+     * Name of the directory (inside the image directory) that holds the list-sized
+     * thumbnails, stored under the same key as their full image
+     */
+    private static final String THUMBNAIL_DIRECTORY = "thumbnails";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File mDirectory;
+
+    private final File mThumbnailDirectory;
+
+    /**
+     * Constructs a new {@link ImageStore} in the app's private files directory.
+     *
+     * @param context of the app
+     */
+    public ImageStore(Context context) {
+        this(new File(context.getFilesDir(), IMAGE_DIRECTORY));
+    }
+
+    /**
+     * Constructs a new {@link ImageStore} backed by the given directory.
+     *
+     * @param directory where the image files are kept
+     */
+    public ImageStore(File directory) {
+        mDirectory = directory;
+        mThumbnailDirectory = new File(directory, THUMBNAIL_DIRECTORY);
+    }
+
+    /**
+     * Store the image bytes and return their key. If an image with the same content is
+     * already stored, nothing is written.
+     */
+    public String put(byte[] image) throws IOException {
+        String key = computeKey(image);
+        File file = getFile(key);
+        if (!file.exists()) {
+            writeFile(file, key, image);
+        }
+        return key;
+    }
+
+    /**
+     * Store the thumbnail of the image with the given key, replacing any previous one.
+     */
+    public void putThumbnail(String key, byte[] thumbnail) throws IOException {
+        writeFile(getThumbnailFile(key), key, thumbnail);
+    }
+
+    /**
+     * Return the file holding the image with the given key. The file may not exist.
+     */
+    public File getFile(String key) {
+        if (!isValidKey(key)) {
+            throw new IllegalArgumentException("Invalid image key " + key);
+        }
+        return new File(mDirectory, key);
+    }
+
+    /**
+     * Return the file holding the thumbnail of the image with the given key.
+     * The file may not exist.
+     */
+    public File getThumbnailFile(String key) {
+        if (!isValidKey(key)) {
+            throw new IllegalArgumentException("Invalid image key " + key);
+        }
+        return new File(mThumbnailDirectory, key);
+    }
+
+    /**
+     * Return true if an image with the given key is stored.
+     */
+    public boolean contains(String key) {
+        return isValidKey(key) && getFile(key).exists();
+    }
+
+    /**
+     * Return true if a thumbnail of the image with the given key is stored.
+     */
+    public boolean containsThumbnail(String key) {
+        return isValidKey(key) && getThumbnailFile(key).exists();
+    }
+
+    /**
+     * Remove the image with the given key and its thumbnail. Return true if the image
+     * file was deleted.
+     */
+    public boolean delete(String key) {
+        if (!isValidKey(key)) {
+            return false;
+        }
+        getThumbnailFile(key).delete();
+        return getFile(key).delete();
+    }
+
+    /**
+     * Write the bytes to the file through a temporary file, so a reader never sees a
+     * half-written image.
+     */
+    private static void writeFile(File file, String key, byte[] bytes) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create image directory " + directory);
+        }
+
+        File tempFile = File.createTempFile(key, ".tmp", directory);
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(bytes);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file) && !file.exists()) {
+            tempFile.delete();
+            throw new IOException("Cannot move image into place " + file);
+        }
+        tempFile.delete();
+    }
+
+    /**
+     * Return the MIME type of a stored image or thumbnail file by looking at its first
+     * bytes, or null if the file does not exist.
+     */
+    public static String getMimeType(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] header = new byte[12];
+        int length = 0;
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                int read;
+                while (length < header.length
+                        && (read = in.read(header, length, header.length - length)) != -1) {
+                    length += read;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return sniffMimeType(header, length);
+    }
+
+    /**
+     * Return the MIME type matching the magic number at the start of the image bytes.
+     */
+    static String sniffMimeType(byte[] header, int length) {
+        if (length >= 8 && (header[0] & 0xff) == 0x89 && header[1] == 'P' && header[2] == 'N'
+                && header[3] == 'G') {
+            return "image/png";
+        }
+        if (length >= 3 && (header[0] & 0xff) == 0xff && (header[1] & 0xff) == 0xd8
+                && (header[2] & 0xff) == 0xff) {
+            return "image/jpeg";
+        }
+        if (length >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F'
+                && header[3] == 'F' && header[8] == 'W' && header[9] == 'E' && header[10] == 'B'
+                && header[11] == 'P') {
+            return "image/webp";
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * Return the key (hex encoded SHA-1 hash) of the image bytes.
+     */
+    public static String computeKey(byte[] image) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(image);
+        char[] key = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            key[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            key[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(key);
+    }
+
+    /**
+     * Keys are only ever lower case hex strings, which also keeps them from
+     * escaping the image directory.
+     */
+    private static boolean isValidKey(String key) {
+        if (key == null || key.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
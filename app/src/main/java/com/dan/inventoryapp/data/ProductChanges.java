@@ -0,0 +1,224 @@
+package com.dan.inventoryapp.data;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The products inserted, updated and deleted by one write to the provider, or by all the
+ * writes of a batch or transaction. It is what the change notifications of the provider
+ * carry, see {@link ProductContract.ProductEntry#buildChangeUri(ProductChanges)}.
+ * <p>
+ * Changes to the same product are collapsed into its net change: a product inserted then
+ * updated is inserted, one inserted then deleted is left out. When the rows aren't known,
+ * e.g. after an update by selection, or when there are more than {@link #MAX_IDS} of them,
+ * the changes are incomplete and observers have to read everything again. This class has no
+ * Android dependencies, so it can be tested on the JVM.
+ */
+public final class ProductChanges {
+
+    /**
+     * Largest number of product ids carried, beyond which the changes are incomplete. It
+     * keeps the notification URIs, and the queries reading the rows again, small.
+     */
+    public static final int MAX_IDS = 500;
+
+    private final Set<Long> mInserted = new TreeSet<>();
+    private final Set<Long> mUpdated = new TreeSet<>();
+    private final Set<Long> mDeleted = new TreeSet<>();
+    private boolean mIncomplete;
+
+    public void addInserted(long id) {
+        if (mIncomplete) {
+            return;
+        }
+        if (mDeleted.remove(id)) {
+            // Only happens if an id is used again, it is a new version of the row
+            mUpdated.add(id);
+        } else {
+            mInserted.add(id);
+        }
+        checkSize();
+    }
+
+    public void addUpdated(long id) {
+        if (mIncomplete) {
+            return;
+        }
+        if (!mInserted.contains(id) && !mDeleted.contains(id)) {
+            mUpdated.add(id);
+        }
+        checkSize();
+    }
+
+    public void addDeleted(long id) {
+        if (mIncomplete) {
+            return;
+        }
+        mUpdated.remove(id);
+        if (!mInserted.remove(id)) {
+            mDeleted.add(id);
+        }
+        checkSize();
+    }
+
+    /**
+     * Record changes to rows that aren't known.
+     */
+    public void addUnknown() {
+        mIncomplete = true;
+        mInserted.clear();
+        mUpdated.clear();
+        mDeleted.clear();
+    }
+
+    /**
+     * Add the changes that followed the ones already recorded.
+     */
+    public void addAll(ProductChanges changes) {
+        if (mIncomplete) {
+            return;
+        }
+        if (changes.mIncomplete) {
+            addUnknown();
+            return;
+        }
+        for (long id : changes.mDeleted) {
+            addDeleted(id);
+        }
+        for (long id : changes.mInserted) {
+            addInserted(id);
+        }
+        for (long id : changes.mUpdated) {
+            addUpdated(id);
+        }
+    }
+
+    /**
+     * Forget all the changes.
+     */
+    public void clear() {
+        mIncomplete = false;
+        mInserted.clear();
+        mUpdated.clear();
+        mDeleted.clear();
+    }
+
+    /**
+     * Return true if nothing changed.
+     */
+    public boolean isEmpty() {
+        return !mIncomplete && size() == 0;
+    }
+
+    /**
+     * Return false if some of the rows changed aren't known, in which case the ids are empty.
+     */
+    public boolean isComplete() {
+        return !mIncomplete;
+    }
+
+    /**
+     * Return the number of products changed.
+     */
+    public int size() {
+        return mInserted.size() + mUpdated.size() + mDeleted.size();
+    }
+
+    /**
+     * The ids of the products inserted, in increasing order
+     */
+    public Set<Long> getInserted() {
+        return Collections.unmodifiableSet(mInserted);
+    }
+
+    /**
+     * The ids of the products updated, in increasing order
+     */
+    public Set<Long> getUpdated() {
+        return Collections.unmodifiableSet(mUpdated);
+    }
+
+    /**
+     * The ids of the products deleted, in increasing order
+     */
+    public Set<Long> getDeleted() {
+        return Collections.unmodifiableSet(mDeleted);
+    }
+
+    private void checkSize() {
+        if (size() > MAX_IDS) {
+            addUnknown();
+        }
+    }
+
+    /**
+     * Return the ids separated by commas, e.g. "3,5,8".
+     */
+    public static String joinIds(Set<Long> ids) {
+        StringBuilder text = new StringBuilder(ids.size() * 6);
+        for (long id : ids) {
+            if (text.length() > 0) {
+                text.append(',');
+            }
+            text.append(id);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Add the ids of a text returned by {@link #joinIds(Set)} to the set.
+     *
+     * @throws IllegalArgumentException if the text isn't a list of ids
+     */
+    static void parseIds(String text, Set<Long> ids) {
+        if (text.isEmpty()) {
+            return;
+        }
+        int start = 0;
+        while (start <= text.length()) {
+            int end = text.indexOf(',', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            try {
+                ids.add(Long.parseLong(text.substring(start, end)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid product ids " + text);
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Return the changes carried by the ids of a notification, or null if there are none,
+     * i.e. the rows changed aren't known.
+     *
+     * @throws IllegalArgumentException if one of the texts isn't a list of ids
+     */
+    static ProductChanges parse(String inserted, String updated, String deleted) {
+        if (inserted == null && updated == null && deleted == null) {
+            return null;
+        }
+        ProductChanges changes = new ProductChanges();
+        if (inserted != null) {
+            parseIds(inserted, changes.mInserted);
+        }
+        if (updated != null) {
+            parseIds(updated, changes.mUpdated);
+        }
+        if (deleted != null) {
+            parseIds(deleted, changes.mDeleted);
+        }
+        return changes;
+    }
+
+    @Override
+    public String toString() {
+        if (mIncomplete) {
+            return "ProductChanges{unknown}";
+        }
+        return "ProductChanges{inserted=" + mInserted + ", updated=" + mUpdated
+                + ", deleted=" + mDeleted + "}";
+    }
+}
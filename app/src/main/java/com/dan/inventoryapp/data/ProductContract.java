@@ -1,9 +1,12 @@
 package com.dan.inventoryapp.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.Set;
+
 /**
  * Created by Dat T Do on 7/20/2017.
  */
@@ -21,6 +24,282 @@ public class ProductContract {
 
     public static final String PATH_PRODUCTS = "products";
 
+    /**
+     * Path appended to a single product URI to read the product's image as a file
+     */
+    public static final String PATH_IMAGE = "image";
+
+    /**
+     * Path appended to a single product URI to read the list-sized thumbnail of its image
+     */
+    public static final String PATH_THUMBNAIL = "thumbnail";
+
+    /**
+     * Path appended to the products URI to search the products by name, see
+     * {@link ProductEntry#buildSearchUri(String)}
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the products URI to query the products changed since a generation,
+     * see {@link ProductEntry#buildChangesUri(long)}
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Name of the provider method (see {@link ContentResolver#call}) that creates the missing
+     * thumbnails of all products. The result bundle holds the number created under
+     * {@link #EXTRA_COUNT}.
+     */
+    public static final String METHOD_BACKFILL_THUMBNAILS = "backfill_thumbnails";
+
+    /**
+     * Key of the count returned in the result bundle of a provider method
+     */
+    public static final String EXTRA_COUNT = "count";
+
+    /**
+     * Name of the provider method (see {@link ContentResolver#call}) that sells a product:
+     * its quantity is decreased in a single guarded update, so concurrent sales can't lose
+     * one another or oversell. The arg is the product id, and the extras may hold the number
+     * of items sold under {@link #EXTRA_QUANTITY} (1 by default). The result bundle holds the
+     * remaining quantity under {@link #EXTRA_QUANTITY}, or -1 if the product doesn't exist
+     * or has too few items left, in which case nothing was sold.
+     */
+    public static final String METHOD_SELL = "sell";
+
+    /**
+     * Key of a product quantity in the extras or result bundle of a provider method
+     */
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /**
+     * Name of the provider method (see {@link ContentResolver#call}) that applies a batch of
+     * stock movements in one transaction, with one change notification. The extras hold the
+     * product ids under {@link #EXTRA_PRODUCT_IDS}, the matching quantity changes under
+     * {@link #EXTRA_QUANTITY_DELTAS} and the sequence number of the batch under
+     * {@link #EXTRA_SEQUENCE}. A batch whose sequence number isn't greater than the last one
+     * applied is ignored, so a batch can safely be sent again. A decrease larger than the
+     * quantity left only takes it down to zero, and the movements of products that don't
+     * exist are skipped.
+     * <p>
+     * The result bundle holds the sequence number of the last batch applied under
+     * {@link #EXTRA_SEQUENCE}, the generation once it is applied under
+     * {@link #EXTRA_GENERATION}, and the part of the movements that was skipped, as product ids
+     * under {@link #EXTRA_PRODUCT_IDS} and quantity changes under
+     * {@link #EXTRA_QUANTITY_DELTAS}. Call without extras to only read the sequence number.
+     */
+    public static final String METHOD_APPLY_STOCK_MOVEMENTS = "apply_stock_movements";
+
+    /**
+     * Key of an array of product ids (long[]) in the extras of a provider method
+     */
+    public static final String EXTRA_PRODUCT_IDS = "product_ids";
+
+    /**
+     * Key of an array of quantity changes (int[]) in the extras of a provider method
+     */
+    public static final String EXTRA_QUANTITY_DELTAS = "quantity_deltas";
+
+    /**
+     * Key of a sequence number (long) in the extras or result bundle of a provider method
+     */
+    public static final String EXTRA_SEQUENCE = "sequence";
+
+    /**
+     * Query parameter of {@link ProductEntry#CONTENT_URI} naming an import, for bulk inserts
+     * that are part of one. The provider stores {@link #QUERY_PARAMETER_IMPORT_POSITION} as
+     * the position of the import in the same transaction as the rows.
+     */
+    public static final String QUERY_PARAMETER_IMPORT_ID = "import_id";
+
+    /**
+     * Query parameter of {@link ProductEntry#CONTENT_URI} holding the position an import has
+     * reached once the rows of the bulk insert are written, see
+     * {@link #QUERY_PARAMETER_IMPORT_ID}.
+     */
+    public static final String QUERY_PARAMETER_IMPORT_POSITION = "import_position";
+
+    /**
+     * Name of the provider method (see {@link ContentResolver#call}) that returns the position
+     * reached by the import named by the arg, under {@link #EXTRA_POSITION}, 0 if it hasn't
+     * started.
+     */
+    public static final String METHOD_GET_IMPORT_POSITION = "get_import_position";
+
+    /**
+     * Name of the provider method (see {@link ContentResolver#call}) that forgets the position
+     * of the import named by the arg, once it is complete, and the products deleted long
+     * before, see {@link ProductEntry#buildChangesUri(long)}.
+     */
+    public static final String METHOD_FINISH_IMPORT = "finish_import";
+
+    /**
+     * Key of a position (long) in the result bundle of a provider method
+     */
+    public static final String EXTRA_POSITION = "position";
+
+    /**
+     * Query parameter of {@link ProductEntry#CONTENT_URI} limiting the number of products
+     * returned. Paged queries are always ordered by {@link ProductEntry#_ID}.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter of {@link ProductEntry#CONTENT_URI} returning only the products whose
+     * {@link ProductEntry#_ID} is greater than the given one, i.e. the page after the product
+     * with that id. Unlike an offset, it costs the same however deep the page is.
+     */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+    /**
+     * Query parameter of {@link ProductEntry#CONTENT_URI} returning only the products whose
+     * {@link ProductEntry#COLUMN_PRODUCT_NAME} starts with the given text, ignoring the case
+     * of ASCII letters. It is looked up in an index rather than by reading every row.
+     */
+    public static final String QUERY_PARAMETER_NAME_PREFIX = "name_prefix";
+
+    /**
+     * Query parameter of {@link ProductEntry#CONTENT_URI} returning only the products whose
+     * {@link ProductEntry#COLUMN_PRODUCT_QUANTITY} is at most the given number, i.e. the
+     * products running low. It is looked up in an index rather than by reading every row.
+     */
+    public static final String QUERY_PARAMETER_MAX_QUANTITY = "max_quantity";
+
+    /**
+     * Query parameter of the search URI holding the text searched for
+     */
+    public static final String QUERY_PARAMETER_QUERY = "q";
+
+    /**
+     * Query parameter of the changes URI holding the generation the changes follow
+     */
+    public static final String QUERY_PARAMETER_SINCE = "since";
+
+    /**
+     * Name of the provider method (see {@link ContentResolver#call}) that returns the
+     * generation of the last write of a product under {@link #EXTRA_GENERATION}. Query the
+     * changes since it later to find what changed in between, see
+     * {@link ProductEntry#buildChangesUri(long)}.
+     */
+    public static final String METHOD_GET_GENERATION = "get_generation";
+
+    /**
+     * Key of a generation (long) in the result bundle of a provider method
+     */
+    public static final String EXTRA_GENERATION = "generation";
+
+    /**
+     * Name of the provider method (see {@link ContentResolver#call}) that returns the metrics
+     * of the provider's cache of query results: the number of queries answered from it under
+     * {@link #EXTRA_HIT_COUNT}, the number run on the database under {@link #EXTRA_MISS_COUNT},
+     * the share answered from it under {@link #EXTRA_HIT_RATIO}, and the estimated bytes the
+     * results take and may take under {@link #EXTRA_SIZE} and {@link #EXTRA_MAX_SIZE}.
+     */
+    public static final String METHOD_GET_QUERY_CACHE_STATS = "get_query_cache_stats";
+
+    /**
+     * Keys of the query cache metrics (int) in the result bundle of a provider method
+     */
+    public static final String EXTRA_HIT_COUNT = "hit_count";
+    public static final String EXTRA_MISS_COUNT = "miss_count";
+    public static final String EXTRA_SIZE = "size";
+    public static final String EXTRA_MAX_SIZE = "max_size";
+
+    /**
+     * Key of the share of the queries answered from the cache (double, 0 before any query) in
+     * the result bundle of a provider method
+     */
+    public static final String EXTRA_HIT_RATIO = "hit_ratio";
+
+    /**
+     * Query parameters of the URIs the provider notifies its changes on, holding the ids of
+     * the products inserted, updated and deleted, separated by commas. See
+     * {@link ProductEntry#parseChanges(Uri)}.
+     */
+    public static final String QUERY_PARAMETER_INSERTED = "inserted";
+    public static final String QUERY_PARAMETER_UPDATED = "updated";
+    public static final String QUERY_PARAMETER_DELETED = "deleted";
+
+    /**
+     * Inner class that defines the table of database-wide values, such as the sequence number
+     * of the last stock movements applied. It is private to the provider.
+     */
+    public static final class MetadataEntry {
+
+        private MetadataEntry() {
+        }
+
+        /**
+         * Name of database table for metadata
+         */
+        public final static String TABLE_NAME = "metadata";
+
+        /**
+         * Name of the value.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_KEY = "key";
+
+        /**
+         * The value.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_VALUE = "value";
+
+        /**
+         * Key of the sequence number of the last stock movements applied
+         */
+        public final static String KEY_STOCK_SEQUENCE = "stock_sequence";
+
+        /**
+         * Prefix of the keys of the positions reached by imports, followed by the import id
+         */
+        public final static String KEY_PREFIX_IMPORT_POSITION = "import_position:";
+
+        /**
+         * Key of the generation of the last write of a product
+         */
+        public final static String KEY_GENERATION = "generation";
+
+        /**
+         * Key of the generation of the latest tombstone pruned. The changes since an earlier
+         * generation may miss deleted products.
+         */
+        public final static String KEY_TOMBSTONE_FLOOR = "tombstone_floor";
+    }
+
+    /**
+     * Inner class that defines the table of the deleted products, kept so that the changes
+     * since a generation include the deletes. It is private to the provider.
+     */
+    public static final class TombstoneEntry implements BaseColumns {
+
+        private TombstoneEntry() {
+        }
+
+        /**
+         * Name of database table for deleted products
+         */
+        public final static String TABLE_NAME = "product_tombstones";
+
+        /**
+         * Id of the deleted product.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Generation of the delete.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_GENERATION = "generation";
+    }
+
     /**
      * Inner class that defines constant values for the product database table.
      * Each entry in the table represents a single product.
@@ -80,8 +359,210 @@ public class ProductContract {
         /**
          * Image Resource of the product.
          * <p>
+         * Only used as a key in the ContentValues passed to insert and update. The provider
+         * moves the image bytes into the {@link ImageStore} and keeps
+         * {@link #COLUMN_PRODUCT_IMAGE_KEY} in the table instead, so it can't be queried.
+         * <p>
          * Type: BLOB
          */
         public final static String COLUMN_PRODUCT_IMAGE_RESOURCE = "image_resource";
+
+        /**
+         * Key of the product image in the {@link ImageStore} (the hash of the image content).
+         * Read the image itself through {@link #buildImageUri(long)}.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_PRODUCT_IMAGE_KEY = "image_key";
+
+        /**
+         * Generation of the last write of the product. Set by the database on every insert
+         * and update, it can't be written.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_GENERATION = "generation";
+
+        /**
+         * 1 if the product was deleted, 0 otherwise. Only in the changes query, see
+         * {@link #buildChangesUri(long)}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DELETED = "deleted";
+
+        /**
+         * {@link #_ID} of the first row of the changes query when the tombstones of products
+         * deleted after the generation asked for have been pruned. The changes are then
+         * incomplete, every product has to be read again.
+         */
+        public final static long ID_RELOAD_REQUIRED = -1;
+
+        /**
+         * Columns shown in the product list. They are all small scalars: images are not part
+         * of any cursor, each visible row resolves its own through
+         * {@link #buildThumbnailUri(long)} using the image key.
+         */
+        public static final String[] LIST_PROJECTION = {
+                _ID,
+                COLUMN_PRODUCT_NAME,
+                COLUMN_PRODUCT_QUANTITY,
+                COLUMN_PRODUCT_IMAGE_KEY,
+                COLUMN_PRODUCT_PRICE};
+
+        /**
+         * Columns of the changes query when no projection is given: those of
+         * {@link #LIST_PROJECTION}, then the generation and whether the product was deleted.
+         */
+        public static final String[] CHANGES_PROJECTION = {
+                _ID,
+                COLUMN_PRODUCT_NAME,
+                COLUMN_PRODUCT_QUANTITY,
+                COLUMN_PRODUCT_IMAGE_KEY,
+                COLUMN_PRODUCT_PRICE,
+                COLUMN_PRODUCT_GENERATION,
+                COLUMN_DELETED};
+
+        /**
+         * Sort order of products by name, ignoring the case of ASCII letters, read in order
+         * from the name index
+         */
+        public static final String SORT_BY_NAME = COLUMN_PRODUCT_NAME + " COLLATE NOCASE ASC";
+
+        /**
+         * Sort order of products by quantity, lowest first, read in order from the quantity
+         * index
+         */
+        public static final String SORT_BY_QUANTITY = COLUMN_PRODUCT_QUANTITY + " ASC";
+
+        /**
+         * Return the content URI of the products whose name starts with the given text.
+         */
+        public static Uri buildNamePrefixUri(String prefix) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_NAME_PREFIX, prefix)
+                    .build();
+        }
+
+        /**
+         * Return the content URI of the products whose name has words starting with each of
+         * the words of the text, e.g. "gat gre" finds "The Great Gatsby". Matches are found in
+         * a full-text index, in any number of products. The URI supports paging, see
+         * {@link #buildPageUri(Uri, long, int)}.
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendQueryParameter(QUERY_PARAMETER_QUERY, text)
+                    .build();
+        }
+
+        /**
+         * Return the content URI of the products inserted, updated or deleted after the given
+         * generation, in the order of their generations. A product changed several times is
+         * only there once, as it is now; deleted products only have their id and generation,
+         * and {@link #COLUMN_DELETED} set to 1. Pass 0 for every product, the greatest
+         * generation of the rows as the next one. Deleted products are only remembered for a
+         * while; if some were forgotten since the generation, the first row has the id
+         * {@link #ID_RELOAD_REQUIRED}.
+         */
+        public static Uri buildChangesUri(long sinceGeneration) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_CHANGES)
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(sinceGeneration))
+                    .build();
+        }
+
+        /**
+         * Return the content URI of the products with at most maxQuantity items left.
+         */
+        public static Uri buildLowStockUri(int maxQuantity) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_MAX_QUANTITY, String.valueOf(maxQuantity))
+                    .build();
+        }
+
+        /**
+         * Return the content URI of the page of at most limit products following the product
+         * with the given id. Pass 0 as afterId for the first page.
+         */
+        public static Uri buildPageUri(long afterId, int limit) {
+            return buildPageUri(CONTENT_URI, afterId, limit);
+        }
+
+        /**
+         * Return the URI of the page of at most limit products following the product with the
+         * given id, among the products of the given URI, e.g. a search URI.
+         */
+        public static Uri buildPageUri(Uri uri, long afterId, int limit) {
+            Uri.Builder builder = uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            if (afterId > 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Return the URI to notify the changes on. It is the URI of the product if only one
+         * changed, so observers of other products aren't notified, and {@link #CONTENT_URI}
+         * otherwise. The ids of the products changed are added as query parameters, unless
+         * they aren't known.
+         */
+        public static Uri buildChangeUri(ProductChanges changes) {
+            if (!changes.isComplete()) {
+                return CONTENT_URI;
+            }
+            Uri.Builder builder;
+            if (changes.size() == 1) {
+                long id = !changes.getInserted().isEmpty() ? changes.getInserted().iterator().next()
+                        : !changes.getUpdated().isEmpty() ? changes.getUpdated().iterator().next()
+                        : changes.getDeleted().iterator().next();
+                builder = ContentUris.withAppendedId(CONTENT_URI, id).buildUpon();
+            } else {
+                builder = CONTENT_URI.buildUpon();
+            }
+            appendIds(builder, QUERY_PARAMETER_INSERTED, changes.getInserted());
+            appendIds(builder, QUERY_PARAMETER_UPDATED, changes.getUpdated());
+            appendIds(builder, QUERY_PARAMETER_DELETED, changes.getDeleted());
+            return builder.build();
+        }
+
+        private static void appendIds(Uri.Builder builder, String parameter, Set<Long> ids) {
+            if (!ids.isEmpty()) {
+                builder.appendQueryParameter(parameter, ProductChanges.joinIds(ids));
+            }
+        }
+
+        /**
+         * Return the changes carried by a URI notified by the provider, e.g. passed to
+         * {@link android.database.ContentObserver#onChange(boolean, Uri)}, or null if the
+         * products changed aren't known, in which case they should all be read again.
+         */
+        public static ProductChanges parseChanges(Uri uri) {
+            try {
+                return ProductChanges.parse(uri.getQueryParameter(QUERY_PARAMETER_INSERTED),
+                        uri.getQueryParameter(QUERY_PARAMETER_UPDATED),
+                        uri.getQueryParameter(QUERY_PARAMETER_DELETED));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Return the content URI from which the image of the given product can be opened
+         * as a stream, e.g. with {@link ContentResolver#openInputStream(Uri)}.
+         */
+        public static Uri buildImageUri(long id) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, id), PATH_IMAGE);
+        }
+
+        /**
+         * Return the content URI from which the thumbnail of the given product's image can be
+         * opened as a stream. Use it wherever the image is only shown at list item size.
+         */
+        public static Uri buildThumbnailUri(long id) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, id), PATH_THUMBNAIL);
+        }
     }
 }
@@ -4,12 +4,27 @@ package com.dan.inventoryapp.data;
  * Created by Dat T Do on 7/20/2017.
  */
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
 
+import com.dan.inventoryapp.ImageEncoder;
+import com.dan.inventoryapp.ImageUtils;
+import com.dan.inventoryapp.data.ProductContract.MetadataEntry;
 import com.dan.inventoryapp.data.ProductContract.ProductEntry;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Database helper for products app. Manages database creation and version management.
  */
@@ -20,12 +35,110 @@ public class ProductDbHelper extends SQLiteOpenHelper {
     /**
      * Name of the database file
      */
-    private static final String DATABASE_NAME = ".db";
+    public static final String DATABASE_NAME = ".db";
 
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 7;
+
+    /**
+     * Index of the products by name, ignoring the case of ASCII letters, for name searches
+     * and sorting by name
+     */
+    static final String INDEX_PRODUCTS_NAME = "products_name_index";
+
+    /**
+     * Index of the products by quantity, for the products running low
+     */
+    static final String INDEX_PRODUCTS_QUANTITY = "products_quantity_index";
+
+    /**
+     * Statement that creates the products table of the current version
+     */
+    static final String SQL_CREATE_PRODUCTS_TABLE = "CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
+            + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + " DOUBLE NOT NULL DEFAULT 0.00, "
+            + ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + " TEXT NOT NULL, "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+            + ProductEntry.COLUMN_PRODUCT_GENERATION + " INTEGER NOT NULL DEFAULT 0);";
+
+    /**
+     * Statement that creates the table of database-wide values, see {@link MetadataEntry}
+     */
+    static final String SQL_CREATE_METADATA_TABLE = "CREATE TABLE " + MetadataEntry.TABLE_NAME
+            + " (" + MetadataEntry.COLUMN_KEY + " TEXT PRIMARY KEY, "
+            + MetadataEntry.COLUMN_VALUE + " INTEGER NOT NULL);";
+
+    /**
+     * Statements that create the indexes of the products table, see {@link #createIndexes}
+     */
+    static final String SQL_CREATE_INDEX_PRODUCTS_NAME = "CREATE INDEX " + INDEX_PRODUCTS_NAME
+            + " ON " + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_PRODUCT_NAME
+            + " COLLATE NOCASE);";
+
+    static final String SQL_CREATE_INDEX_PRODUCTS_QUANTITY = "CREATE INDEX "
+            + INDEX_PRODUCTS_QUANTITY + " ON " + ProductEntry.TABLE_NAME + " ("
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ");";
+
+    /**
+     * Size of the pieces in which image blobs are read during the migration to version 2,
+     * well below the 2MB limit of a CursorWindow.
+     */
+    private static final int BLOB_CHUNK_SIZE = 512 * 1024;
+
+    /**
+     * Page cache of the connection, in KiB when negative
+     */
+    private static final int CACHE_SIZE_KIB = -2048;
+
+    /**
+     * Bytes of the database file read through memory mapping instead of read() calls,
+     * ignored by the SQLite versions that don't support it
+     */
+    private static final long MMAP_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Number of pages the write-ahead log can hold before a commit copies them back into
+     * the database. A short log keeps reads fast, as readers look pages up in it.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 500;
+
+    /**
+     * Size the write-ahead log file is truncated to after a checkpoint, so that a large
+     * import doesn't leave a large file behind
+     */
+    private static final long JOURNAL_SIZE_LIMIT = 1024 * 1024;
+
+    /**
+     * Pragmas of the connection that writes when the database has a write-ahead log,
+     * separated by semicolons. With the log, a commit is safe from a crash of the app without
+     * waiting for the storage, only a power loss can undo the last transactions.
+     */
+    static final String WAL_PRAGMAS = "synchronous=NORMAL;"
+            + "wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES;
+
+    /**
+     * Pragmas of the connection that writes, whatever the journal mode, separated by
+     * semicolons
+     */
+    static final String PRAGMAS = "journal_size_limit=" + JOURNAL_SIZE_LIMIT + ";"
+            + "cache_size=" + CACHE_SIZE_KIB + ";"
+            + "mmap_size=" + MMAP_SIZE;
+
+    /**
+     * Store that receives the images extracted from the products table
+     */
+    private final ImageStore mImageStore;
+
+    /**
+     * Images replaced during an upgrade. They are only deleted in {@link #onOpen}, once the
+     * upgrade transaction has been committed.
+     */
+    private final List<String> mReplacedImageKeys = new ArrayList<>();
+
+    private final boolean mWriteAheadLogging;
 
     /**
      * Constructs a new instance of {@link ProductDbHelper}.
@@ -33,7 +146,35 @@ public class ProductDbHelper extends SQLiteOpenHelper {
      * @param context of the app
      */
     public ProductDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true);
+    }
+
+    /**
+     * Constructs a new instance of {@link ProductDbHelper} for the database file with the given
+     * name, e.g. to compare journal modes.
+     *
+     * @param writeAheadLogging whether the database uses a write-ahead log rather than a
+     *                          rollback journal
+     */
+    ProductDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mImageStore = new ImageStore(context);
+        mWriteAheadLogging = writeAheadLogging;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Readers then get their own connections and don't wait for the writer, nor the
+            // writer for them. Also switches the journal mode before the database is opened.
+            setWriteAheadLoggingEnabled(writeAheadLogging);
+        }
+    }
+
+    /**
+     * Configure the connection before the database is created or upgraded. Only called from
+     * API 16, older versions are configured in {@link #onOpen}.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        configure(db);
     }
 
     /**
@@ -41,16 +182,12 @@ public class ProductDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Create a String that contains the SQL statement to create the products table
-        String SQL_CREATE_PETS_TABLE = "CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
-                + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
-                + ProductEntry.COLUMN_PRODUCT_PRICE + " DOUBLE NOT NULL DEFAULT 0.00, "
-                + ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE + " BLOB NOT NULL, "
-                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL DEFAULT 0);";
+        db.execSQL(SQL_CREATE_PRODUCTS_TABLE);
 
-        // Execute the SQL statement
-        db.execSQL(SQL_CREATE_PETS_TABLE);
+        createMetadataTable(db);
+        createIndexes(db);
+        createSearchIndex(db);
+        createGenerations(db);
     }
 
     /**
@@ -58,7 +195,247 @@ public class ProductDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        if (oldVersion < 2) {
+            upgradeToVersion2(db);
+        }
+        if (oldVersion < 3) {
+            upgradeToVersion3(db);
+        }
+        if (oldVersion < 4) {
+            createMetadataTable(db);
+        }
+        if (oldVersion < 5) {
+            createIndexes(db);
+        }
+        if (oldVersion < 6) {
+            createSearchIndex(db);
+        }
+        if (oldVersion < 7) {
+            db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                    + ProductEntry.COLUMN_PRODUCT_GENERATION + " INTEGER NOT NULL DEFAULT 0;");
+            createGenerations(db);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            if (mWriteAheadLogging && !db.isReadOnly()) {
+                db.enableWriteAheadLogging();
+            }
+            configure(db);
+        }
+        // Remove the images an upgrade replaced, unless another product still uses them
+        for (String key : mReplacedImageKeys) {
+            long references = DatabaseUtils.queryNumEntries(db, ProductEntry.TABLE_NAME,
+                    ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + "=?", new String[]{key});
+            if (references == 0) {
+                mImageStore.delete(key);
+            }
+        }
+        mReplacedImageKeys.clear();
+        if (!db.isReadOnly()) {
+            pruneTombstones(db);
+        }
+    }
+
+    /**
+     * Version 2 moves the images out of the image_resource BLOB column into the
+     * {@link ImageStore}. The table is rebuilt with an image_key column that references
+     * the stored file, keeping the ids of the existing products.
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " RENAME TO products_v1");
+        db.execSQL("CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
+                + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + " DOUBLE NOT NULL DEFAULT 0.00, "
+                + ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL DEFAULT 0);");
+
+        // Only read the scalar columns here, the images are read piece by piece below
+        Cursor cursor = db.rawQuery("SELECT " + ProductEntry._ID + ", "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                + "length(" + ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE + ") FROM products_v1", null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                String key;
+                try {
+                    key = mImageStore.put(readImage(db, id, cursor.getInt(4)));
+                } catch (IOException e) {
+                    // Without its image the row can't be kept; abort the upgrade so no data is lost
+                    Log.e(LOG_TAG, "Failed to extract image of product " + id, e);
+                    throw new IllegalStateException("Cannot migrate product images", e);
+                }
+
+                values.clear();
+                values.put(ProductEntry._ID, id);
+                values.put(ProductEntry.COLUMN_PRODUCT_NAME, cursor.getString(1));
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, cursor.getDouble(2));
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, cursor.getInt(3));
+                values.put(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY, key);
+                db.insertOrThrow(ProductEntry.TABLE_NAME, null, values);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        db.execSQL("DROP TABLE products_v1");
+    }
+
+    /**
+     * Version 3 re-encodes the stored images with the encoder of {@link ImageUtils}, as they
+     * used to be saved as full size, lossless PNG. Images that wouldn't get smaller are kept.
+     */
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        ImageEncoder encoder = ImageUtils.getEncoder();
+        Cursor cursor = db.query(true, ProductEntry.TABLE_NAME,
+                new String[]{ProductEntry.COLUMN_PRODUCT_IMAGE_KEY}, null, null, null, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                String oldKey = cursor.getString(0);
+                File file = mImageStore.getFile(oldKey);
+                Bitmap bitmap = ImageUtils.getScaledImage(file, ImageUtils.MAX_IMAGE_SIZE);
+                if (bitmap == null) {
+                    Log.w(LOG_TAG, "Cannot decode image " + oldKey + ", keeping it as it is");
+                    continue;
+                }
+                byte[] image = encoder.encode(bitmap);
+                bitmap.recycle();
+                if (image.length >= file.length()) {
+                    continue;
+                }
+
+                String newKey;
+                try {
+                    newKey = mImageStore.put(image);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to store re-encoded image " + oldKey, e);
+                    continue;
+                }
+                values.clear();
+                values.put(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY, newKey);
+                db.update(ProductEntry.TABLE_NAME, values,
+                        ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + "=?", new String[]{oldKey});
+                mReplacedImageKeys.add(oldKey);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Version 4 adds the table of database-wide values, see {@link MetadataEntry}.
+     */
+    private static void createMetadataTable(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_METADATA_TABLE);
+    }
+
+    /**
+     * Version 5 indexes the products by name and by quantity. The name index uses the NOCASE
+     * collation, so that it serves the case-insensitive LIKE of name searches, see
+     * {@link ProductContract#QUERY_PARAMETER_NAME_PREFIX}, and {@link ProductEntry#SORT_BY_NAME}.
+     */
+    private static void createIndexes(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_INDEX_PRODUCTS_NAME);
+        db.execSQL(SQL_CREATE_INDEX_PRODUCTS_QUANTITY);
+    }
+
+    /**
+     * Version 6 adds the full-text index of the product names, see {@link ProductSearchIndex}.
+     * The names of the existing products are indexed in the upgrade transaction.
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        for (String statement : ProductSearchIndex.getCreateStatements()) {
+            db.execSQL(statement);
+        }
+    }
+
+    /**
+     * Version 7 stamps the products with the generation of their last write and keeps
+     * tombstones of the deleted ones, see {@link ProductGenerations}. The existing products
+     * all get the first generation.
+     */
+    private static void createGenerations(SQLiteDatabase db) {
+        for (String statement : ProductGenerations.getCreateStatements()) {
+            db.execSQL(statement);
+        }
+    }
+
+    /**
+     * Delete the tombstones of the products deleted long ago, see
+     * {@link ProductGenerations#getPruneStatements()}.
+     */
+    static void pruneTombstones(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (String statement : ProductGenerations.getPruneStatements()) {
+                db.execSQL(statement);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Tune the connection. The settings only last as long as the connection, and are made on
+     * the one connection that writes, where they matter most: readers use the defaults.
+     */
+    private void configure(SQLiteDatabase db) {
+        if (mWriteAheadLogging) {
+            for (String pragma : WAL_PRAGMAS.split(";")) {
+                setPragma(db, pragma);
+            }
+        }
+        for (String pragma : PRAGMAS.split(";")) {
+            setPragma(db, pragma);
+        }
+    }
+
+    /**
+     * Run a PRAGMA statement. Some of them return their new value, which execSQL() refuses,
+     * so they are run as queries.
+     */
+    private static void setPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read the image blob of one version 1 row in chunks, so that rows with large images
+     * don't overflow the CursorWindow.
+     */
+    private static byte[] readImage(SQLiteDatabase db, long id, int length) {
+        ByteArrayOutputStream image = new ByteArrayOutputStream(length);
+        String[] args = new String[3];
+        args[2] = String.valueOf(id);
+        // substr() on a blob is 1-based and returns a blob
+        for (int offset = 0; offset < length; offset += BLOB_CHUNK_SIZE) {
+            args[0] = String.valueOf(offset + 1);
+            args[1] = String.valueOf(BLOB_CHUNK_SIZE);
+            Cursor chunk = db.rawQuery("SELECT substr(" + ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE
+                    + ", ?, ?) FROM products_v1 WHERE " + ProductEntry._ID + "=?", args);
+            try {
+                if (chunk.moveToFirst()) {
+                    byte[] bytes = chunk.getBlob(0);
+                    image.write(bytes, 0, bytes.length);
+                }
+            } finally {
+                chunk.close();
+            }
+        }
+        return image.toByteArray();
     }
 }
 
@@ -0,0 +1,374 @@
+package com.dan.inventoryapp.data;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Exports the products, in id order, as CSV or JSON.
+ * <p>
+ * The products are read from a {@link Source} one page at a time and written out as they are
+ * read, so the memory used doesn't depend on the number of products. Images are never part of
+ * a page: they are either left out or copied from their own stream to a file named after
+ * their key, whose absolute path the row holds. Products sharing an image share its file.
+ * <p>
+ * The CSV columns are those read by {@link ProductImporter}, plus the id. A CSV export with
+ * images can be imported again as long as the image files stay where they are. One without
+ * images can't: every product needs a picture, so the importer skips its rows. This class has
+ * no Android dependencies, so it can be tested on the JVM.
+ */
+public class ProductExporter {
+
+    /**
+     * Reads the products
+     */
+    public interface Source {
+
+        /**
+         * Return at most limit products following the product with the given id, in id order.
+         * Pass 0 as afterId for the first page.
+         */
+        Page readPage(long afterId, int limit) throws IOException;
+
+        /**
+         * Return the stream of the image of the product.
+         */
+        InputStream openImage(long id) throws IOException;
+    }
+
+    /**
+     * A page of products, read one at a time like a cursor
+     */
+    public interface Page extends Closeable {
+
+        /**
+         * Move to the next product of the page, return false after the last one.
+         */
+        boolean moveToNext();
+
+        long getId();
+
+        String getName();
+
+        double getPrice();
+
+        int getQuantity();
+
+        String getImageKey();
+    }
+
+    /**
+     * Notified after each page, on the exporting thread
+     */
+    public interface ProgressListener {
+        void onProgress(Progress progress);
+    }
+
+    /**
+     * Format of the exported file
+     */
+    public enum Format {
+        /**
+         * Comma separated values with a header line, see RFC 4180
+         */
+        CSV,
+        /**
+         * A JSON array of product objects
+         */
+        JSON
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int WRITER_BUFFER_SIZE = 64 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final String[] COLUMNS = {"id", "name", "price", "quantity", "image"};
+
+    private final Source mSource;
+    private final int mPageSize;
+    private final ProgressListener mListener;
+
+    /**
+     * Constructs a new {@link ProductExporter}.
+     *
+     * @param source   reads the products
+     * @param pageSize number of products read at a time
+     * @param listener notified of the progress, may be null
+     */
+    public ProductExporter(Source source, int pageSize, ProgressListener listener) {
+        mSource = source;
+        mPageSize = pageSize;
+        mListener = listener;
+    }
+
+    /**
+     * Write every product to the stream, which is closed.
+     *
+     * @param imageDirectory directory the images are copied to, or null to leave them out
+     * @return the final progress
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    public Progress run(OutputStream stream, Format format, File imageDirectory) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(stream, UTF_8), WRITER_BUFFER_SIZE);
+        Progress progress = new Progress();
+        // Reused for every image, so that copying them doesn't allocate
+        byte[] buffer = imageDirectory != null ? new byte[COPY_BUFFER_SIZE] : null;
+        if (imageDirectory != null && !imageDirectory.isDirectory() && !imageDirectory.mkdirs()) {
+            writer.close();
+            throw new IOException("Cannot create " + imageDirectory);
+        }
+        try {
+            writeStart(writer, format);
+            long afterId = 0;
+            int count;
+            do {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Export interrupted after " + progress.mRows + " rows");
+                }
+                count = 0;
+                Page page = mSource.readPage(afterId, mPageSize);
+                try {
+                    while (page.moveToNext()) {
+                        afterId = page.getId();
+                        String imagePath = null;
+                        if (imageDirectory != null) {
+                            imagePath = exportImage(page, imageDirectory, buffer, progress);
+                        }
+                        writeRow(writer, format, page, imagePath, progress.mRows == 0);
+                        progress.mRows++;
+                        count++;
+                    }
+                } finally {
+                    page.close();
+                }
+                if (mListener != null && count > 0) {
+                    mListener.onProgress(progress);
+                }
+            } while (count == mPageSize);
+            writeEnd(writer, format);
+            writer.flush();
+            return progress;
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Copy the image of the product to the directory unless a product sharing it did already,
+     * return the absolute path of its file
+     */
+    private String exportImage(Page page, File directory, byte[] buffer, Progress progress)
+            throws IOException {
+        InputStream in = mSource.openImage(page.getId());
+        try {
+            // The extension comes from the first bytes of the image
+            int length = 0;
+            int read;
+            while (length < 12 && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            String name = page.getImageKey() + getExtension(ImageStore.sniffMimeType(buffer, length));
+            File file = new File(directory, name);
+            if (file.exists()) {
+                // Images are named after their content, this one is already there
+                return file.getAbsolutePath();
+            }
+            File temp = new File(directory, name + ".tmp");
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                do {
+                    out.write(buffer, 0, length);
+                } while ((length = in.read(buffer)) != -1);
+            } finally {
+                out.close();
+            }
+            // A file left by an interrupted export is never mistaken for a whole image
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot create " + file);
+            }
+            progress.mImages++;
+            return file.getAbsolutePath();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String getExtension(String mimeType) {
+        switch (mimeType) {
+            case "image/png":
+                return ".png";
+            case "image/jpeg":
+                return ".jpg";
+            case "image/webp":
+                return ".webp";
+            default:
+                return "";
+        }
+    }
+
+    private static void writeStart(Writer writer, Format format) throws IOException {
+        if (format == Format.CSV) {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(COLUMNS[i]);
+            }
+            writer.write("\r\n");
+        } else {
+            writer.write('[');
+        }
+    }
+
+    private static void writeEnd(Writer writer, Format format) throws IOException {
+        if (format == Format.JSON) {
+            writer.write("\n]\n");
+        }
+    }
+
+    private static void writeRow(Writer writer, Format format, Page page, String imagePath,
+                                 boolean first) throws IOException {
+        if (format == Format.CSV) {
+            writer.write(Long.toString(page.getId()));
+            writer.write(',');
+            writeCsvField(writer, page.getName());
+            writer.write(',');
+            writer.write(Double.toString(page.getPrice()));
+            writer.write(',');
+            writer.write(Integer.toString(page.getQuantity()));
+            writer.write(',');
+            if (imagePath != null) {
+                writeCsvField(writer, imagePath);
+            }
+            writer.write("\r\n");
+        } else {
+            writer.write(first ? "\n{\"" : ",\n{\"");
+            writer.write(COLUMNS[0]);
+            writer.write("\":");
+            writer.write(Long.toString(page.getId()));
+            writer.write(",\"");
+            writer.write(COLUMNS[1]);
+            writer.write("\":");
+            writeJsonString(writer, page.getName());
+            writer.write(",\"");
+            writer.write(COLUMNS[2]);
+            writer.write("\":");
+            writer.write(Double.toString(page.getPrice()));
+            writer.write(",\"");
+            writer.write(COLUMNS[3]);
+            writer.write("\":");
+            writer.write(Integer.toString(page.getQuantity()));
+            if (imagePath != null) {
+                writer.write(",\"");
+                writer.write(COLUMNS[4]);
+                writer.write("\":");
+                writeJsonString(writer, imagePath);
+            }
+            writer.write('}');
+        }
+    }
+
+    /**
+     * Write the field, quoted if it contains a separator, a quote or a line break
+     */
+    static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    static void writeJsonString(Writer writer, String value) throws IOException {
+        if (value == null) {
+            writer.write("null");
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        // Line separators aren't allowed in JavaScript strings
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Progress of an export
+     */
+    public static final class Progress {
+        private final long mStartNanos = System.nanoTime();
+        private long mRows;
+        private long mImages;
+
+        /**
+         * Return the number of products written so far.
+         */
+        public long getRows() {
+            return mRows;
+        }
+
+        /**
+         * Return the number of image files written so far, images shared by several products
+         * are counted once.
+         */
+        public long getImages() {
+            return mImages;
+        }
+
+        /**
+         * Return the number of products written per second.
+         */
+        public double getRowsPerSecond() {
+            long elapsedNanos = System.nanoTime() - mStartNanos;
+            return elapsedNanos <= 0 ? 0 : mRows * 1e9 / elapsedNanos;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.dan.inventoryapp.data;
+
+import com.dan.inventoryapp.data.ProductContract.MetadataEntry;
+import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+import com.dan.inventoryapp.data.ProductContract.TombstoneEntry;
+
+/**
+ * Generation stamps of the products, which tell what changed since a given point. A counter
+ * in the metadata table is increased by every write of a product, and the product is stamped
+ * with its new value in {@link ProductEntry#COLUMN_PRODUCT_GENERATION}. A deleted product
+ * leaves a tombstone with its id and the generation of the delete. Tombstones more than
+ * {@link #RETAINED_GENERATIONS} behind are pruned, and the changes since a generation before
+ * the latest one pruned start with a row asking for a full reload.
+ * <p>
+ * Triggers on the products table do the stamping, so every way of writing a product is
+ * covered, in the same transaction as the write. Writers are serialized, so generations are
+ * committed in increasing order: a reader that has seen generation N has seen every write up
+ * to it. This class has no Android dependencies, so it can be tested on the JVM.
+ */
+final class ProductGenerations {
+
+    static final String INDEX_PRODUCTS_GENERATION = "products_generation_index";
+    static final String INDEX_TOMBSTONES_GENERATION = "product_tombstones_generation_index";
+
+    /**
+     * Number of generations the tombstones are kept for. A reader further behind reloads
+     * every product, which it would do anyway after that many changes.
+     */
+    static final long RETAINED_GENERATIONS = 10000;
+
+    /**
+     * The argument of the changes query as a number. rawQuery() binds it as text, which
+     * SQLite orders after every number when compared to anything but an INTEGER column.
+     */
+    private static final String SINCE = "CAST(?1 AS INTEGER)";
+
+    /**
+     * Columns of the products table whose change makes a new generation. Any column added
+     * to the table has to be added here.
+     */
+    private static final String[] STAMPED_COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_KEY,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    private ProductGenerations() {
+    }
+
+    /**
+     * Return the statements that create the tombstones and the triggers, on a products table
+     * that already has the {@link ProductEntry#COLUMN_PRODUCT_GENERATION} column. The
+     * existing products are stamped with generation 1.
+     */
+    static String[] getCreateStatements() {
+        String products = ProductEntry.TABLE_NAME;
+        String id = ProductEntry._ID;
+        String generation = ProductEntry.COLUMN_PRODUCT_GENERATION;
+        String tombstones = TombstoneEntry.TABLE_NAME;
+        String increment = "UPDATE " + MetadataEntry.TABLE_NAME + " SET " + MetadataEntry.COLUMN_VALUE
+                + "=" + MetadataEntry.COLUMN_VALUE + "+1 WHERE " + MetadataEntry.COLUMN_KEY
+                + "='" + MetadataEntry.KEY_GENERATION + "'; ";
+        String current = selectMetadata(MetadataEntry.KEY_GENERATION);
+        // Only touches the generation column, so it doesn't set off the update trigger
+        String stamp = "UPDATE " + products + " SET " + generation + "=" + current + " WHERE "
+                + id + "=new." + id + "; ";
+        return new String[]{
+                "CREATE TABLE " + tombstones + " (" + TombstoneEntry._ID + " INTEGER PRIMARY KEY, "
+                        + TombstoneEntry.COLUMN_GENERATION + " INTEGER NOT NULL);",
+                "CREATE INDEX " + INDEX_PRODUCTS_GENERATION + " ON " + products
+                        + " (" + generation + ");",
+                "CREATE INDEX " + INDEX_TOMBSTONES_GENERATION + " ON " + tombstones
+                        + " (" + TombstoneEntry.COLUMN_GENERATION + ");",
+                "INSERT OR REPLACE INTO " + MetadataEntry.TABLE_NAME + " (" + MetadataEntry.COLUMN_KEY
+                        + ", " + MetadataEntry.COLUMN_VALUE + ") VALUES ('"
+                        + MetadataEntry.KEY_GENERATION + "', 1);",
+                "UPDATE " + products + " SET " + generation + "=1;",
+                "CREATE TRIGGER " + products + "_generation_insert AFTER INSERT ON " + products
+                        + " BEGIN " + increment + stamp + "END;",
+                "CREATE TRIGGER " + products + "_generation_update AFTER UPDATE OF "
+                        + join(STAMPED_COLUMNS) + " ON " + products
+                        + " BEGIN " + increment + stamp + "END;",
+                "CREATE TRIGGER " + products + "_generation_delete AFTER DELETE ON " + products
+                        + " BEGIN " + increment + "INSERT OR REPLACE INTO " + tombstones + " ("
+                        + TombstoneEntry._ID + ", " + TombstoneEntry.COLUMN_GENERATION
+                        + ") VALUES (old." + id + ", " + current + "); END;"};
+    }
+
+    /**
+     * Return the statements that delete the tombstones older than the
+     * {@link #RETAINED_GENERATIONS}, and record the generation of the latest one deleted
+     * under {@link MetadataEntry#KEY_TOMBSTONE_FLOOR}. Run them in one transaction.
+     */
+    static String[] getPruneStatements() {
+        String tombstones = TombstoneEntry.TABLE_NAME;
+        String generation = TombstoneEntry.COLUMN_GENERATION;
+        String pruned = " FROM " + tombstones + " WHERE " + generation + "<="
+                + selectMetadata(MetadataEntry.KEY_GENERATION) + "-" + RETAINED_GENERATIONS;
+        return new String[]{
+                "INSERT OR REPLACE INTO " + MetadataEntry.TABLE_NAME + " (" + MetadataEntry.COLUMN_KEY
+                        + ", " + MetadataEntry.COLUMN_VALUE + ") SELECT '"
+                        + MetadataEntry.KEY_TOMBSTONE_FLOOR + "', floor FROM (SELECT MAX("
+                        + generation + ") AS floor" + pruned + ") WHERE floor IS NOT NULL;",
+                "DELETE" + pruned + ";"};
+    }
+
+    /**
+     * Return the query of the products written and deleted after a generation, the single
+     * argument, in the order of their generations. Deleted products only have their
+     * {@link ProductEntry#_ID}, {@link ProductEntry#COLUMN_PRODUCT_GENERATION} and
+     * {@link ProductEntry#COLUMN_DELETED} set, the other columns are null.
+     * {@link ProductEntry#COLUMN_PRODUCT_GENERATION} is added to the projection if missing.
+     * <p>
+     * If tombstones after the generation were pruned, the first row has the id
+     * {@link ProductEntry#ID_RELOAD_REQUIRED}, generation 0 and {@link ProductEntry#COLUMN_DELETED}
+     * set. It is read in the same statement as the
+     * changes, so it can't miss a prune running at the same time.
+     *
+     * @throws IllegalArgumentException if the projection has a column that isn't one of the
+     *                                  products table or {@link ProductEntry#COLUMN_DELETED}
+     */
+    static String buildChangesQuery(String[] projection) {
+        StringBuilder written = new StringBuilder();
+        StringBuilder deleted = new StringBuilder();
+        StringBuilder reload = new StringBuilder();
+        boolean hasGeneration = false;
+        for (String column : projection) {
+            if (written.length() > 0) {
+                written.append(", ");
+                deleted.append(", ");
+                reload.append(", ");
+            }
+            if (ProductEntry._ID.equals(column)) {
+                written.append(column);
+                deleted.append(column);
+                reload.append(ProductEntry.ID_RELOAD_REQUIRED).append(" AS ").append(column);
+            } else if (ProductEntry.COLUMN_PRODUCT_GENERATION.equals(column)) {
+                hasGeneration = true;
+                written.append(column);
+                deleted.append(column);
+                reload.append("0 AS ").append(column);
+            } else if (ProductEntry.COLUMN_DELETED.equals(column)) {
+                written.append("0 AS ").append(column);
+                deleted.append("1 AS ").append(column);
+                reload.append("1 AS ").append(column);
+            } else if (isStampedColumn(column)) {
+                written.append(column);
+                deleted.append("NULL AS ").append(column);
+                reload.append("NULL AS ").append(column);
+            } else {
+                throw new IllegalArgumentException("Unknown column " + column);
+            }
+        }
+        if (!hasGeneration) {
+            // The rows are sorted by it
+            String generation = ProductEntry.COLUMN_PRODUCT_GENERATION;
+            written.append(written.length() > 0 ? ", " : "").append(generation);
+            deleted.append(deleted.length() > 0 ? ", " : "").append(generation);
+            reload.append(reload.length() > 0 ? ", " : "").append("0");
+        }
+        // Changes since 0 are every product, deleted ones don't matter
+        return "SELECT " + reload + " FROM " + MetadataEntry.TABLE_NAME + " WHERE "
+                + MetadataEntry.COLUMN_KEY + "='" + MetadataEntry.KEY_TOMBSTONE_FLOOR + "' AND "
+                + MetadataEntry.COLUMN_VALUE + ">" + SINCE + " AND " + SINCE + ">0"
+                + " UNION ALL SELECT " + written + " FROM " + ProductEntry.TABLE_NAME + " WHERE "
+                + ProductEntry.COLUMN_PRODUCT_GENERATION + ">" + SINCE
+                + " UNION ALL SELECT " + deleted + " FROM " + TombstoneEntry.TABLE_NAME + " WHERE "
+                + TombstoneEntry.COLUMN_GENERATION + ">" + SINCE
+                + " ORDER BY " + ProductEntry.COLUMN_PRODUCT_GENERATION;
+    }
+
+    /**
+     * Return a subquery of the value stored under the key in the metadata table
+     */
+    private static String selectMetadata(String key) {
+        return "(SELECT " + MetadataEntry.COLUMN_VALUE + " FROM " + MetadataEntry.TABLE_NAME
+                + " WHERE " + MetadataEntry.COLUMN_KEY + "='" + key + "')";
+    }
+
+    private static boolean isStampedColumn(String column) {
+        for (String stamped : STAMPED_COLUMNS) {
+            if (stamped.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder text = new StringBuilder();
+        for (String column : columns) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(column);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,308 @@
+package com.dan.inventoryapp.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Generates a synthetic inventory for load tests and benchmarks. The products are the same
+ * for the same seed and settings: names made of a few words and a number, log-uniform prices,
+ * quantities with a share of products out of stock, and PNG images of the chosen sizes, some of
+ * them shared between products.
+ * <p>
+ * The products are handed to a {@link Sink} in chunks, so a large catalog is never held in
+ * memory at once. This class has no Android dependencies, so it can be tested on the JVM.
+ */
+public class ProductGenerator {
+
+    /**
+     * Writes the generated products
+     */
+    public interface Sink {
+
+        /**
+         * Write the products, in one transaction.
+         */
+        void insert(List<Record> products) throws IOException;
+    }
+
+    private static final String[] ADJECTIVES = {"red", "green", "blue", "black", "white",
+            "small", "large", "classic", "modern", "vintage", "wooden", "steel", "glass",
+            "leather", "cotton", "folding"};
+    private static final String[] NOUNS = {"lamp", "chair", "table", "book", "mug", "desk",
+            "pen", "shelf", "clock", "vase", "rug", "sofa", "bowl", "bag", "jacket", "kettle"};
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    /**
+     * Bytes of a PNG image besides its pixels: signature, chunk headers and trailers, header
+     * fields and the deflate framing
+     */
+    private static final int PNG_OVERHEAD = 70;
+
+    /**
+     * Images shared by products are picked among the last ones generated
+     */
+    private static final int SHARED_IMAGES = 64;
+
+    private final Random mRandom;
+
+    private double mMinPrice = 0.5;
+    private double mMaxPrice = 500;
+    private int mMaxQuantity = 1000;
+    private double mOutOfStockRatio = 0.05;
+    private int[] mImageSizes = {16 * 1024};
+    private double[] mImageSizeWeights = {1};
+    private double mDuplicateImageRatio = 0.2;
+
+    private final List<byte[]> mRecentImages = new ArrayList<>(SHARED_IMAGES);
+    private long mCount;
+
+    /**
+     * Constructs a new {@link ProductGenerator}.
+     *
+     * @param seed of the random numbers, the same seed generates the same products
+     */
+    public ProductGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Prices are spread evenly on a log scale between the two bounds, cheap products being
+     * the most common, and rounded to cents.
+     */
+    public void setPriceRange(double minPrice, double maxPrice) {
+        if (minPrice < 0.01 || maxPrice < minPrice) {
+            throw new IllegalArgumentException("Invalid price range " + minPrice + " - " + maxPrice);
+        }
+        mMinPrice = minPrice;
+        mMaxPrice = maxPrice;
+    }
+
+    /**
+     * Quantities are spread evenly between 1 and the maximum, except for the share of the
+     * products that are out of stock.
+     */
+    public void setQuantityRange(int maxQuantity, double outOfStockRatio) {
+        if (maxQuantity < 1) {
+            throw new IllegalArgumentException("Invalid maximum quantity " + maxQuantity);
+        }
+        checkRatio(outOfStockRatio);
+        mMaxQuantity = maxQuantity;
+        mOutOfStockRatio = outOfStockRatio;
+    }
+
+    /**
+     * Each new image is about one of the sizes in bytes, picked with the given weights.
+     */
+    public void setImageSizes(int[] sizes, double[] weights) {
+        if (sizes.length == 0 || sizes.length != weights.length) {
+            throw new IllegalArgumentException("One weight is required per image size");
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] <= PNG_OVERHEAD || weights[i] < 0) {
+                throw new IllegalArgumentException("Invalid image size " + sizes[i]
+                        + " or weight " + weights[i]);
+            }
+        }
+        mImageSizes = sizes.clone();
+        mImageSizeWeights = weights.clone();
+    }
+
+    /**
+     * Share of the products that get the image of an earlier product rather than a new one,
+     * which the image store keeps once.
+     */
+    public void setDuplicateImageRatio(double duplicateImageRatio) {
+        checkRatio(duplicateImageRatio);
+        mDuplicateImageRatio = duplicateImageRatio;
+    }
+
+    private static void checkRatio(double ratio) {
+        if (ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException("Invalid ratio " + ratio);
+        }
+    }
+
+    /**
+     * Return the next product.
+     */
+    public Record next() {
+        mCount++;
+        String name = ADJECTIVES[mRandom.nextInt(ADJECTIVES.length)] + " "
+                + NOUNS[mRandom.nextInt(NOUNS.length)] + " " + mCount;
+        double price = Math.exp(Math.log(mMinPrice)
+                + mRandom.nextDouble() * (Math.log(mMaxPrice) - Math.log(mMinPrice)));
+        price = Math.max(0.01, Math.round(price * 100) / 100.0);
+        int quantity = mRandom.nextDouble() < mOutOfStockRatio ? 0 : 1 + mRandom.nextInt(mMaxQuantity);
+        if (!mRecentImages.isEmpty() && mRandom.nextDouble() < mDuplicateImageRatio) {
+            byte[] image = mRecentImages.get(mRandom.nextInt(mRecentImages.size()));
+            return new Record(name, price, quantity, image, true);
+        }
+        byte[] image = createImage(pickImageSize(), mRandom);
+        if (mRecentImages.size() == SHARED_IMAGES) {
+            mRecentImages.remove(0);
+        }
+        mRecentImages.add(image);
+        return new Record(name, price, quantity, image, false);
+    }
+
+    /**
+     * Generate the products and write them, a chunk at a time.
+     *
+     * @param count         number of products
+     * @param chunkSize     largest number of products per chunk
+     * @param maxChunkBytes a chunk is written early once its new images take this many bytes
+     * @throws InterruptedIOException if the thread was interrupted, the chunks written so far
+     *                                are kept
+     */
+    public void generate(int count, int chunkSize, long maxChunkBytes, Sink sink) throws IOException {
+        List<Record> chunk = new ArrayList<>(chunkSize);
+        long chunkBytes = 0;
+        int written = 0;
+        for (int i = 0; i < count; i++) {
+            Record record = next();
+            chunk.add(record);
+            if (!record.isDuplicateImage()) {
+                chunkBytes += record.getImage().length;
+            }
+            if (chunk.size() == chunkSize || chunkBytes >= maxChunkBytes || i == count - 1) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Generation interrupted after " + written + " products");
+                }
+                sink.insert(chunk);
+                written += chunk.size();
+                chunk = new ArrayList<>(chunkSize);
+                chunkBytes = 0;
+            }
+        }
+    }
+
+    private int pickImageSize() {
+        double total = 0;
+        for (double weight : mImageSizeWeights) {
+            total += weight;
+        }
+        double pick = mRandom.nextDouble() * total;
+        for (int i = 0; i < mImageSizes.length; i++) {
+            pick -= mImageSizeWeights[i];
+            if (pick < 0) {
+                return mImageSizes[i];
+            }
+        }
+        return mImageSizes[mImageSizes.length - 1];
+    }
+
+    /**
+     * Return a PNG image of random pixels, about square, of about the given size in bytes. The
+     * pixels are stored uncompressed, noise wouldn't compress anyway, so the size is
+     * predictable and the image cheap to make.
+     */
+    static byte[] createImage(int bytes, Random random) {
+        int width = Math.max(1, (int) Math.sqrt((bytes - PNG_OVERHEAD) / 3.0));
+        // Each row starts with its filter type, 0 for none
+        int rowBytes = 1 + width * 3;
+        int height = Math.max(1, Math.round((float) (bytes - PNG_OVERHEAD) / rowBytes));
+        byte[] pixels = new byte[height * rowBytes];
+        random.nextBytes(pixels);
+        for (int row = 0; row < height; row++) {
+            pixels[row * rowBytes] = 0;
+        }
+        Deflater deflater = new Deflater(Deflater.NO_COMPRESSION);
+        ByteArrayOutputStream data = new ByteArrayOutputStream(pixels.length + 1024);
+        try {
+            deflater.setInput(pixels);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                data.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream(data.size() + PNG_OVERHEAD);
+        png.write(PNG_SIGNATURE, 0, PNG_SIGNATURE.length);
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8; // Bits per sample
+        header[9] = 2; // RGB
+        writeChunk(png, "IHDR", header);
+        writeChunk(png, "IDAT", data.toByteArray());
+        writeChunk(png, "IEND", new byte[0]);
+        return png.toByteArray();
+    }
+
+    private static void writeChunk(ByteArrayOutputStream png, String type, byte[] data) {
+        byte[] field = new byte[4];
+        writeInt(field, 0, data.length);
+        png.write(field, 0, 4);
+        byte[] typeBytes = {(byte) type.charAt(0), (byte) type.charAt(1), (byte) type.charAt(2),
+                (byte) type.charAt(3)};
+        png.write(typeBytes, 0, 4);
+        png.write(data, 0, data.length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        writeInt(field, 0, (int) crc.getValue());
+        png.write(field, 0, 4);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * A generated product
+     */
+    public static final class Record {
+        private final String mName;
+        private final double mPrice;
+        private final int mQuantity;
+        private final byte[] mImage;
+        private final boolean mDuplicateImage;
+
+        Record(String name, double price, int quantity, byte[] image, boolean duplicateImage) {
+            mName = name;
+            mPrice = price;
+            mQuantity = quantity;
+            mImage = image;
+            mDuplicateImage = duplicateImage;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public double getPrice() {
+            return mPrice;
+        }
+
+        public int getQuantity() {
+            return mQuantity;
+        }
+
+        /**
+         * Return the PNG image, the same array for products sharing an image.
+         */
+        public byte[] getImage() {
+            return mImage;
+        }
+
+        /**
+         * Return true if the image is the one of an earlier product.
+         */
+        public boolean isDuplicateImage() {
+            return mDuplicateImage;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.dan.inventoryapp.data;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Imports products from a CSV file with a header line naming the columns "name", "price",
+ * "quantity" and "image" (the path of the product picture), in any order.
+ * <p>
+ * The file is read as a stream and handed to a {@link Sink} in chunks, each of which the sink
+ * writes in one transaction together with the position reached in the file. An import that
+ * was interrupted resumes after the last chunk written. Rows that are not valid products are
+ * skipped and counted.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the JVM.
+ */
+public class ProductImporter {
+
+    /**
+     * Writes the imported products
+     */
+    public interface Sink {
+
+        /**
+         * Return the number of data rows of the file already imported, 0 for a new import.
+         */
+        long getPosition() throws IOException;
+
+        /**
+         * Write the products, and the number of data rows of the file imported once they are
+         * written, in one transaction.
+         *
+         * @return the number of products written, products the sink can't write are skipped
+         */
+        int insert(List<Record> products, long position) throws IOException;
+
+        /**
+         * Called once the whole file has been imported, to forget its position.
+         */
+        void finish() throws IOException;
+    }
+
+    /**
+     * Notified after each chunk, on the importing thread
+     */
+    public interface ProgressListener {
+        void onProgress(Progress progress);
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_PRICE = "price";
+    private static final String COLUMN_QUANTITY = "quantity";
+    private static final String COLUMN_IMAGE = "image";
+
+    private final Sink mSink;
+    private final int mChunkSize;
+    private final ProgressListener mListener;
+
+    /**
+     * Constructs a new {@link ProductImporter}.
+     *
+     * @param sink      writes the products
+     * @param chunkSize number of products written per transaction
+     * @param listener  notified of the progress, may be null
+     */
+    public ProductImporter(Sink sink, int chunkSize, ProgressListener listener) {
+        mSink = sink;
+        mChunkSize = chunkSize;
+        mListener = listener;
+    }
+
+    /**
+     * Import the products of the UTF-8 encoded CSV stream, starting after the rows already
+     * imported. The stream is closed.
+     *
+     * @param totalBytes size of the stream if known, -1 otherwise, for the progress
+     * @return the final progress
+     * @throws InterruptedIOException if the thread was interrupted, the import can be resumed
+     */
+    public Progress run(InputStream stream, long totalBytes) throws IOException {
+        CountingInputStream countingStream = new CountingInputStream(stream);
+        CsvReader reader = new CsvReader(new InputStreamReader(countingStream, UTF_8));
+        try {
+            String[] header = reader.readRecord();
+            if (header == null) {
+                throw new IOException("The file is empty");
+            }
+            int nameIndex = findColumn(header, COLUMN_NAME);
+            int priceIndex = findColumn(header, COLUMN_PRICE);
+            int quantityIndex = findColumn(header, COLUMN_QUANTITY);
+            int imageIndex = findColumn(header, COLUMN_IMAGE);
+
+            long position = mSink.getPosition();
+            Progress progress = new Progress(position, totalBytes);
+            // Skip the rows imported before, they still have to be parsed to be found
+            for (long row = 0; row < position; row++) {
+                if (reader.readRecord() == null) {
+                    throw new IOException("The file has fewer rows than were imported");
+                }
+            }
+
+            List<Record> chunk = new ArrayList<>(mChunkSize);
+            long chunkRows = 0;
+            String[] fields;
+            while ((fields = reader.readRecord()) != null) {
+                chunkRows++;
+                Record record = parseRecord(fields, nameIndex, priceIndex, quantityIndex, imageIndex);
+                if (record != null) {
+                    chunk.add(record);
+                } else {
+                    progress.mRowsSkipped++;
+                }
+                if (chunkRows == mChunkSize) {
+                    writeChunk(chunk, chunkRows, progress, countingStream.mCount);
+                    chunkRows = 0;
+                }
+            }
+            if (chunkRows > 0) {
+                writeChunk(chunk, chunkRows, progress, countingStream.mCount);
+            }
+            mSink.finish();
+            return progress;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void writeChunk(List<Record> chunk, long rows, Progress progress, long bytesRead)
+            throws IOException {
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException("Import interrupted after " + progress.mPosition + " rows");
+        }
+        int inserted = mSink.insert(chunk, progress.mPosition + rows);
+        progress.mPosition += rows;
+        progress.mRowsImported += inserted;
+        progress.mRowsSkipped += chunk.size() - inserted;
+        progress.mBytesRead = bytesRead;
+        chunk.clear();
+        if (mListener != null) {
+            mListener.onProgress(progress);
+        }
+    }
+
+    private static int findColumn(String[] header, String column) throws IOException {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].trim().toLowerCase(Locale.US).equals(column)) {
+                return i;
+            }
+        }
+        throw new IOException("The file has no " + column + " column");
+    }
+
+    /**
+     * Return the product of the row, or null if it isn't a valid one
+     */
+    private static Record parseRecord(String[] fields, int nameIndex, int priceIndex,
+                                      int quantityIndex, int imageIndex) {
+        int columns = Math.max(Math.max(nameIndex, priceIndex), Math.max(quantityIndex, imageIndex));
+        if (fields.length <= columns) {
+            return null;
+        }
+        String name = fields[nameIndex].trim();
+        String image = fields[imageIndex].trim();
+        if (name.isEmpty() || image.isEmpty()) {
+            return null;
+        }
+        try {
+            double price = Double.parseDouble(fields[priceIndex].trim());
+            int quantity = Integer.parseInt(fields[quantityIndex].trim());
+            // Same rules as the provider
+            if (price <= 0 || Double.isNaN(price) || Double.isInfinite(price) || quantity < 0) {
+                return null;
+            }
+            return new Record(name, price, quantity, image);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A product read from the file
+     */
+    public static final class Record {
+        private final String mName;
+        private final double mPrice;
+        private final int mQuantity;
+        private final String mImagePath;
+
+        public Record(String name, double price, int quantity, String imagePath) {
+            mName = name;
+            mPrice = price;
+            mQuantity = quantity;
+            mImagePath = imagePath;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public double getPrice() {
+            return mPrice;
+        }
+
+        public int getQuantity() {
+            return mQuantity;
+        }
+
+        public String getImagePath() {
+            return mImagePath;
+        }
+    }
+
+    /**
+     * Progress of an import
+     */
+    public static final class Progress {
+        private final long mStartPosition;
+        private final long mTotalBytes;
+        private final long mStartNanos = System.nanoTime();
+        private long mPosition;
+        private long mRowsImported;
+        private long mRowsSkipped;
+        private long mBytesRead;
+
+        Progress(long position, long totalBytes) {
+            mStartPosition = position;
+            mPosition = position;
+            mTotalBytes = totalBytes;
+        }
+
+        /**
+         * Return the number of data rows of the file imported so far, including the rows
+         * imported before the import was resumed.
+         */
+        public long getPosition() {
+            return mPosition;
+        }
+
+        /**
+         * Return the number of products written by this run.
+         */
+        public long getRowsImported() {
+            return mRowsImported;
+        }
+
+        /**
+         * Return the number of rows this run skipped because they weren't valid products.
+         */
+        public long getRowsSkipped() {
+            return mRowsSkipped;
+        }
+
+        public long getBytesRead() {
+            return mBytesRead;
+        }
+
+        /**
+         * Return the size of the file, -1 if unknown.
+         */
+        public long getTotalBytes() {
+            return mTotalBytes;
+        }
+
+        /**
+         * Return the number of rows handled per second by this run.
+         */
+        public double getRowsPerSecond() {
+            long elapsedNanos = System.nanoTime() - mStartNanos;
+            return elapsedNanos <= 0 ? 0 : (mPosition - mStartPosition) * 1e9 / elapsedNanos;
+        }
+    }
+
+    /**
+     * Counts the bytes read, for the progress
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                mCount += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = super.skip(n);
+            mCount += count;
+            return count;
+        }
+    }
+}
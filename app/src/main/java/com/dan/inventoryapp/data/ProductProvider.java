@@ -1,16 +1,38 @@
 package com.dan.inventoryapp.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
+import com.dan.inventoryapp.ImageUtils;
+import com.dan.inventoryapp.R;
+import com.dan.inventoryapp.data.ProductContract.MetadataEntry;
 import com.dan.inventoryapp.data.ProductContract.ProductEntry;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Created by Dat T Do on 7/20/2017.
  */
@@ -31,6 +53,43 @@ public class ProductProvider extends ContentProvider {
      * URI matcher code for the content URI for a single product in the products table
      */
     private static final int PRODUCT_ID = 101;
+
+    /**
+     * URI matcher code for the content URI for the image of a single product
+     */
+    private static final int PRODUCT_IMAGE = 102;
+
+    /**
+     * URI matcher code for the content URI for the image thumbnail of a single product
+     */
+    private static final int PRODUCT_THUMBNAIL = 103;
+
+    /**
+     * URI matcher code for the content URI searching the products by name
+     */
+    private static final int PRODUCTS_SEARCH = 104;
+
+    /**
+     * URI matcher code for the content URI of the products changed since a generation
+     */
+    private static final int PRODUCTS_CHANGES = 105;
+
+    private static final char LIKE_ESCAPE = '\\';
+
+    /**
+     * Selection of the products whose name starts with a prefix. SQLite turns a LIKE with a
+     * constant prefix into a range of the case-insensitive name index, but not when it has
+     * an ESCAPE clause, so that one is only used for prefixes containing wildcards.
+     */
+    static final String SELECTION_NAME_PREFIX = ProductEntry.COLUMN_PRODUCT_NAME + " LIKE ?";
+    static final String SELECTION_NAME_PREFIX_ESCAPED =
+            ProductEntry.COLUMN_PRODUCT_NAME + " LIKE ? ESCAPE '" + LIKE_ESCAPE + "'";
+
+    /**
+     * Selection of the products running low, a range of the quantity index
+     */
+    static final String SELECTION_MAX_QUANTITY = ProductEntry.COLUMN_PRODUCT_QUANTITY + "<=?";
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -57,6 +116,27 @@ public class ProductProvider extends ContentProvider {
         // For example, "content://com.example.android.products/products/3" matches, but
         // "content://com.example.android.products/products" (without a number at the end) doesn't match.
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+
+        // The content URI of the form "content://com.dan.inventoryapp/products/#/image" will map to
+        // the integer code {@link #PRODUCT_IMAGE}. This URI is only used to open the image of ONE
+        // product as a file, see {@link #openFile(Uri, String)}.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_IMAGE, PRODUCT_IMAGE);
+
+        // Same for "content://com.dan.inventoryapp/products/#/thumbnail", which opens the small
+        // version of the product image shown in the list.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_THUMBNAIL, PRODUCT_THUMBNAIL);
+
+        // "content://com.dan.inventoryapp/products/search" queries the products whose name
+        // matches the text of its "q" parameter, see {@link ProductSearchIndex}.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SEARCH, PRODUCTS_SEARCH);
+
+        // "content://com.dan.inventoryapp/products/changes" queries the products written or
+        // deleted after the generation of its "since" parameter, see {@link ProductGenerations}.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_CHANGES, PRODUCTS_CHANGES);
     }
 
     /**
@@ -64,30 +144,132 @@ public class ProductProvider extends ContentProvider {
      */
     private ProductDbHelper mDbHelper;
 
+    /**
+     * Store holding the image files referenced by {@link ProductEntry#COLUMN_PRODUCT_IMAGE_KEY}
+     */
+    private ImageStore mImageStore;
+
+    /**
+     * Bytes the cached query results may take
+     */
+    private static final int QUERY_CACHE_BYTES = 1024 * 1024;
+
+    /**
+     * Recent query results, dropped by every write
+     */
+    private QueryCache mQueryCache;
+
+    /**
+     * Size in pixels of the square the thumbnails have to fit in
+     */
+    private int mThumbnailSize;
+
+    /**
+     * Statements of {@link #sell(long, int)}, compiled on first use
+     */
+    private SQLiteStatement mSellStatement;
+    private SQLiteStatement mStockStatement;
+
+    /**
+     * The {@link #applyBatch} running on each thread, if any
+     */
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    /**
+     * Statements of {@link #applyStockMovements}, compiled on first use
+     */
+    private SQLiteStatement mMoveStockStatement;
+    private SQLiteStatement mMoveStockQuantityStatement;
+
     @Override
     public boolean onCreate() {
         mDbHelper = new ProductDbHelper(getContext());
+        mImageStore = new ImageStore(getContext());
+        mQueryCache = new QueryCache(QUERY_CACHE_BYTES);
+        mThumbnailSize = getContext().getResources().getDimensionPixelSize(R.dimen.list_item_height);
         return true;
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Same as the query without a {@link CancellationSignal}, which the platform calls from
+     * API 16 on. A search typed further is canceled while SQLite is still running it.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
+        // Images are read through their own URIs, never copied into a cursor window
+        if (projection != null) {
+            for (String column : projection) {
+                if (ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE.equals(column)) {
+                    throw new IllegalArgumentException("Product images can't be queried, "
+                            + "open ProductEntry.buildImageUri(id) instead");
+                }
+            }
+        }
+
+        // Answer from the cache if nothing was written since the same query ran. Queries
+        // made during applyBatch go to the database, to see the writes of the batch.
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        if (mBatch.get() == null) {
+            cacheKey = QueryCache.buildKey(uri, projection, selection, selectionArgs, sortOrder);
+            Cursor cached = mQueryCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(getContext().getContentResolver(), uri);
+                return cached;
+            }
+            cacheGeneration = mQueryCache.getGeneration();
+        }
+
         // Figure out if the URI matcher can match the URI to a specific code
         int match = sUriMatcher.match(uri);
         switch (match) {
+            case PRODUCTS_CHANGES:
+                // The generation is the only filter, and the changes are always in its order
+                if (selection != null || sortOrder != null) {
+                    throw new IllegalArgumentException("Changes can't be filtered or sorted " + uri);
+                }
+                String since = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_SINCE);
+                String sql = ProductGenerations.buildChangesQuery(
+                        projection != null ? projection : ProductEntry.CHANGES_PROJECTION);
+                String[] args = {String.valueOf(parseNumberParameter(uri, since != null ? since : "0"))};
+                if (cancellationSignal != null) {
+                    cursor = database.rawQuery(sql, args, cancellationSignal);
+                } else {
+                    cursor = database.rawQuery(sql, args);
+                }
+                break;
+            case PRODUCTS_SEARCH:
+                // Narrow the products down to those the full-text index finds, the rest is
+                // the same as a query of all the products
+                String text = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_QUERY);
+                String matchQuery = text == null ? null : ProductSearchIndex.toMatchQuery(text);
+                if (matchQuery != null) {
+                    selection = DatabaseUtils.concatenateWhere(selection, ProductSearchIndex.SELECTION);
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[]{matchQuery});
+                } else {
+                    // Nothing to search for, nothing found
+                    selection = DatabaseUtils.concatenateWhere(selection, "0");
+                }
+                cursor = queryProducts(database, uri, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                break;
             case PRODUCTS:
-                // For the PRODUCTS code, query the products table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the products table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = queryProducts(database, uri, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
                 break;
             case PRODUCT_ID:
                 // For the PET_ID code, extract out the ID from the URI.
@@ -110,6 +292,10 @@ public class ProductProvider extends ContentProvider {
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
+        if (cacheKey != null) {
+            cursor = mQueryCache.put(cacheKey, cacheGeneration, cursor);
+        }
+
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
@@ -119,6 +305,94 @@ public class ProductProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Query the products table with the given projection, selection, selection arguments and
+     * sort order, narrowed down and paged by the query parameters of the URI. The cursor can
+     * hold any number of rows.
+     */
+    private Cursor queryProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs, String sortOrder,
+                                 CancellationSignal cancellationSignal) {
+        String namePrefix = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_NAME_PREFIX);
+        if (namePrefix != null) {
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    containsLikeWildcard(namePrefix) ? SELECTION_NAME_PREFIX_ESCAPED
+                            : SELECTION_NAME_PREFIX);
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[]{toLikePrefix(namePrefix)});
+        }
+        String maxQuantity = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_MAX_QUANTITY);
+        if (maxQuantity != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, SELECTION_MAX_QUANTITY);
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[]{String.valueOf(parseNumberParameter(uri, maxQuantity))});
+        }
+        String limit = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_LIMIT);
+        String afterId = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_AFTER_ID);
+        if (limit != null || afterId != null) {
+            // Keyset paging: pages follow each other in id order, and the next page
+            // starts from an index seek on the last id instead of skipping rows
+            if (sortOrder != null) {
+                throw new IllegalArgumentException("Paged queries are ordered by id " + uri);
+            }
+            sortOrder = ProductEntry._ID + " ASC";
+            if (limit != null) {
+                limit = String.valueOf(parseNumberParameter(uri, limit));
+            }
+            if (afterId != null) {
+                selection = DatabaseUtils.concatenateWhere(selection, ProductEntry._ID + ">?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{String.valueOf(parseNumberParameter(uri, afterId))});
+            }
+        }
+        if (cancellationSignal != null) {
+            return database.query(false, ProductEntry.TABLE_NAME, projection, selection,
+                    selectionArgs, null, null, sortOrder, limit, cancellationSignal);
+        }
+        return database.query(ProductEntry.TABLE_NAME, projection, selection,
+                selectionArgs, null, null, sortOrder, limit);
+    }
+
+    /**
+     * Return true if the text contains a character that has a meaning in a LIKE pattern.
+     */
+    private static boolean containsLikeWildcard(String text) {
+        return text.indexOf('%') >= 0 || text.indexOf('_') >= 0 || text.indexOf(LIKE_ESCAPE) >= 0;
+    }
+
+    /**
+     * Return the LIKE pattern matching the text followed by anything, its wildcards escaped.
+     */
+    private static String toLikePrefix(String prefix) {
+        if (!containsLikeWildcard(prefix)) {
+            return prefix + '%';
+        }
+        StringBuilder pattern = new StringBuilder(prefix.length() + 8);
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+                pattern.append(LIKE_ESCAPE);
+            }
+            pattern.append(c);
+        }
+        return pattern.append('%').toString();
+    }
+
+    /**
+     * Parse the value of a numeric query parameter, which must not be negative.
+     */
+    private static long parseNumberParameter(Uri uri, String value) {
+        try {
+            long number = Long.parseLong(value);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid parameter " + value + " in " + uri);
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
@@ -137,10 +411,50 @@ public class ProductProvider extends ContentProvider {
     private Uri insertProduct(Uri uri, ContentValues values) {
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
+        validateProduct(values);
+
+        long id;
+        synchronized (mImageStore) {
+            // Move the image bytes into the image store, the row only keeps the image key
+            try {
+                values = storeImage(values);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to store image for " + uri, e);
+                return null;
+            }
+            id = db.insert(ProductEntry.TABLE_NAME, null, values);
+        }
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Notify all listeners that the product was inserted
+        ProductChanges changes = new ProductChanges();
+        changes.addInserted(id);
+        notifyChange(changes);
+
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Check the content values of a new product, throwing an IllegalArgumentException if
+     * they are not valid.
+     */
+    private static void validateProduct(ContentValues values) {
+        checkGenerationNotSet(values);
+
+        // The image is required, either as bytes or as the key of an already stored image
+        if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE)
+                && !values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY)) {
+            throw new IllegalArgumentException("Product requires an image");
+        }
+
         // If the {@link ProductEntry#COLUMN_PRODUCT_NAME} key is present,
         // check that the name value is not empty
         String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-        if (name.isEmpty()) {
+        if (name == null || name.isEmpty()) {
             throw new IllegalArgumentException("Product requires a name");
         }
 
@@ -163,18 +477,164 @@ public class ProductProvider extends ContentProvider {
                 throw new IllegalArgumentException("Product requires valid quantity");
             }
         }
+    }
 
-        long id = db.insert(ProductEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+    /**
+     * The generation is only written by the database, see {@link ProductGenerations}.
+     */
+    private static void checkGenerationNotSet(ContentValues values) {
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_GENERATION)) {
+            throw new IllegalArgumentException("Product generation can't be written");
+        }
+    }
+
+    /**
+     * Insert all the products in one transaction, with one compiled statement and one change
+     * notification. Every product is validated before anything is written, and if one of them
+     * can't be inserted, none is.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] valuesArray) {
+        if (sUriMatcher.match(uri) != PRODUCTS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+        for (ContentValues values : valuesArray) {
+            validateProduct(values);
+        }
+        String importId = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_IMPORT_ID);
+        long importPosition = 0;
+        if (importId != null) {
+            importPosition = parseNumberParameter(uri,
+                    uri.getQueryParameter(ProductContract.QUERY_PARAMETER_IMPORT_POSITION));
+        } else if (valuesArray.length == 0) {
+            return 0;
         }
 
-        // Notify all listeners that the data has changed for product content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Set<String> imageKeys = new HashSet<>();
+        ProductChanges changes = new ProductChanges();
+        boolean inserted = false;
+        synchronized (mImageStore) {
+            SQLiteStatement statement = database.compileStatement("INSERT INTO "
+                    + ProductEntry.TABLE_NAME + " ("
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                    + ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + ", "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + ") VALUES (?, ?, ?, ?)");
+            database.beginTransaction();
+            try {
+                for (ContentValues values : valuesArray) {
+                    try {
+                        values = storeImage(values);
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Failed to store image for " + uri, e);
+                        return 0;
+                    }
+                    String imageKey = values.getAsString(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY);
+                    imageKeys.add(imageKey);
 
-        return ContentUris.withAppendedId(uri, id);
+                    // Columns left out get the defaults of the table
+                    Double price = values.getAsDouble(ProductEntry.COLUMN_PRODUCT_PRICE);
+                    Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                    statement.bindString(1, values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
+                    statement.bindDouble(2, price != null ? price : 0);
+                    statement.bindString(3, imageKey);
+                    statement.bindLong(4, quantity != null ? quantity : 0);
+                    changes.addInserted(statement.executeInsert());
+                }
+                if (importId != null) {
+                    // Committed with the rows, so an interrupted import resumes after them
+                    writeMetadata(database, MetadataEntry.KEY_PREFIX_IMPORT_POSITION + importId,
+                            importPosition);
+                }
+                database.setTransactionSuccessful();
+                inserted = true;
+            } finally {
+                database.endTransaction();
+                statement.close();
+                if (!inserted) {
+                    // Remove the images stored for the products that were rolled back
+                    releaseImages(database, imageKeys);
+                }
+            }
+        }
+
+        if (valuesArray.length != 0) {
+            notifyChange(changes);
+        }
+        return valuesArray.length;
+    }
+
+    /**
+     * Apply all the operations in one transaction, sending one change notification at the end,
+     * with the changes of all the operations. Their URIs are checked before anything is
+     * written. If one of the operations fails, the ones before it are rolled back.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        for (ContentProviderOperation operation : operations) {
+            int match = sUriMatcher.match(operation.getUri());
+            if (match != PRODUCTS && match != PRODUCT_ID) {
+                throw new IllegalArgumentException("Unsupported URI " + operation.getUri());
+            }
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        mBatch.set(batch);
+        ContentProviderResult[] results = null;
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mBatch.remove();
+            // Images are only released once the rows that referenced them are gone for good,
+            // and the images stored for rows that were rolled back are released too
+            synchronized (mImageStore) {
+                releaseImages(database, results != null
+                        ? batch.mReleasedImageKeys : batch.mStoredImageKeys);
+            }
+        }
+
+        if (!batch.mChanges.isEmpty()) {
+            notifyChange(batch.mChanges);
+        }
+        return results;
+    }
+
+    /**
+     * Drop the cached query results and notify the listeners of the changes, on the URI built
+     * by {@link ProductEntry#buildChangeUri(ProductChanges)}, or, during {@link #applyBatch},
+     * add them to the changes notified at the end. Only call it once the writes are committed.
+     */
+    private void notifyChange(ProductChanges changes) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mChanges.addAll(changes);
+        } else {
+            // The writes are committed, the results read before them are out of date
+            mQueryCache.invalidate();
+            getContext().getContentResolver().notifyChange(ProductEntry.buildChangeUri(changes), null);
+        }
+    }
+
+    /**
+     * Return the changes made to the products of the URI: to the product, for the URI of a
+     * single product, and to products that aren't known for a selection.
+     */
+    private static ProductChanges changesOf(Uri uri, boolean deleted) {
+        ProductChanges changes = new ProductChanges();
+        if (sUriMatcher.match(uri) != PRODUCT_ID) {
+            changes.addUnknown();
+        } else if (deleted) {
+            changes.addDeleted(ContentUris.parseId(uri));
+        } else {
+            changes.addUpdated(ContentUris.parseId(uri));
+        }
+        return changes;
     }
 
     @Override
@@ -197,6 +657,8 @@ public class ProductProvider extends ContentProvider {
     }
 
     public int updateProduct(Uri uri, ContentValues values, String selection, String selectionArgs[]) {
+        checkGenerationNotSet(values);
+
         // If the {@link ProductEntry#COLUMN_PRODUCT_NAME} key is present,
         // check that the name value is not empty
         if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
@@ -236,12 +698,29 @@ public class ProductProvider extends ContentProvider {
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE)
+                || values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY)) {
+            synchronized (mImageStore) {
+                // Remember the images the rows used before, they may not be needed any more
+                Set<String> oldImageKeys = queryImageKeys(database, selection, selectionArgs);
+                try {
+                    values = storeImage(values);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to store image for " + uri, e);
+                    return 0;
+                }
+                rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+                releaseImages(database, oldImageKeys);
+            }
+        } else {
+            rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+        }
 
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changesOf(uri, false));
         }
 
         // Return the number of rows updated
@@ -260,22 +739,27 @@ public class ProductProvider extends ContentProvider {
         switch (match) {
             case PRODUCTS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case PRODUCT_ID:
                 // Delete a single row given by the ID in the URI
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
+        synchronized (mImageStore) {
+            Set<String> imageKeys = queryImageKeys(database, selection, selectionArgs);
+            rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+            // Remove the image files that no remaining product refers to
+            releaseImages(database, imageKeys);
+        }
+
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changesOf(uri, true));
         }
 
         // Return the number of rows deleted
@@ -287,11 +771,422 @@ public class ProductProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
+            case PRODUCTS_SEARCH:
+            case PRODUCTS_CHANGES:
                 return ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCT_ID:
                 return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_IMAGE:
+            case PRODUCT_THUMBNAIL:
+                try {
+                    return ImageStore.getMimeType(getImageFile(uri, match));
+                } catch (FileNotFoundException e) {
+                    return null;
+                }
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
+
+    /**
+     * Open the image of a product straight from the {@link ImageStore}, so that it is
+     * streamed to the caller instead of being copied through a cursor.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        final int match = sUriMatcher.match(uri);
+        if (match != PRODUCT_IMAGE && match != PRODUCT_THUMBNAIL) {
+            throw new FileNotFoundException("Cannot open file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Product images are read only " + uri);
+        }
+        File file = getImageFile(uri, match);
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        final int match = sUriMatcher.match(uri);
+        if (match != PRODUCT_IMAGE && match != PRODUCT_THUMBNAIL) {
+            return null;
+        }
+        String mimeType = getType(uri);
+        if (mimeType == null || !ClipDescription.compareMimeTypes(mimeType, mimeTypeFilter)) {
+            return null;
+        }
+        return new String[]{mimeType};
+    }
+
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        final int match = sUriMatcher.match(uri);
+        if (match != PRODUCT_IMAGE && match != PRODUCT_THUMBNAIL) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        if (getStreamTypes(uri, mimeTypeFilter) == null) {
+            throw new FileNotFoundException("Can't open " + uri + " as type " + mimeTypeFilter);
+        }
+        ParcelFileDescriptor fd = openFile(uri, "r");
+        return new AssetFileDescriptor(fd, 0, fd.getStatSize());
+    }
+
+    /**
+     * Return a copy of the values in which the image bytes, if present, are replaced by the
+     * key of the image in the {@link ImageStore}.
+     */
+    private ContentValues storeImage(ContentValues values) throws IOException {
+        if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE)) {
+            return values;
+        }
+        byte[] image = values.getAsByteArray(ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE);
+        if (image == null || image.length == 0) {
+            throw new IllegalArgumentException("Product requires an image");
+        }
+        String key = mImageStore.put(image);
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mStoredImageKeys.add(key);
+        }
+        // Make the list-sized thumbnail right away, while the image bytes are at hand
+        if (!mImageStore.containsThumbnail(key)) {
+            byte[] thumbnail = ImageUtils.createThumbnail(image, mThumbnailSize);
+            if (thumbnail == null) {
+                throw new IllegalArgumentException("Product image can't be decoded");
+            }
+            mImageStore.putThumbnail(key, thumbnail);
+        }
+
+        ContentValues storedValues = new ContentValues(values);
+        storedValues.remove(ProductEntry.COLUMN_PRODUCT_IMAGE_RESOURCE);
+        storedValues.put(ProductEntry.COLUMN_PRODUCT_IMAGE_KEY, key);
+        return storedValues;
+    }
+
+    /**
+     * Return the file behind a products/#/image or products/#/thumbnail URI. A missing
+     * thumbnail is created from the full image first.
+     */
+    private File getImageFile(Uri uri, int match) throws FileNotFoundException {
+        String key = queryImageKey(uri);
+        if (key == null) {
+            throw new FileNotFoundException("No product for " + uri);
+        }
+        if (match == PRODUCT_IMAGE) {
+            return mImageStore.getFile(key);
+        }
+        if (!mImageStore.containsThumbnail(key) && !createThumbnail(key)) {
+            throw new FileNotFoundException("No thumbnail for " + uri);
+        }
+        return mImageStore.getThumbnailFile(key);
+    }
+
+    /**
+     * Create the thumbnail of a stored image. Return false if it couldn't be made.
+     */
+    private boolean createThumbnail(String key) {
+        if (!mImageStore.contains(key)) {
+            return false;
+        }
+        byte[] thumbnail = ImageUtils.createThumbnail(mImageStore.getFile(key), mThumbnailSize);
+        if (thumbnail == null) {
+            return false;
+        }
+        try {
+            mImageStore.putThumbnail(key, thumbnail);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to store thumbnail of image " + key, e);
+            return false;
+        }
+    }
+
+    /**
+     * Create the thumbnails missing for the images of all products, e.g. for products
+     * saved before thumbnails existed. Return the number of thumbnails created.
+     */
+    private int backfillThumbnails() {
+        int created = 0;
+        for (String key : queryImageKeys(mDbHelper.getReadableDatabase(), null, null)) {
+            if (!mImageStore.containsThumbnail(key) && createThumbnail(key)) {
+                created++;
+            }
+        }
+        Log.v(LOG_TAG, created + " thumbnails created");
+        return created;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (ProductContract.METHOD_BACKFILL_THUMBNAILS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(ProductContract.EXTRA_COUNT, backfillThumbnails());
+            return result;
+        }
+        if (ProductContract.METHOD_SELL.equals(method)) {
+            long id;
+            try {
+                id = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid product id " + arg);
+            }
+            int quantity = extras != null ? extras.getInt(ProductContract.EXTRA_QUANTITY, 1) : 1;
+            if (quantity <= 0) {
+                throw new IllegalArgumentException("Sold quantity must be positive");
+            }
+            Bundle result = new Bundle();
+            result.putLong(ProductContract.EXTRA_QUANTITY, sell(id, quantity));
+            return result;
+        }
+        if (ProductContract.METHOD_APPLY_STOCK_MOVEMENTS.equals(method)) {
+            if (extras == null) {
+                Bundle result = new Bundle();
+                result.putLong(ProductContract.EXTRA_SEQUENCE, readMetadata(
+                        mDbHelper.getReadableDatabase(), MetadataEntry.KEY_STOCK_SEQUENCE));
+                return result;
+            }
+            long[] ids = extras.getLongArray(ProductContract.EXTRA_PRODUCT_IDS);
+            int[] deltas = extras.getIntArray(ProductContract.EXTRA_QUANTITY_DELTAS);
+            if (ids == null || deltas == null || ids.length != deltas.length) {
+                throw new IllegalArgumentException("Stock movements need as many ids as deltas");
+            }
+            return applyStockMovements(ids, deltas, extras.getLong(ProductContract.EXTRA_SEQUENCE));
+        }
+        if (ProductContract.METHOD_GET_IMPORT_POSITION.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(ProductContract.EXTRA_POSITION, readMetadata(
+                    mDbHelper.getReadableDatabase(), MetadataEntry.KEY_PREFIX_IMPORT_POSITION + arg));
+            return result;
+        }
+        if (ProductContract.METHOD_GET_QUERY_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(ProductContract.EXTRA_HIT_COUNT, mQueryCache.getHitCount());
+            result.putInt(ProductContract.EXTRA_MISS_COUNT, mQueryCache.getMissCount());
+            result.putDouble(ProductContract.EXTRA_HIT_RATIO, mQueryCache.getHitRatio());
+            result.putInt(ProductContract.EXTRA_SIZE, mQueryCache.getSize());
+            result.putInt(ProductContract.EXTRA_MAX_SIZE, mQueryCache.getMaxSize());
+            return result;
+        }
+        if (ProductContract.METHOD_GET_GENERATION.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(ProductContract.EXTRA_GENERATION, readMetadata(
+                    mDbHelper.getReadableDatabase(), MetadataEntry.KEY_GENERATION));
+            return result;
+        }
+        if (ProductContract.METHOD_FINISH_IMPORT.equals(method)) {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            database.delete(MetadataEntry.TABLE_NAME, MetadataEntry.COLUMN_KEY + "=?",
+                    new String[]{MetadataEntry.KEY_PREFIX_IMPORT_POSITION + arg});
+            // An import writes many products, readers from before it reload them all anyway
+            ProductDbHelper.pruneTombstones(database);
+            return new Bundle();
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Apply the quantity changes in one transaction, along with the sequence number of the
+     * batch, unless a batch with this sequence number was applied already. A decrease larger
+     * than the quantity left only takes it down to zero, and the changes of a product that
+     * doesn't exist are skipped. Listeners are notified once.
+     *
+     * @return the result bundle of {@link ProductContract#METHOD_APPLY_STOCK_MOVEMENTS}
+     */
+    private synchronized Bundle applyStockMovements(long[] ids, int[] deltas, long sequence) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (mMoveStockStatement == null) {
+            mMoveStockStatement = database.compileStatement("UPDATE " + ProductEntry.TABLE_NAME
+                    + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + "="
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + "+?"
+                    + " WHERE " + ProductEntry._ID + "=?");
+            mMoveStockQuantityStatement = database.compileStatement("SELECT "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + " FROM " + ProductEntry.TABLE_NAME
+                    + " WHERE " + ProductEntry._ID + "=?");
+        }
+
+        Bundle result = new Bundle();
+        List<Long> skippedIds = new ArrayList<>();
+        List<Integer> skippedDeltas = new ArrayList<>();
+        ProductChanges changes = new ProductChanges();
+        database.beginTransaction();
+        try {
+            long appliedSequence = readMetadata(database, MetadataEntry.KEY_STOCK_SEQUENCE);
+            if (sequence <= appliedSequence) {
+                sequence = appliedSequence;
+            } else {
+                for (int i = 0; i < ids.length; i++) {
+                    int applied = deltas[i];
+                    mMoveStockQuantityStatement.bindLong(1, ids[i]);
+                    try {
+                        applied = (int) Math.max(applied,
+                                -mMoveStockQuantityStatement.simpleQueryForLong());
+                    } catch (SQLiteDoneException e) {
+                        // No such product
+                        applied = 0;
+                    }
+                    if (applied != 0) {
+                        mMoveStockStatement.bindLong(1, applied);
+                        mMoveStockStatement.bindLong(2, ids[i]);
+                        mMoveStockStatement.executeUpdateDelete();
+                        changes.addUpdated(ids[i]);
+                    }
+                    if (applied != deltas[i]) {
+                        Log.w(LOG_TAG, "Skipped " + (deltas[i] - applied) + " of the stock movement"
+                                + " of " + deltas[i] + " for product " + ids[i]);
+                        skippedIds.add(ids[i]);
+                        skippedDeltas.add(deltas[i] - applied);
+                    }
+                }
+                writeMetadata(database, MetadataEntry.KEY_STOCK_SEQUENCE, sequence);
+            }
+            // Read in the transaction, data read at this generation includes the changes
+            result.putLong(ProductContract.EXTRA_GENERATION,
+                    readMetadata(database, MetadataEntry.KEY_GENERATION));
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (!changes.isEmpty()) {
+            notifyChange(changes);
+        }
+        long[] resultIds = new long[skippedIds.size()];
+        int[] resultDeltas = new int[skippedIds.size()];
+        for (int i = 0; i < resultIds.length; i++) {
+            resultIds[i] = skippedIds.get(i);
+            resultDeltas[i] = skippedDeltas.get(i);
+        }
+        result.putLong(ProductContract.EXTRA_SEQUENCE, sequence);
+        result.putLongArray(ProductContract.EXTRA_PRODUCT_IDS, resultIds);
+        result.putIntArray(ProductContract.EXTRA_QUANTITY_DELTAS, resultDeltas);
+        return result;
+    }
+
+    /**
+     * Return the value stored under the key in the metadata table, 0 if there is none.
+     */
+    private static long readMetadata(SQLiteDatabase database, String key) {
+        return DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX(" + MetadataEntry.COLUMN_VALUE
+                + "), 0) FROM " + MetadataEntry.TABLE_NAME + " WHERE " + MetadataEntry.COLUMN_KEY + "=?",
+                new String[]{key});
+    }
+
+    private static void writeMetadata(SQLiteDatabase database, String key, long value) {
+        ContentValues values = new ContentValues();
+        values.put(MetadataEntry.COLUMN_KEY, key);
+        values.put(MetadataEntry.COLUMN_VALUE, value);
+        database.insertWithOnConflict(MetadataEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Decrease the quantity of the product by the given number of items, unless it has fewer
+     * left. The check and the decrease are the same UPDATE statement, so sales running at the
+     * same time can't both take the last item.
+     *
+     * @return the remaining quantity, or -1 if nothing was sold
+     */
+    private synchronized long sell(long id, int quantity) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (mSellStatement == null) {
+            mSellStatement = database.compileStatement("UPDATE " + ProductEntry.TABLE_NAME
+                    + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + "="
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + "-?"
+                    + " WHERE " + ProductEntry._ID + "=? AND "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + ">=?");
+            mStockStatement = database.compileStatement("SELECT "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + " FROM " + ProductEntry.TABLE_NAME
+                    + " WHERE " + ProductEntry._ID + "=?");
+        }
+
+        long stock;
+        database.beginTransaction();
+        try {
+            mSellStatement.bindLong(1, quantity);
+            mSellStatement.bindLong(2, id);
+            mSellStatement.bindLong(3, quantity);
+            if (mSellStatement.executeUpdateDelete() == 0) {
+                return -1;
+            }
+            // Read back in the same transaction, no other write can come in between
+            mStockStatement.bindLong(1, id);
+            stock = mStockStatement.simpleQueryForLong();
+            database.setTransactionSuccessful();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        } finally {
+            database.endTransaction();
+        }
+
+        ProductChanges changes = new ProductChanges();
+        changes.addUpdated(id);
+        notifyChange(changes);
+        return stock;
+    }
+
+    /**
+     * Return the image key of the product identified by a products/#/image URI,
+     * or null if there is no such product.
+     */
+    private String queryImageKey(Uri uri) {
+        // The product id is the segment before "image" or "thumbnail"
+        long id = Long.parseLong(uri.getPathSegments().get(1));
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        Cursor cursor = database.query(ProductEntry.TABLE_NAME,
+                new String[]{ProductEntry.COLUMN_PRODUCT_IMAGE_KEY},
+                ProductEntry._ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the distinct image keys of the rows matching the selection.
+     */
+    private Set<String> queryImageKeys(SQLiteDatabase database, String selection,
+                                       String[] selectionArgs) {
+        Set<String> keys = new HashSet<>();
+        Cursor cursor = database.query(true, ProductEntry.TABLE_NAME,
+                new String[]{ProductEntry.COLUMN_PRODUCT_IMAGE_KEY},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                keys.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return keys;
+    }
+
+    /**
+     * Delete the stored images that are no longer referenced by any product.
+     */
+    private void releaseImages(SQLiteDatabase database, Set<String> keys) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            // The batch may still be rolled back
+            batch.mReleasedImageKeys.addAll(keys);
+            return;
+        }
+        for (String key : keys) {
+            long references = DatabaseUtils.queryNumEntries(database, ProductEntry.TABLE_NAME,
+                    ProductEntry.COLUMN_PRODUCT_IMAGE_KEY + "=?", new String[]{key});
+            if (references == 0) {
+                mImageStore.delete(key);
+            }
+        }
+    }
+
+    /**
+     * State of the {@link #applyBatch} running on the current thread
+     */
+    private static final class Batch {
+        private final ProductChanges mChanges = new ProductChanges();
+        private final Set<String> mReleasedImageKeys = new HashSet<>();
+        private final Set<String> mStoredImageKeys = new HashSet<>();
+    }
 }
@@ -0,0 +1,88 @@
+package com.dan.inventoryapp.data;
+
+import com.dan.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * Full-text index of the product names, an FTS4 table whose rows have the ids of the
+ * products. Triggers on the products table keep it up to date as products are inserted,
+ * renamed and deleted, in the same transaction.
+ * <p>
+ * The index keeps its own copy of the names: external content tables would avoid it, but
+ * they need SQLite 3.7.9, newer than the version of API 15. Names are tokenized by the simple
+ * tokenizer, which splits on ASCII punctuation and spaces and ignores the case of ASCII
+ * letters. This class has no Android dependencies, so it can be tested on the JVM.
+ */
+final class ProductSearchIndex {
+
+    static final String TABLE_NAME = "products_fts";
+
+    /**
+     * Selection of the products matching the expression returned by {@link #toMatchQuery}
+     */
+    static final String SELECTION = ProductEntry._ID + " IN (SELECT docid FROM " + TABLE_NAME
+            + " WHERE " + TABLE_NAME + " MATCH ?)";
+
+    private ProductSearchIndex() {
+    }
+
+    /**
+     * Return the statements that create the index of the existing products and the triggers
+     * that keep it up to date.
+     */
+    static String[] getCreateStatements() {
+        String products = ProductEntry.TABLE_NAME;
+        String id = ProductEntry._ID;
+        String name = ProductEntry.COLUMN_PRODUCT_NAME;
+        return new String[]{
+                "CREATE VIRTUAL TABLE " + TABLE_NAME + " USING fts4(" + name + ");",
+                "INSERT INTO " + TABLE_NAME + " (docid, " + name + ") SELECT " + id + ", "
+                        + name + " FROM " + products + ";",
+                "CREATE TRIGGER " + TABLE_NAME + "_insert AFTER INSERT ON " + products
+                        + " BEGIN INSERT INTO " + TABLE_NAME + " (docid, " + name
+                        + ") VALUES (new." + id + ", new." + name + "); END;",
+                "CREATE TRIGGER " + TABLE_NAME + "_update AFTER UPDATE OF " + name + " ON "
+                        + products + " BEGIN UPDATE " + TABLE_NAME + " SET " + name + "=new."
+                        + name + " WHERE docid=old." + id + "; END;",
+                "CREATE TRIGGER " + TABLE_NAME + "_delete AFTER DELETE ON " + products
+                        + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE docid=old." + id + "; END;"};
+    }
+
+    /**
+     * Return the MATCH expression finding the products whose name has words starting with
+     * each word of the text, in any order, or null if the text has no words.
+     * <p>
+     * Words are split like the tokenizer does, so punctuation typed by the user is never
+     * read as a query operator.
+     */
+    static String toMatchQuery(String text) {
+        StringBuilder query = new StringBuilder(text.length() + 8);
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && isWordChar(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (query.length() > 0) {
+                    query.append(' ');
+                }
+                // Lower case, so that words such as OR and NOT aren't operators. Like the
+                // tokenizer, leave the case of other letters alone.
+                for (int j = start; j < i; j++) {
+                    char c = text.charAt(j);
+                    query.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+                }
+                query.append('*');
+                start = -1;
+            }
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+
+    /**
+     * Return true if the simple tokenizer keeps the character in a word: ASCII letters and
+     * digits, and every non-ASCII character.
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c >= 0x80;
+    }
+}
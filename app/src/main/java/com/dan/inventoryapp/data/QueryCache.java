@@ -0,0 +1,221 @@
+package com.dan.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory LRU cache of the provider's query results, bounded by an estimate of the bytes
+ * the rows take rather than by the number of entries. The same catalog query runs again after
+ * every configuration change and every return to the catalog, usually with nothing written
+ * in between.
+ * <p>
+ * The cache has a write generation, which {@link #invalidate()} increases after each write
+ * is committed, dropping every entry. A result is stored with the generation read before its
+ * query ran, and refused if a write was committed in the meantime, so a result read before a
+ * write is never served after it.
+ */
+final class QueryCache {
+
+    /**
+     * Share of the cache a single result may take, larger results aren't cached
+     */
+    private static final int MAX_ENTRY_DIVISOR = 4;
+
+    private final LruCache<String, Entry> mCache;
+    private final int mMaxEntryBytes;
+
+    /**
+     * Increased by every write, guarded by this
+     */
+    private long mGeneration;
+
+    QueryCache(int maxBytes) {
+        mCache = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.mBytes;
+            }
+        };
+        mMaxEntryBytes = maxBytes / MAX_ENTRY_DIVISOR;
+    }
+
+    /**
+     * Return the key of the result of a query.
+     */
+    static String buildKey(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                           String sortOrder) {
+        StringBuilder key = new StringBuilder(uri.toString());
+        // The separator can't be part of a URI, and the lengths tell the arrays apart
+        appendArray(key.append('\n'), projection);
+        key.append('\n').append(selection);
+        appendArray(key.append('\n'), selectionArgs);
+        key.append('\n').append(sortOrder);
+        return key.toString();
+    }
+
+    private static void appendArray(StringBuilder key, String[] array) {
+        if (array == null) {
+            key.append("null");
+            return;
+        }
+        key.append(array.length);
+        for (String item : array) {
+            key.append('\n').append(item);
+        }
+    }
+
+    /**
+     * Return the generation to store the result of a query with. Read it before the query
+     * runs.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Return a new cursor over the cached rows, or null if the result isn't cached.
+     */
+    Cursor get(String key) {
+        Entry entry = mCache.get(key);
+        return entry != null ? newCursor(entry) : null;
+    }
+
+    /**
+     * Store the rows of the cursor, unless they are too large or a write happened since the
+     * generation, and return the cursor to give the caller in its place: a copy of the rows,
+     * or the cursor itself, before its first row.
+     */
+    Cursor put(String key, long generation, Cursor cursor) {
+        Entry entry = read(cursor);
+        if (entry == null) {
+            cursor.moveToPosition(-1);
+            return cursor;
+        }
+        cursor.close();
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mCache.put(key, entry);
+            }
+        }
+        return newCursor(entry);
+    }
+
+    /**
+     * Drop every result, after a write has been committed.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mCache.evictAll();
+    }
+
+    int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    int getMissCount() {
+        return mCache.missCount();
+    }
+
+    /**
+     * Return the share of the lookups that found their result, 0 before any lookup.
+     */
+    double getHitRatio() {
+        int hits = mCache.hitCount();
+        int lookups = hits + mCache.missCount();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Return the estimated number of bytes taken by the cached results.
+     */
+    int getSize() {
+        return mCache.size();
+    }
+
+    int getMaxSize() {
+        return mCache.maxSize();
+    }
+
+    private static Cursor newCursor(Entry entry) {
+        MatrixCursor cursor = new MatrixCursor(entry.mColumnNames, entry.mRows.size());
+        for (Object[] row : entry.mRows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Copy the rows of the cursor, or return null once they take more than a single entry
+     * may.
+     */
+    private Entry read(Cursor cursor) {
+        String[] columnNames = cursor.getColumnNames();
+        int bytes = 64;
+        for (String columnName : columnNames) {
+            bytes += sizeOf(columnName);
+        }
+        List<Object[]> rows = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columnNames.length];
+            bytes += 16 + 4 * row.length;
+            for (int i = 0; i < row.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[i] = cursor.getString(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[i] = cursor.getBlob(i);
+                        break;
+                    default:
+                        row[i] = null;
+                }
+                bytes += sizeOf(row[i]);
+            }
+            if (bytes > mMaxEntryBytes) {
+                return null;
+            }
+            rows.add(row);
+        }
+        return new Entry(columnNames, rows, bytes);
+    }
+
+    /**
+     * Return an estimate of the bytes a value takes on the heap.
+     */
+    private static int sizeOf(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 40 + 2 * ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        // A boxed Long or Double
+        return 16;
+    }
+
+    private static final class Entry {
+        final String[] mColumnNames;
+        final List<Object[]> mRows;
+        final int mBytes;
+
+        Entry(String[] columnNames, List<Object[]> rows, int bytes) {
+            mColumnNames = columnNames;
+            mRows = rows;
+            mBytes = bytes;
+        }
+    }
+}
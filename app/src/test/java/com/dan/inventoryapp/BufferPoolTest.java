@@ -0,0 +1,70 @@
+package com.dan.inventoryapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link BufferPool}.
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void releasedBufferIsReused() {
+        BufferPool pool = new BufferPool(16, 1024, 2);
+        BufferPool.Buffer buffer = pool.acquire();
+        buffer.write(new byte[8], 0, 8);
+        pool.release(buffer);
+
+        BufferPool.Buffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.size());
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(1, pool.getReuseCount());
+    }
+
+    @Test
+    public void repeatedEncodesStopAllocating() {
+        BufferPool pool = new BufferPool(16, 1024, 2);
+        byte[] data = new byte[100];
+        for (int i = 0; i < 10; i++) {
+            BufferPool.Buffer buffer = pool.acquire();
+            buffer.write(data, 0, data.length);
+            assertEquals(data.length, buffer.toByteArray().length);
+            pool.release(buffer);
+        }
+        // The first encode allocates the buffer and grows it, the other nine allocate nothing
+        int firstAllocations = pool.getAllocationCount();
+        assertTrue(firstAllocations > 1);
+
+        BufferPool.Buffer buffer = pool.acquire();
+        buffer.write(data, 0, data.length);
+        pool.release(buffer);
+        assertEquals(firstAllocations, pool.getAllocationCount());
+        assertEquals(10, pool.getReuseCount());
+    }
+
+    @Test
+    public void oversizedBufferIsNotRetained() {
+        BufferPool pool = new BufferPool(16, 64, 2);
+        BufferPool.Buffer buffer = pool.acquire();
+        buffer.write(new byte[100], 0, 100);
+        pool.release(buffer);
+
+        assertNotSame(buffer, pool.acquire());
+        assertEquals(0, pool.getReuseCount());
+    }
+
+    @Test
+    public void keepsAtMostMaxBuffers() {
+        BufferPool pool = new BufferPool(16, 1024, 1);
+        BufferPool.Buffer first = pool.acquire();
+        BufferPool.Buffer second = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+
+        assertSame(first, pool.acquire());
+        assertNotSame(second, pool.acquire());
+        assertEquals(3, pool.getAllocationCount());
+    }
+}
@@ -0,0 +1,163 @@
+package com.dan.inventoryapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DecodeExecutor}.
+ */
+public class DecodeExecutorTest {
+
+    /**
+     * Callbacks are queued here and run by the test, like the main thread would run them
+     */
+    private final LinkedBlockingQueue<Runnable> mCallbacks = new LinkedBlockingQueue<>();
+
+    private final List<String> mDelivered = new ArrayList<>();
+
+    private DecodeExecutor mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = new DecodeExecutor(1, 2, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mCallbacks.add(command);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void submit_deliversResult() throws Exception {
+        mExecutor.submit("row", value("image"), record());
+
+        runNextCallback();
+        assertEquals(1, mDelivered.size());
+        assertEquals("image", mDelivered.get(0));
+        assertEquals(0, mExecutor.getPendingCount());
+    }
+
+    @Test
+    public void submit_sameTargetCancelsStaleRequest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DecodeExecutor.Request<String> stale =
+                mExecutor.submit("row", blocking("stale", started, release), record());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // The row is recycled for another product while the first decode is running
+        mExecutor.submit("row", value("fresh"), record());
+        assertTrue(stale.isCancelled());
+        release.countDown();
+
+        runNextCallback();
+        assertEquals(1, mDelivered.size());
+        assertEquals("fresh", mDelivered.get(0));
+        assertNull(mCallbacks.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void cancel_dropsResult() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        mExecutor.submit("row", blocking("image", started, release), record());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        mExecutor.cancel("row");
+        release.countDown();
+
+        assertNull(mCallbacks.poll(100, TimeUnit.MILLISECONDS));
+        assertTrue(mDelivered.isEmpty());
+        assertEquals(0, mExecutor.getPendingCount());
+    }
+
+    @Test
+    public void fullQueue_dropsOldestWaitingRequest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        mExecutor.submit("busy", blocking("busy", started, release), record());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // The single thread is busy, the queue holds two requests
+        DecodeExecutor.Request<String> oldest = mExecutor.submit("a", value("a"), record());
+        mExecutor.submit("b", value("b"), record());
+        mExecutor.submit("c", value("c"), record());
+        assertTrue(oldest.isCancelled());
+        release.countDown();
+
+        for (int i = 0; i < 3; i++) {
+            runNextCallback();
+        }
+        // Newest requests are served first
+        assertEquals("busy", mDelivered.get(0));
+        assertEquals("c", mDelivered.get(1));
+        assertEquals("b", mDelivered.get(2));
+        assertNull(mCallbacks.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failedTask_deliversNull() throws Exception {
+        mExecutor.submit("row", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new Exception("corrupt image");
+            }
+        }, record());
+
+        runNextCallback();
+        assertEquals(1, mDelivered.size());
+        assertNull(mDelivered.get(0));
+    }
+
+    private void runNextCallback() throws InterruptedException {
+        Runnable callback = mCallbacks.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no callback was posted", callback);
+        callback.run();
+    }
+
+    private DecodeExecutor.Callback<String> record() {
+        return new DecodeExecutor.Callback<String>() {
+            @Override
+            public void onDecoded(String result) {
+                mDelivered.add(result);
+            }
+        };
+    }
+
+    private static Callable<String> value(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return value;
+            }
+        };
+    }
+
+    private static Callable<String> blocking(final String value, final CountDownLatch started,
+                                             final CountDownLatch release) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return value;
+            }
+        };
+    }
+}
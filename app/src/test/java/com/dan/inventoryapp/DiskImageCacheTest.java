@@ -0,0 +1,131 @@
+package com.dan.inventoryapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DiskImageCache}.
+ */
+public class DiskImageCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    private DiskImageCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = mFolder.newFolder("image_cache");
+        mCache = new DiskImageCache(mDirectory, 100);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mCache.close();
+    }
+
+    @Test
+    public void put_thenGet_returnsContent() throws IOException {
+        mCache.put("a_thumbnail", bytes(10, 1));
+
+        assertArrayEquals(bytes(10, 1), mCache.get("a_thumbnail"));
+        assertNull(mCache.get("b_thumbnail"));
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(10, mCache.getSize());
+    }
+
+    @Test
+    public void overSizeCap_evictsLeastRecentlyUsed() throws IOException {
+        mCache.put("a", bytes(40, 1));
+        mCache.put("b", bytes(40, 2));
+        // Reading a makes b the least recently used entry
+        mCache.get("a");
+        mCache.put("c", bytes(40, 3));
+
+        assertNull(mCache.get("b"));
+        assertNotNull(mCache.get("a"));
+        assertNotNull(mCache.get("c"));
+        assertEquals(80, mCache.getSize());
+        assertEquals(1, mCache.getEvictionCount());
+        assertFalse(new File(mDirectory, "b").exists());
+    }
+
+    @Test
+    public void reopen_restoresEntriesInAccessOrder() throws IOException {
+        mCache.put("a", bytes(40, 1));
+        mCache.put("b", bytes(40, 2));
+        mCache.get("a");
+        mCache.close();
+
+        mCache = new DiskImageCache(mDirectory, 100);
+        assertEquals(2, mCache.getEntryCount());
+        assertEquals(80, mCache.getSize());
+
+        // b is still the least recently used entry after replaying the journal
+        mCache.put("c", bytes(40, 3));
+        assertNull(mCache.get("b"));
+        assertArrayEquals(bytes(40, 1), mCache.get("a"));
+    }
+
+    @Test
+    public void reopen_dropsFilesNotInJournal() throws IOException {
+        mCache.put("a", bytes(10, 1));
+        mCache.close();
+
+        // A write interrupted by a crash leaves a temporary file behind,
+        // and an entry whose file was damaged no longer matches its journaled size
+        writeFile(new File(mDirectory, "b.tmp"), bytes(5, 2));
+        writeFile(new File(mDirectory, "c"), bytes(5, 3));
+        writeFile(new File(mDirectory, "a"), bytes(3, 1));
+
+        mCache = new DiskImageCache(mDirectory, 100);
+        assertEquals(0, mCache.getEntryCount());
+        assertNull(mCache.get("a"));
+        assertFalse(new File(mDirectory, "b.tmp").exists());
+        assertFalse(new File(mDirectory, "c").exists());
+    }
+
+    @Test
+    public void remove_deletesEntry() throws IOException {
+        mCache.put("a", bytes(10, 1));
+
+        assertTrue(mCache.remove("a"));
+        assertFalse(mCache.remove("a"));
+        assertNull(mCache.get("a"));
+        assertEquals(0, mCache.getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void put_rejectsKeyOutsideDirectory() throws IOException {
+        mCache.put("../a", bytes(1, 1));
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (value + i);
+        }
+        return bytes;
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
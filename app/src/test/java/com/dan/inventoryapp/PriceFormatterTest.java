@@ -0,0 +1,90 @@
+package com.dan.inventoryapp;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PriceFormatter}.
+ */
+public class PriceFormatterTest {
+
+    private final DecimalFormatSymbols mSymbols = DecimalFormatSymbols.getInstance(Locale.US);
+    private final PriceFormatter mFormatter = new PriceFormatter(mSymbols);
+    private final DecimalFormat mDecimalFormat = new DecimalFormat("#.##", mSymbols);
+    private final char[] mBuffer = new char[PriceFormatter.BUFFER_LENGTH];
+
+    @Test
+    public void formatsPricesLikeDecimalFormat() {
+        double[] prices = {0, 0.5, 0.125, 0.375, 1, 1.005, 2.675, 10.1, 20.99, 30.11, 99.995,
+                -4.25, -0.001, -0.0, 1234567.891, 1e16, Double.NaN};
+        for (double price : prices) {
+            assertPrice(price);
+        }
+        for (int cents = 0; cents < 100000; cents++) {
+            assertPrice(cents / 100.0);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            assertPrice(random.nextDouble() * 10000);
+            assertPrice(random.nextInt(100000) / 1000.0);
+        }
+    }
+
+    @Test
+    public void usesLocaleDecimalSeparator() {
+        PriceFormatter formatter = new PriceFormatter(DecimalFormatSymbols.getInstance(Locale.FRANCE));
+        int length = formatter.formatPrice(20.5, mBuffer);
+        assertEquals("20,5", new String(mBuffer, 0, length));
+    }
+
+    @Test
+    public void formatsQuantities() {
+        int[] quantities = {0, 1, 9, 10, 123, -7, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int quantity : quantities) {
+            int length = mFormatter.formatQuantity(quantity, mBuffer);
+            assertEquals(String.valueOf(quantity), new String(mBuffer, 0, length));
+        }
+    }
+
+    @Test
+    public void formattingDoesNotAllocate() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        // Warm up so that class loading and compilation are not measured
+        int checksum = format(10000);
+        long before = threads.getThreadAllocatedBytes(threadId);
+        checksum += format(100000);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(checksum > 0);
+        // A single allocation per bind would take several megabytes
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private int format(int count) {
+        int checksum = 0;
+        for (int i = 0; i < count; i++) {
+            checksum += mFormatter.formatPrice(i * 0.37, mBuffer);
+            checksum += mFormatter.formatQuantity(i, mBuffer);
+        }
+        return checksum;
+    }
+
+    private void assertPrice(double price) {
+        int length = mFormatter.formatPrice(price, mBuffer);
+        assertEquals("Price " + price, mDecimalFormat.format(price), new String(mBuffer, 0, length));
+    }
+}
@@ -0,0 +1,75 @@
+package com.dan.inventoryapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ReusePool}.
+ */
+public class ReusePoolTest {
+
+    private final List<String> mEvicted = new ArrayList<>();
+
+    private final ReusePool<String> mPool = new ReusePool<String>(100) {
+        @Override
+        protected void onEvicted(String item) {
+            mEvicted.add(item);
+        }
+    };
+
+    @Test
+    public void getReturnsItemWithSameKey() {
+        mPool.put("10x10", "a", 40);
+        mPool.put("20x20", "b", 40);
+
+        assertEquals("b", mPool.get("20x20"));
+        assertNull(mPool.get("20x20"));
+        assertEquals(1, mPool.getHitCount());
+        assertEquals(1, mPool.getMissCount());
+        assertEquals(40, mPool.getSize());
+    }
+
+    @Test
+    public void newestItemIsReusedFirst() {
+        mPool.put("k", "old", 10);
+        mPool.put("k", "new", 10);
+
+        assertEquals("new", mPool.get("k"));
+        assertEquals("old", mPool.get("k"));
+    }
+
+    @Test
+    public void evictsOldestWhenOverSize() {
+        mPool.put("a", "a", 40);
+        mPool.put("b", "b", 40);
+        mPool.put("c", "c", 40);
+
+        assertEquals(1, mPool.getEvictionCount());
+        assertEquals(1, mEvicted.size());
+        assertEquals("a", mEvicted.get(0));
+        assertNull(mPool.get("a"));
+        assertEquals(80, mPool.getSize());
+    }
+
+    @Test
+    public void rejectsItemLargerThanPool() {
+        assertFalse(mPool.put("big", "big", 101));
+        assertEquals(1, mEvicted.size());
+        assertEquals(0, mPool.getSize());
+    }
+
+    @Test
+    public void clearEvictsEverything() {
+        mPool.put("a", "a", 10);
+        mPool.put("b", "b", 10);
+        mPool.clear();
+
+        assertEquals(2, mEvicted.size());
+        assertEquals(0, mPool.getSize());
+        assertNull(mPool.get("a"));
+    }
+}
@@ -0,0 +1,346 @@
+package com.dan.inventoryapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StockMovementQueue}.
+ */
+public class StockMovementQueueTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final FakeSink mSink = new FakeSink();
+    private final RecordingListener mListener = new RecordingListener();
+
+    private ScheduledExecutorService mExecutor;
+    private File mJournal;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        mJournal = new File(mFolder.getRoot(), "stock_journal");
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void flush_sumsMovementsIntoOneBatch() throws IOException {
+        StockMovementQueue queue = open(60000);
+        for (int i = 0; i < 5; i++) {
+            queue.add(1, -1);
+        }
+        queue.add(2, 3);
+        assertEquals(-5, queue.getPendingDelta(1));
+
+        queue.flush();
+
+        assertEquals(1, mSink.mBatchCount);
+        assertEquals(-5, mSink.getQuantity(1));
+        assertEquals(3, mSink.getQuantity(2));
+        assertEquals(6, mSink.mAppliedSequence);
+    }
+
+    @Test
+    public void flush_keepsBatchPendingUntilConfirmed() throws IOException {
+        StockMovementQueue queue = open(60000);
+        queue.add(1, -1);
+        queue.flush();
+        queue.add(1, -1);
+        queue.flush();
+
+        // Data read before the second batch still needs it taken off
+        queue.confirmLoaded(mSink.mGeneration - 1);
+        assertEquals(-1, queue.getPendingDelta(1));
+        queue.confirmLoaded(mSink.mGeneration);
+        assertEquals(0, queue.getPendingDelta(1));
+    }
+
+    @Test
+    public void flush_batchBeingApplied_isPending() throws Exception {
+        final StockMovementQueue queue = open(60000);
+        queue.add(1, -2);
+        mSink.mEntered = new CountDownLatch(1);
+        mSink.mRelease = new CountDownLatch(1);
+        Thread flush = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queue.flush();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        flush.start();
+
+        assertTrue(mSink.mEntered.await(5, TimeUnit.SECONDS));
+        assertEquals(-2, queue.getPendingDelta(1));
+        mSink.mRelease.countDown();
+        flush.join();
+        assertEquals(-2, queue.getPendingDelta(1));
+    }
+
+    @Test
+    public void add_whileBatchIsApplied_isJournaledBeforeReturning() throws Exception {
+        final StockMovementQueue queue = open(60000);
+        queue.add(1, -2);
+        mSink.mEntered = new CountDownLatch(1);
+        mSink.mRelease = new CountDownLatch(1);
+        Thread flush = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queue.flush();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        flush.start();
+        assertTrue(mSink.mEntered.await(5, TimeUnit.SECONDS));
+        mSink.mEntered = null;
+
+        queue.add(2, -1);
+        // The process dies while the batch is applied
+        StockMovementQueue reopened = open(60000);
+        reopened.flush();
+
+        assertEquals(-2, mSink.getQuantity(1));
+        assertEquals(-1, mSink.getQuantity(2));
+        mSink.mRelease.countDown();
+        flush.join();
+        assertEquals(1, mSink.mBatchCount);
+    }
+
+    @Test
+    public void flush_beyondStock_reportsSkippedPart() throws IOException {
+        mSink.mStocks.put(1L, 2);
+        StockMovementQueue queue = open(60000);
+        for (int i = 0; i < 3; i++) {
+            queue.add(1, -1);
+        }
+        queue.add(2, -1);
+
+        queue.flush();
+
+        // The whole stock is sold, and no more
+        assertEquals(-2, mSink.getQuantity(1));
+        assertEquals(-1, mSink.getQuantity(2));
+        assertEquals(1, mListener.mSkippedIds.size());
+        assertEquals(1L, (long) mListener.mSkippedIds.get(0));
+        assertEquals(-1, (int) mListener.mSkippedDeltas.get(0));
+        // Only what was applied is taken off until the data is reloaded
+        assertEquals(-2, queue.getPendingDelta(1));
+    }
+
+    @Test
+    public void add_appliesBatchAfterWindow() throws Exception {
+        final CountDownLatch applied = new CountDownLatch(1);
+        mSink.mApplied = applied;
+        StockMovementQueue queue = open(50);
+        queue.add(1, -1);
+        queue.add(1, -1);
+
+        assertTrue(applied.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mSink.mBatchCount);
+        assertEquals(-2, mSink.getQuantity(1));
+    }
+
+    @Test
+    public void reopen_recoversUnappliedMovements() throws Exception {
+        StockMovementQueue queue = open(60000);
+        queue.add(1, -1);
+        queue.flush();
+        queue.add(1, -2);
+        queue.add(3, 4);
+        // The process dies before the second batch is applied
+
+        StockMovementQueue reopened = open(60000);
+        reopened.flush();
+
+        assertEquals(2, mSink.mBatchCount);
+        assertEquals(-3, mSink.getQuantity(1));
+        assertEquals(4, mSink.getQuantity(3));
+        assertEquals(3, mSink.mAppliedSequence);
+    }
+
+    @Test
+    public void reopen_skipsAppliedMovements() throws Exception {
+        StockMovementQueue queue = open(60000);
+        queue.add(1, -1);
+        queue.add(2, -1);
+        // The batch is applied but the process dies before the journal is compacted
+        mSink.apply(new long[]{1, 2}, new int[]{-1, -1}, 2);
+
+        StockMovementQueue reopened = open(60000);
+        reopened.flush();
+        reopened.add(1, -1);
+        reopened.flush();
+
+        assertEquals(2, mSink.mBatchCount);
+        assertEquals(-2, mSink.getQuantity(1));
+        assertEquals(-1, mSink.getQuantity(2));
+        assertEquals(3, mSink.mAppliedSequence);
+    }
+
+    @Test
+    public void reopen_continuesSequenceAfterCompaction() throws Exception {
+        StockMovementQueue queue = open(60000);
+        queue.add(1, -1);
+        queue.add(1, -1);
+        queue.flush();
+        queue.close();
+
+        StockMovementQueue reopened = open(60000);
+        reopened.add(1, -1);
+        reopened.flush();
+
+        assertEquals(-3, mSink.getQuantity(1));
+        assertEquals(3, mSink.mAppliedSequence);
+    }
+
+    @Test
+    public void failedBatch_isRetriedWithSameSequence() throws Exception {
+        StockMovementQueue queue = open(60000);
+        queue.add(1, -1);
+        mSink.mFailure = new IOException("disk full");
+        try {
+            queue.flush();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(-1, queue.getPendingDelta(1));
+
+        mSink.mFailure = null;
+        queue.add(1, -1);
+        queue.flush();
+        assertEquals(1, mSink.mAppliedSequence);
+        queue.flush();
+
+        assertEquals(2, mSink.mBatchCount);
+        assertEquals(-2, mSink.getQuantity(1));
+        assertEquals(2, mSink.mAppliedSequence);
+    }
+
+    private StockMovementQueue open(long windowMillis) {
+        return new StockMovementQueue(mJournal, mSink, mListener, mExecutor, windowMillis);
+    }
+
+    /**
+     * Applies batches to a map of quantity changes, like the provider does to the products
+     * table. Products with a stock don't sell more than it.
+     */
+    private static class FakeSink implements StockMovementQueue.Sink {
+        private final Map<Long, Integer> mQuantities = new HashMap<>();
+        private final Map<Long, Integer> mStocks = new HashMap<>();
+        private long mAppliedSequence;
+        private long mGeneration;
+        private int mBatchCount;
+        private IOException mFailure;
+        private CountDownLatch mApplied;
+        private CountDownLatch mEntered;
+        private CountDownLatch mRelease;
+
+        @Override
+        public synchronized long getAppliedSequence() {
+            return mAppliedSequence;
+        }
+
+        @Override
+        public StockMovementQueue.Result apply(long[] ids, int[] deltas, long sequence)
+                throws IOException {
+            if (mEntered != null) {
+                mEntered.countDown();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return applyNow(ids, deltas, sequence);
+        }
+
+        synchronized StockMovementQueue.Result applyNow(long[] ids, int[] deltas, long sequence)
+                throws IOException {
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            if (sequence <= mAppliedSequence) {
+                return new StockMovementQueue.Result(mGeneration, new long[0], new int[0]);
+            }
+            List<Long> skippedIds = new ArrayList<>();
+            List<Integer> skippedDeltas = new ArrayList<>();
+            for (int i = 0; i < ids.length; i++) {
+                int applied = deltas[i];
+                Integer stock = mStocks.get(ids[i]);
+                if (stock != null) {
+                    applied = Math.max(applied, -(stock + getQuantity(ids[i])));
+                }
+                mQuantities.put(ids[i], getQuantity(ids[i]) + applied);
+                if (applied != deltas[i]) {
+                    skippedIds.add(ids[i]);
+                    skippedDeltas.add(deltas[i] - applied);
+                }
+            }
+            mAppliedSequence = sequence;
+            mGeneration++;
+            mBatchCount++;
+            if (mApplied != null) {
+                mApplied.countDown();
+            }
+            long[] resultIds = new long[skippedIds.size()];
+            int[] resultDeltas = new int[skippedIds.size()];
+            for (int i = 0; i < resultIds.length; i++) {
+                resultIds[i] = skippedIds.get(i);
+                resultDeltas[i] = skippedDeltas.get(i);
+            }
+            return new StockMovementQueue.Result(mGeneration, resultIds, resultDeltas);
+        }
+
+        /**
+         * Return the sum of the changes applied to the product's quantity
+         */
+        synchronized int getQuantity(long id) {
+            Integer quantity = mQuantities.get(id);
+            return quantity == null ? 0 : quantity;
+        }
+    }
+
+    private static class RecordingListener implements StockMovementQueue.Listener {
+        private final List<Long> mSkippedIds = new ArrayList<>();
+        private final List<Integer> mSkippedDeltas = new ArrayList<>();
+
+        @Override
+        public synchronized void onSkipped(long[] ids, int[] deltas) {
+            for (int i = 0; i < ids.length; i++) {
+                mSkippedIds.add(ids[i]);
+                mSkippedDeltas.add(deltas[i]);
+            }
+        }
+
+        @Override
+        public void onError(IOException e) {
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.dan.inventoryapp.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ProductChanges}.
+ */
+public class ProductChangesTest {
+
+    @Test
+    public void insertThenUpdate_isInsert() {
+        ProductChanges changes = new ProductChanges();
+        changes.addInserted(3);
+        changes.addUpdated(3);
+
+        assertEquals(ids(3), changes.getInserted());
+        assertTrue(changes.getUpdated().isEmpty());
+    }
+
+    @Test
+    public void insertThenDelete_isNothing() {
+        ProductChanges changes = new ProductChanges();
+        changes.addInserted(3);
+        changes.addUpdated(3);
+        changes.addDeleted(3);
+
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void updateThenDelete_isDelete() {
+        ProductChanges changes = new ProductChanges();
+        changes.addUpdated(3);
+        changes.addUpdated(3);
+        changes.addDeleted(3);
+        changes.addUpdated(5);
+
+        assertEquals(ids(3), changes.getDeleted());
+        assertEquals(ids(5), changes.getUpdated());
+        assertEquals(2, changes.size());
+    }
+
+    @Test
+    public void addAll_collapsesWithEarlierChanges() {
+        ProductChanges changes = new ProductChanges();
+        changes.addInserted(1);
+        changes.addUpdated(2);
+        ProductChanges later = new ProductChanges();
+        later.addDeleted(1);
+        later.addDeleted(2);
+        later.addInserted(4);
+
+        changes.addAll(later);
+
+        assertEquals(ids(4), changes.getInserted());
+        assertEquals(ids(2), changes.getDeleted());
+        assertTrue(changes.getUpdated().isEmpty());
+    }
+
+    @Test
+    public void unknownChanges_areIncomplete() {
+        ProductChanges changes = new ProductChanges();
+        changes.addUpdated(2);
+        ProductChanges unknown = new ProductChanges();
+        unknown.addUnknown();
+
+        changes.addAll(unknown);
+        changes.addInserted(7);
+
+        assertFalse(changes.isComplete());
+        assertFalse(changes.isEmpty());
+        assertEquals(0, changes.size());
+    }
+
+    @Test
+    public void tooManyIds_areIncomplete() {
+        ProductChanges changes = new ProductChanges();
+        for (int id = 1; id <= ProductChanges.MAX_IDS; id++) {
+            changes.addInserted(id);
+        }
+        assertTrue(changes.isComplete());
+
+        changes.addUpdated(ProductChanges.MAX_IDS + 1);
+
+        assertFalse(changes.isComplete());
+    }
+
+    @Test
+    public void joinIds_parse_roundTrip() {
+        ProductChanges changes = ProductChanges.parse(ProductChanges.joinIds(ids(8, 3, 5)), "",
+                null);
+
+        // In increasing order
+        assertEquals(new ArrayList<>(ids(3, 5, 8)), new ArrayList<>(changes.getInserted()));
+        assertTrue(changes.getUpdated().isEmpty());
+        assertTrue(changes.getDeleted().isEmpty());
+    }
+
+    @Test
+    public void parse_withoutIds_returnsNull() {
+        assertNull(ProductChanges.parse(null, null, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_invalidIds_throws() {
+        ProductChanges.parse(null, "3,,4", null);
+    }
+
+    private static Set<Long> ids(long... ids) {
+        Set<Long> set = new TreeSet<>();
+        for (long id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+}
@@ -0,0 +1,258 @@
+package com.dan.inventoryapp.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ProductExporter}.
+ */
+public class ProductExporterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 1, 2, 3, 4, 5};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final FakeSource mSource = new FakeSource();
+
+    @Test
+    public void run_csv_writesEveryRowInIdOrder() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            mSource.add("Product " + i, i + 0.5, i, "key" + i);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProductExporter.Progress progress = new ProductExporter(mSource, 10, null)
+                .run(out, ProductExporter.Format.CSV, null);
+
+        assertEquals(25, progress.getRows());
+        // Two full pages and the last one
+        assertEquals(3, mSource.mPagesRead);
+        CsvReader reader = new CsvReader(new InputStreamReader(
+                new ByteArrayInputStream(out.toByteArray()), UTF_8));
+        assertArrayEquals(new String[]{"id", "name", "price", "quantity", "image"}, reader.readRecord());
+        for (int i = 0; i < 25; i++) {
+            assertArrayEquals(new String[]{String.valueOf(i + 1), "Product " + i,
+                    String.valueOf(i + 0.5), String.valueOf(i), ""}, reader.readRecord());
+        }
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void run_csvWithImages_canBeImportedAgain() throws Exception {
+        mSource.add("Dune, \"Deluxe\"\nedition", 12.5, 3, "key");
+        mSource.add("Second", 1.25, 0, "other");
+        File csv = mFolder.newFile("products.csv");
+
+        new ProductExporter(mSource, 10, null).run(new FileOutputStream(csv),
+                ProductExporter.Format.CSV, new File(mFolder.getRoot(), "images"));
+
+        // Read from another directory, the paths don't depend on the working directory
+        List<ProductImporter.Record> imported = importCsv(new FileInputStream(csv));
+        assertEquals(2, imported.size());
+        assertEquals("Dune, \"Deluxe\"\nedition", imported.get(0).getName());
+        assertEquals(12.5, imported.get(0).getPrice(), 0);
+        assertEquals(3, imported.get(0).getQuantity());
+        assertEquals("Second", imported.get(1).getName());
+        for (ProductImporter.Record record : imported) {
+            // Resolved the way the import service resolves a path without a scheme
+            File image = new File(record.getImagePath());
+            assertTrue(image.isAbsolute());
+            assertArrayEquals(PNG, readFully(image));
+        }
+    }
+
+    @Test
+    public void run_csvWithoutImages_rowsAreSkippedByImporter() throws Exception {
+        mSource.add("First", 1, 1, "key");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new ProductExporter(mSource, 10, null).run(out, ProductExporter.Format.CSV, null);
+
+        // Every product needs a picture
+        assertEquals(0, importCsv(new ByteArrayInputStream(out.toByteArray())).size());
+    }
+
+    @Test
+    public void run_json_escapesStrings() throws Exception {
+        mSource.add("Say \"hi\"\\\n\u0001", 2, 1, "a");
+        mSource.add("Second", 1.25, 0, "b");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new ProductExporter(mSource, 10, null).run(out, ProductExporter.Format.JSON, null);
+
+        assertEquals("[\n"
+                + "{\"id\":1,\"name\":\"Say \\\"hi\\\"\\\\\\n\\u0001\",\"price\":2.0,\"quantity\":1},\n"
+                + "{\"id\":2,\"name\":\"Second\",\"price\":1.25,\"quantity\":0}\n"
+                + "]\n", new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void run_json_emptyTable_writesEmptyArray() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        ProductExporter.Progress progress = new ProductExporter(mSource, 10, null)
+                .run(out, ProductExporter.Format.JSON, null);
+
+        assertEquals(0, progress.getRows());
+        assertEquals("[\n]\n", new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void run_withImageDirectory_writesSharedImagesOnce() throws Exception {
+        mSource.add("First", 1, 1, "shared");
+        mSource.add("Second", 1, 1, "shared");
+        mSource.add("Third", 1, 1, "own");
+        File directory = new File(mFolder.getRoot(), "images");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        ProductExporter.Progress progress = new ProductExporter(mSource, 2, null)
+                .run(out, ProductExporter.Format.JSON, directory);
+
+        assertEquals(3, progress.getRows());
+        assertEquals(2, progress.getImages());
+        assertEquals(PNG.length, new File(directory, "shared.png").length());
+        assertEquals(PNG.length, new File(directory, "own.png").length());
+        assertEquals(2, directory.list().length);
+        assertTrue(new String(out.toByteArray(), UTF_8).contains(
+                "\"image\":\"" + new File(directory, "shared.png").getAbsolutePath() + "\""));
+    }
+
+    @Test
+    public void run_reportsProgressAfterEachPage() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            mSource.add("Product " + i, 1, 1, "key");
+        }
+        final List<Long> rows = new ArrayList<>();
+
+        new ProductExporter(mSource, 2, new ProductExporter.ProgressListener() {
+            @Override
+            public void onProgress(ProductExporter.Progress progress) {
+                rows.add(progress.getRows());
+            }
+        }).run(new ByteArrayOutputStream(), ProductExporter.Format.CSV, null);
+
+        assertEquals(3, rows.size());
+        assertEquals(2L, (long) rows.get(0));
+        assertEquals(4L, (long) rows.get(1));
+        assertEquals(5L, (long) rows.get(2));
+    }
+
+    private static List<ProductImporter.Record> importCsv(InputStream stream) throws IOException {
+        final List<ProductImporter.Record> imported = new ArrayList<>();
+        new ProductImporter(new ProductImporter.Sink() {
+            @Override
+            public long getPosition() {
+                return 0;
+            }
+
+            @Override
+            public int insert(List<ProductImporter.Record> products, long position) {
+                imported.addAll(products);
+                return products.size();
+            }
+
+            @Override
+            public void finish() {
+            }
+        }, 10, null).run(stream, -1);
+        return imported;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Serves the products from a list, one page at a time like the provider's keyset paging
+     */
+    private static class FakeSource implements ProductExporter.Source {
+        private final List<Object[]> mProducts = new ArrayList<>();
+        private int mPagesRead;
+
+        void add(String name, double price, int quantity, String imageKey) {
+            mProducts.add(new Object[]{(long) mProducts.size() + 1, name, price, quantity, imageKey});
+        }
+
+        @Override
+        public ProductExporter.Page readPage(long afterId, int limit) {
+            mPagesRead++;
+            final List<Object[]> page = new ArrayList<>();
+            for (Object[] product : mProducts) {
+                if ((Long) product[0] > afterId && page.size() < limit) {
+                    page.add(product);
+                }
+            }
+            return new ProductExporter.Page() {
+                private int mPosition = -1;
+
+                @Override
+                public boolean moveToNext() {
+                    return ++mPosition < page.size();
+                }
+
+                @Override
+                public long getId() {
+                    return (Long) page.get(mPosition)[0];
+                }
+
+                @Override
+                public String getName() {
+                    return (String) page.get(mPosition)[1];
+                }
+
+                @Override
+                public double getPrice() {
+                    return (Double) page.get(mPosition)[2];
+                }
+
+                @Override
+                public int getQuantity() {
+                    return (Integer) page.get(mPosition)[3];
+                }
+
+                @Override
+                public String getImageKey() {
+                    return (String) page.get(mPosition)[4];
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public InputStream openImage(long id) throws IOException {
+            return new ByteArrayInputStream(PNG);
+        }
+    }
+}
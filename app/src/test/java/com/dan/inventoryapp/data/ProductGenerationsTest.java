@@ -0,0 +1,218 @@
+package com.dan.inventoryapp.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ProductGenerations}, run against SQLite.
+ */
+public class ProductGenerationsTest {
+
+    /**
+     * Like {@link ProductContract.ProductEntry#CHANGES_PROJECTION}, which can't be read on the
+     * JVM: its class needs the platform's Uri
+     */
+    private static final String[] CHANGES_PROJECTION = {"_id", "name", "quantity", "image_key",
+            "price", "generation", "deleted"};
+
+    private Connection mConnection;
+
+    @Before
+    public void setUp() throws SQLException {
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        execute("CREATE TABLE products (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL, price DOUBLE NOT NULL DEFAULT 0.00, "
+                + "image_key TEXT NOT NULL, quantity INTEGER NOT NULL DEFAULT 0, "
+                + "generation INTEGER NOT NULL DEFAULT 0);");
+        execute("CREATE TABLE metadata (key TEXT PRIMARY KEY, value INTEGER NOT NULL);");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void create_stampsExistingProducts() throws SQLException {
+        insert("Lolita");
+        insert("Gone with the Wind");
+
+        create();
+
+        assertEquals(1, generation());
+        assertEquals(list("1:Lolita", "2:Gone with the Wind"), changes(0));
+        assertEquals(list(), changes(1));
+    }
+
+    @Test
+    public void writes_increaseGeneration() throws SQLException {
+        create();
+        insert("Lolita");
+        insert("Gone with the Wind");
+        assertEquals(3, generation());
+
+        execute("UPDATE products SET quantity=3 WHERE _id=1");
+        assertEquals(4, generation());
+        assertEquals(list("1:Lolita"), changes(3));
+
+        execute("DELETE FROM products WHERE _id=2");
+        assertEquals(5, generation());
+        assertEquals(list("1:Lolita", "2:deleted"), changes(3));
+        assertEquals(list("2:deleted"), changes(4));
+    }
+
+    @Test
+    public void changes_haveEachProductOnceInGenerationOrder() throws SQLException {
+        create();
+        insert("Lolita");
+        insert("Gone with the Wind");
+        insert("The Great Gatsby");
+        execute("UPDATE products SET name='Lolita (2nd edition)' WHERE _id=1");
+        execute("UPDATE products SET price=2 WHERE _id=2");
+        execute("DELETE FROM products WHERE _id=3");
+
+        assertEquals(list("1:Lolita (2nd edition)", "2:Gone with the Wind", "3:deleted"), changes(1));
+    }
+
+    @Test
+    public void changes_withSearchIndex_keepsBothUpToDate() throws SQLException {
+        for (String statement : ProductSearchIndex.getCreateStatements()) {
+            execute(statement);
+        }
+        create();
+        insert("Lolita");
+
+        execute("UPDATE products SET name='Budapest' WHERE _id=1");
+
+        assertEquals(list("1:Budapest"), changes(2));
+        Statement statement = mConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery(
+                "SELECT docid FROM products_fts WHERE products_fts MATCH 'budapest'");
+        assertTrue(resultSet.next());
+        assertEquals(1, resultSet.getLong(1));
+        statement.close();
+    }
+
+    @Test
+    public void buildChangesQuery_addsGeneration() {
+        String query = ProductGenerations.buildChangesQuery(new String[]{"_id", "deleted"});
+
+        assertTrue(query, query.contains("SELECT _id, 0 AS deleted, generation FROM products"));
+    }
+
+    @Test
+    public void prune_keepsRecentTombstones() throws SQLException {
+        create();
+        insert("Lolita");
+        execute("DELETE FROM products WHERE _id=1");
+
+        prune();
+
+        assertEquals(list("1:deleted"), changes(2));
+    }
+
+    @Test
+    public void prune_oldTombstones_changesAskForReload() throws SQLException {
+        create();
+        insert("Lolita");
+        insert("Gone with the Wind");
+        execute("DELETE FROM products WHERE _id=1");
+        // As many writes as the tombstones are kept for
+        execute("UPDATE metadata SET value=value+" + ProductGenerations.RETAINED_GENERATIONS
+                + " WHERE key='generation'");
+        execute("UPDATE products SET quantity=1 WHERE _id=2");
+
+        prune();
+
+        long updated = generation();
+        assertEquals(list("-1:deleted", "2:Gone with the Wind"), changes(2));
+        // Since the delete, or since nothing, no deleted product is missing. 0 bound as text
+        // must not ask for a reload either
+        assertEquals(list("2:Gone with the Wind"), changes(4));
+        assertEquals(list("2:Gone with the Wind"), changes(0));
+        assertEquals(list(), changes(updated));
+
+        // Pruning again keeps the floor
+        prune();
+        assertEquals(list("-1:deleted", "2:Gone with the Wind"), changes(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buildChangesQuery_unknownColumn_throws() {
+        ProductGenerations.buildChangesQuery(new String[]{"_id", "1; DROP TABLE products"});
+    }
+
+    private void create() throws SQLException {
+        for (String statement : ProductGenerations.getCreateStatements()) {
+            execute(statement);
+        }
+    }
+
+    private void prune() throws SQLException {
+        for (String statement : ProductGenerations.getPruneStatements()) {
+            execute(statement);
+        }
+    }
+
+    private void insert(String name) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(
+                "INSERT INTO products (name, image_key) VALUES (?, 'key')");
+        statement.setString(1, name);
+        statement.executeUpdate();
+        statement.close();
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = mConnection.createStatement();
+        statement.executeUpdate(sql);
+        statement.close();
+    }
+
+    private long generation() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT value FROM metadata WHERE key='generation'");
+        assertTrue(resultSet.next());
+        long generation = resultSet.getLong(1);
+        statement.close();
+        return generation;
+    }
+
+    /**
+     * Return the changes since the generation, the way the provider queries them, as
+     * "id:name" or "id:deleted"
+     */
+    private List<String> changes(long sinceGeneration) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(
+                ProductGenerations.buildChangesQuery(CHANGES_PROJECTION));
+        // As text, like the provider's rawQuery() binds it
+        statement.setString(1, String.valueOf(sinceGeneration));
+        ResultSet resultSet = statement.executeQuery();
+        List<String> changes = new ArrayList<>();
+        while (resultSet.next()) {
+            changes.add(resultSet.getLong("_id") + ":" + (resultSet.getInt("deleted") != 0
+                    ? "deleted" : resultSet.getString("name")));
+        }
+        statement.close();
+        return changes;
+    }
+
+    private static List<String> list(String... items) {
+        List<String> list = new ArrayList<>();
+        for (String item : items) {
+            list.add(item);
+        }
+        return list;
+    }
+}
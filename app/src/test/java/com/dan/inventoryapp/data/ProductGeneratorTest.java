@@ -0,0 +1,184 @@
+package com.dan.inventoryapp.data;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ProductGenerator}.
+ */
+public class ProductGeneratorTest {
+
+    @Test
+    public void next_sameSeed_sameProducts() {
+        ProductGenerator first = new ProductGenerator(7);
+        ProductGenerator second = new ProductGenerator(7);
+
+        for (int i = 0; i < 50; i++) {
+            ProductGenerator.Record expected = first.next();
+            ProductGenerator.Record actual = second.next();
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getPrice(), actual.getPrice(), 0);
+            assertEquals(expected.getQuantity(), actual.getQuantity());
+            assertArrayEquals(expected.getImage(), actual.getImage());
+        }
+    }
+
+    @Test
+    public void next_otherSeed_otherProducts() {
+        ProductGenerator.Record first = new ProductGenerator(7).next();
+        ProductGenerator.Record second = new ProductGenerator(8).next();
+
+        assertFalse(Arrays.equals(first.getImage(), second.getImage()));
+    }
+
+    @Test
+    public void next_valuesWithinRanges() {
+        ProductGenerator generator = new ProductGenerator(1);
+        generator.setPriceRange(2, 20);
+        generator.setQuantityRange(10, 0.5);
+        generator.setImageSizes(new int[]{1024}, new double[]{1});
+
+        int outOfStock = 0;
+        for (int i = 0; i < 1000; i++) {
+            ProductGenerator.Record record = generator.next();
+            assertFalse(record.getName().isEmpty());
+            assertTrue(record.getPrice() >= 2 && record.getPrice() <= 20);
+            assertEquals(record.getPrice(), Math.round(record.getPrice() * 100) / 100.0, 0);
+            assertTrue(record.getQuantity() >= 0 && record.getQuantity() <= 10);
+            if (record.getQuantity() == 0) {
+                outOfStock++;
+            }
+        }
+        assertEquals(500, outOfStock, 50);
+    }
+
+    @Test
+    public void next_sharesImagesAtRatio() {
+        ProductGenerator generator = new ProductGenerator(1);
+        generator.setImageSizes(new int[]{1024}, new double[]{1});
+        generator.setDuplicateImageRatio(0.3);
+
+        int duplicates = 0;
+        List<byte[]> images = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ProductGenerator.Record record = generator.next();
+            if (record.isDuplicateImage()) {
+                duplicates++;
+                assertTrue(containsSame(images, record.getImage()));
+            } else {
+                assertFalse(containsSame(images, record.getImage()));
+                images.add(record.getImage());
+            }
+        }
+        assertEquals(300, duplicates, 50);
+    }
+
+    @Test
+    public void next_imageSizesFollowWeights() {
+        ProductGenerator generator = new ProductGenerator(1);
+        generator.setImageSizes(new int[]{1024, 8192}, new double[]{3, 1});
+        generator.setDuplicateImageRatio(0);
+
+        int large = 0;
+        for (int i = 0; i < 400; i++) {
+            if (generator.next().getImage().length > 4096) {
+                large++;
+            }
+        }
+        assertEquals(100, large, 30);
+    }
+
+    @Test
+    public void createImage_isDecodablePngOfAboutSize() throws IOException {
+        for (int size : new int[]{1024, 16 * 1024, 256 * 1024}) {
+            byte[] image = ProductGenerator.createImage(size, new Random(1));
+
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(image));
+            assertNotNull(decoded);
+            assertEquals(decoded.getWidth(), decoded.getHeight(), decoded.getWidth() * 0.1);
+            assertEquals("image/png", ImageStore.sniffMimeType(image, image.length));
+            assertEquals(size, image.length, size * 0.05);
+        }
+    }
+
+    @Test
+    public void generate_writesChunks() throws IOException {
+        ProductGenerator generator = new ProductGenerator(1);
+        generator.setImageSizes(new int[]{1024}, new double[]{1});
+        final List<Integer> chunkSizes = new ArrayList<>();
+
+        generator.generate(250, 100, Long.MAX_VALUE, new ProductGenerator.Sink() {
+            @Override
+            public void insert(List<ProductGenerator.Record> products) {
+                chunkSizes.add(products.size());
+            }
+        });
+
+        assertEquals(Arrays.asList(100, 100, 50), chunkSizes);
+    }
+
+    @Test
+    public void generate_largeImages_writesSmallerChunks() throws IOException {
+        ProductGenerator generator = new ProductGenerator(1);
+        generator.setImageSizes(new int[]{16 * 1024}, new double[]{1});
+        generator.setDuplicateImageRatio(0);
+        final List<Integer> chunkSizes = new ArrayList<>();
+
+        generator.generate(100, 100, 60 * 1024, new ProductGenerator.Sink() {
+            @Override
+            public void insert(List<ProductGenerator.Record> products) {
+                chunkSizes.add(products.size());
+            }
+        });
+
+        // Each chunk closes with the image that reaches the limit
+        assertEquals(25, chunkSizes.size());
+        assertEquals(4, (int) chunkSizes.get(0));
+    }
+
+    @Test
+    public void generate_interrupted_stopsBeforeNextChunk() throws IOException {
+        ProductGenerator generator = new ProductGenerator(1);
+        generator.setImageSizes(new int[]{1024}, new double[]{1});
+        final List<Integer> chunkSizes = new ArrayList<>();
+
+        try {
+            generator.generate(250, 100, Long.MAX_VALUE, new ProductGenerator.Sink() {
+                @Override
+                public void insert(List<ProductGenerator.Record> products) {
+                    chunkSizes.add(products.size());
+                    Thread.currentThread().interrupt();
+                }
+            });
+            fail("Expected InterruptedIOException");
+        } catch (InterruptedIOException e) {
+            assertEquals(Arrays.asList(100), chunkSizes);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setPriceRange_free_throws() {
+        new ProductGenerator(1).setPriceRange(0, 10);
+    }
+
+    private static boolean containsSame(List<byte[]> images, byte[] image) {
+        for (byte[] other : images) {
+            if (other == image) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
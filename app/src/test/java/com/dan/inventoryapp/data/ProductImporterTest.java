@@ -0,0 +1,287 @@
+package com.dan.inventoryapp.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ProductImporter}, writing to a SQLite database like the
+ * provider does.
+ */
+public class ProductImporterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String HEADER = "name,price,quantity,image\n";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Connection mConnection;
+    private SqliteSink mSink;
+
+    @Before
+    public void setUp() throws Exception {
+        mConnection = DriverManager.getConnection(
+                "jdbc:sqlite:" + mFolder.newFile("inventory.db").getPath());
+        Statement statement = mConnection.createStatement();
+        statement.executeUpdate("CREATE TABLE products (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL, price REAL NOT NULL, quantity INTEGER NOT NULL, "
+                + "image TEXT NOT NULL)");
+        statement.executeUpdate("CREATE TABLE metadata (key TEXT PRIMARY KEY, value INTEGER NOT NULL)");
+        statement.close();
+        mSink = new SqliteSink(mConnection, "test");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void run_importsAllRows() throws Exception {
+        String csv = HEADER + createRows(0, 120);
+
+        ProductImporter.Progress progress = new ProductImporter(mSink, 50, null)
+                .run(stream(csv), csv.length());
+
+        assertEquals(120, progress.getRowsImported());
+        assertEquals(0, progress.getRowsSkipped());
+        assertEquals(120, progress.getPosition());
+        assertEquals(3, mSink.mChunkCount);
+        assertEquals(120, countProducts());
+        // The position is forgotten once the file is imported
+        assertEquals(0, mSink.getPosition());
+    }
+
+    @Test
+    public void run_readsQuotedFieldsAndColumnsInAnyOrder() throws Exception {
+        String csv = "\uFEFFImage,Quantity,Name,Price\r\n"
+                + "a.png,3,\"Dune, Deluxe\",12.5\r\n"
+                + "b.png,1,\"The \"\"Hobbit\"\"\nIllustrated\",7\r\n";
+
+        new ProductImporter(mSink, 10, null).run(stream(csv), -1);
+
+        List<String> names = readNames();
+        assertEquals(2, names.size());
+        assertEquals("Dune, Deluxe", names.get(0));
+        assertEquals("The \"Hobbit\"\nIllustrated", names.get(1));
+    }
+
+    @Test
+    public void run_skipsInvalidRows() throws Exception {
+        String csv = HEADER
+                + "Valid,1.5,2,a.png\n"
+                + "Free,0,2,a.png\n"
+                + "Negative,1,-1,a.png\n"
+                + ",1,1,a.png\n"
+                + "No picture,1,1,\n"
+                + "Not a price,abc,1,a.png\n"
+                + "Short,1\n"
+                + "\n"
+                + "Also valid,3,0,b.png\n";
+
+        ProductImporter.Progress progress = new ProductImporter(mSink, 4, null)
+                .run(stream(csv), -1);
+
+        assertEquals(2, progress.getRowsImported());
+        assertEquals(6, progress.getRowsSkipped());
+        assertEquals(8, progress.getPosition());
+        assertEquals(2, countProducts());
+    }
+
+    @Test
+    public void run_afterFailure_resumesWithoutDuplicates() throws Exception {
+        String csv = HEADER + createRows(0, 100);
+        mSink.mFailAtChunk = 3;
+        try {
+            new ProductImporter(mSink, 20, null).run(stream(csv), -1);
+            fail();
+        } catch (IOException expected) {
+        }
+        // The failed chunk was rolled back, the ones before it were committed
+        assertEquals(40, countProducts());
+        assertEquals(40, mSink.getPosition());
+
+        mSink.mFailAtChunk = -1;
+        ProductImporter.Progress progress = new ProductImporter(mSink, 20, null)
+                .run(stream(csv), -1);
+
+        assertEquals(60, progress.getRowsImported());
+        assertEquals(100, progress.getPosition());
+        List<String> names = readNames();
+        assertEquals(100, names.size());
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals("Product " + i, names.get(i));
+        }
+    }
+
+    @Test
+    public void run_interrupted_stopsBeforeNextChunk() throws Exception {
+        String csv = HEADER + createRows(0, 100);
+        ProductImporter importer = new ProductImporter(mSink, 10, new ProductImporter.ProgressListener() {
+            @Override
+            public void onProgress(ProductImporter.Progress progress) {
+                if (progress.getPosition() == 30) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            importer.run(stream(csv), -1);
+            fail();
+        } catch (InterruptedIOException expected) {
+        }
+
+        assertEquals(30, countProducts());
+        assertEquals(30, mSink.getPosition());
+    }
+
+    @Test
+    public void run_reportsProgressAfterEachChunk() throws Exception {
+        String csv = HEADER + createRows(0, 25);
+        final List<long[]> reports = new ArrayList<>();
+
+        new ProductImporter(mSink, 10, new ProductImporter.ProgressListener() {
+            @Override
+            public void onProgress(ProductImporter.Progress progress) {
+                reports.add(new long[]{progress.getPosition(), progress.getBytesRead()});
+                assertTrue(progress.getRowsPerSecond() >= 0);
+            }
+        }).run(stream(csv), csv.length());
+
+        assertEquals(3, reports.size());
+        assertEquals(10, reports.get(0)[0]);
+        assertEquals(20, reports.get(1)[0]);
+        assertEquals(25, reports.get(2)[0]);
+        assertEquals(csv.length(), reports.get(2)[1]);
+    }
+
+    private static String createRows(int first, int count) {
+        StringBuilder rows = new StringBuilder();
+        for (int i = first; i < first + count; i++) {
+            rows.append("Product ").append(i).append(',').append(i + 1).append(".99,")
+                    .append(i % 7).append(",images/").append(i).append(".png\n");
+        }
+        return rows.toString();
+    }
+
+    private static InputStream stream(String csv) {
+        return new ByteArrayInputStream(csv.getBytes(UTF_8));
+    }
+
+    private int countProducts() throws SQLException {
+        return readNames().size();
+    }
+
+    private List<String> readNames() throws SQLException {
+        List<String> names = new ArrayList<>();
+        Statement statement = mConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT name FROM products ORDER BY _id");
+        while (resultSet.next()) {
+            names.add(resultSet.getString(1));
+        }
+        statement.close();
+        return names;
+    }
+
+    /**
+     * Writes each chunk and the position of the import in one transaction, like the
+     * provider's bulkInsert
+     */
+    private static class SqliteSink implements ProductImporter.Sink {
+        private final Connection mConnection;
+        private final String mKey;
+        private int mChunkCount;
+        private int mFailAtChunk = -1;
+
+        SqliteSink(Connection connection, String importId) {
+            mConnection = connection;
+            mKey = "import_position:" + importId;
+        }
+
+        @Override
+        public long getPosition() throws IOException {
+            try {
+                PreparedStatement statement = mConnection.prepareStatement(
+                        "SELECT IFNULL(MAX(value), 0) FROM metadata WHERE key = ?");
+                statement.setString(1, mKey);
+                ResultSet resultSet = statement.executeQuery();
+                long position = resultSet.getLong(1);
+                statement.close();
+                return position;
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public int insert(List<ProductImporter.Record> products, long position) throws IOException {
+            try {
+                mConnection.setAutoCommit(false);
+                try {
+                    PreparedStatement insert = mConnection.prepareStatement(
+                            "INSERT INTO products (name, price, quantity, image) VALUES (?, ?, ?, ?)");
+                    for (ProductImporter.Record product : products) {
+                        insert.setString(1, product.getName());
+                        insert.setDouble(2, product.getPrice());
+                        insert.setInt(3, product.getQuantity());
+                        insert.setString(4, product.getImagePath());
+                        insert.executeUpdate();
+                    }
+                    insert.close();
+                    if (mChunkCount + 1 == mFailAtChunk) {
+                        throw new SQLException("disk full");
+                    }
+                    PreparedStatement metadata = mConnection.prepareStatement(
+                            "INSERT OR REPLACE INTO metadata (key, value) VALUES (?, ?)");
+                    metadata.setString(1, mKey);
+                    metadata.setLong(2, position);
+                    metadata.executeUpdate();
+                    metadata.close();
+                    mConnection.commit();
+                    mChunkCount++;
+                    return products.size();
+                } catch (SQLException e) {
+                    mConnection.rollback();
+                    throw e;
+                } finally {
+                    mConnection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            try {
+                PreparedStatement statement = mConnection.prepareStatement(
+                        "DELETE FROM metadata WHERE key = ?");
+                statement.setString(1, mKey);
+                statement.executeUpdate();
+                statement.close();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
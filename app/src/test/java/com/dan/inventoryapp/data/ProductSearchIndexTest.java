@@ -0,0 +1,170 @@
+package com.dan.inventoryapp.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ProductSearchIndex}, run against SQLite.
+ */
+public class ProductSearchIndexTest {
+
+    private Connection mConnection;
+
+    @Before
+    public void setUp() throws SQLException {
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        execute("CREATE TABLE products (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL, price DOUBLE NOT NULL DEFAULT 0.00, "
+                + "image_key TEXT NOT NULL, quantity INTEGER NOT NULL DEFAULT 0);");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void toMatchQuery_makesEachWordAPrefix() {
+        assertEquals("great* gat*", ProductSearchIndex.toMatchQuery("Great GAT"));
+    }
+
+    @Test
+    public void toMatchQuery_dropsOperatorsAndPunctuation() {
+        assertEquals("a* or* b* not* c*", ProductSearchIndex.toMatchQuery("\"a\" OR b -NOT (c*)"));
+        assertEquals("caf\u00e9*", ProductSearchIndex.toMatchQuery("  caf\u00e9, "));
+    }
+
+    @Test
+    public void toMatchQuery_withoutWords_returnsNull() {
+        assertNull(ProductSearchIndex.toMatchQuery(""));
+        assertNull(ProductSearchIndex.toMatchQuery(" *\"- "));
+    }
+
+    @Test
+    public void create_indexesExistingProducts() throws SQLException {
+        insert("The Great Gatsby");
+        insert("Gone with the Wind");
+
+        createIndex();
+
+        assertEquals(ids(1), search("gats"));
+        assertEquals(ids(1, 2), search("the"));
+    }
+
+    @Test
+    public void triggers_keepIndexInSync() throws SQLException {
+        createIndex();
+        insert("The Great Gatsby");
+        insert("Lolita");
+        assertEquals(ids(1), search("great"));
+
+        execute("UPDATE products SET name='The Grand Budapest' WHERE _id=1");
+        assertEquals(ids(), search("great"));
+        assertEquals(ids(1), search("budapest gra"));
+
+        // Other columns don't touch the index
+        execute("UPDATE products SET quantity=3 WHERE _id=2");
+        assertEquals(ids(2), search("lol"));
+
+        execute("DELETE FROM products WHERE _id=2");
+        assertEquals(ids(), search("lol"));
+    }
+
+    @Test
+    public void search_matchesWordsInAnyOrderIgnoringCase() throws SQLException {
+        createIndex();
+        insert("The Great Gatsby");
+        insert("Great Expectations");
+        insert("gatsby-era posters");
+
+        assertEquals(ids(1), search("GATSBY great"));
+        assertEquals(ids(1, 3), search("gat"));
+        assertEquals(ids(3), search("era"));
+    }
+
+    @Test
+    public void search_largeCatalog_isFast() throws SQLException {
+        createIndex();
+        mConnection.setAutoCommit(false);
+        PreparedStatement insert = mConnection.prepareStatement(
+                "INSERT INTO products (name, image_key) VALUES (?, 'key')");
+        String[] words = {"red", "green", "blue", "lamp", "chair", "table", "book", "mug"};
+        for (int i = 0; i < 100000; i++) {
+            insert.setString(1, words[i % 8] + " " + words[(i / 8) % 8] + " item" + i);
+            insert.executeUpdate();
+        }
+        insert.close();
+        mConnection.commit();
+        mConnection.setAutoCommit(true);
+
+        // Warm up, then keep the best of a few runs to leave out the noise of the machine
+        search("item4242");
+        long best = Long.MAX_VALUE;
+        List<Long> found = null;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            found = search("item4242");
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        // item4242 and item42420..item42429
+        assertEquals(11, found.size());
+        assertTrue("Search took " + best / 1000000 + " ms", best < 50 * 1000000L);
+    }
+
+    private void createIndex() throws SQLException {
+        for (String statement : ProductSearchIndex.getCreateStatements()) {
+            execute(statement);
+        }
+    }
+
+    private void insert(String name) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(
+                "INSERT INTO products (name, image_key) VALUES (?, 'key')");
+        statement.setString(1, name);
+        statement.executeUpdate();
+        statement.close();
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = mConnection.createStatement();
+        statement.executeUpdate(sql);
+        statement.close();
+    }
+
+    /**
+     * Return the ids of the products found, the way the provider queries them
+     */
+    private List<Long> search(String text) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement("SELECT _id FROM products WHERE "
+                + ProductSearchIndex.SELECTION + " ORDER BY _id");
+        statement.setString(1, ProductSearchIndex.toMatchQuery(text));
+        ResultSet resultSet = statement.executeQuery();
+        List<Long> ids = new ArrayList<>();
+        while (resultSet.next()) {
+            ids.add(resultSet.getLong(1));
+        }
+        statement.close();
+        return ids;
+    }
+
+    private static List<Long> ids(long... ids) {
+        List<Long> list = new ArrayList<>();
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+}